@@ -0,0 +1,91 @@
+package iaf.ofek.gisma.ai.filter;
+
+import iaf.ofek.gisma.ai.repository.RevokedTokenRepository;
+import iaf.ofek.gisma.ai.service.auth.TokenRevocationList;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Cost of authenticating one request: the filter used to verify the token twice, each time with a new parser
+ * ({@link #doubleParse}), it now calls {@link JwtUtil#verify} once and the verification is cached per token.
+ * {@link #singleParse} is a verification with the shared parser, the cost of a cache miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtUtilBenchmark {
+
+    private static final String SECRET = "c2VjcmV0LWtleS1vZi10aGUtand0LWJlbmNobWFyay0zMi1ieXRlcy1sb25n";
+
+    private SecretKey key;
+
+    private JwtParser parser;
+
+    private JwtUtil jwtUtil;
+
+    private String token;
+
+    @Setup
+    public void setUp() {
+        key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET));
+        parser = Jwts.parser()
+                .verifyWith(key)
+                .build();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        TokenRevocationList revocationList = new TokenRevocationList(mock(RevokedTokenRepository.class), meterRegistry);
+        jwtUtil = new JwtUtil(SECRET, 100_000, revocationList, meterRegistry);
+        token = jwtUtil.generateToken(UUID.randomUUID(), (int) TimeUnit.HOURS.toMillis(1));
+    }
+
+    /**
+     * validateToken then extractUserId as they were, a parser built and the signature checked by each.
+     */
+    @Benchmark
+    public UUID doubleParse() {
+        Jwts.parser()
+                .verifyWith(key)
+                .build()
+                .parseSignedClaims(token);
+
+        return UUID.fromString(Jwts.parser()
+                .verifyWith(key)
+                .build()
+                .parseSignedClaims(token)
+                .getPayload()
+                .getSubject());
+    }
+
+    @Benchmark
+    public UUID singleParse() {
+        return UUID.fromString(parser.parseSignedClaims(token).getPayload().getSubject());
+    }
+
+    @Benchmark
+    public Optional<UUID> verify() {
+        return jwtUtil.verify(token);
+    }
+
+}
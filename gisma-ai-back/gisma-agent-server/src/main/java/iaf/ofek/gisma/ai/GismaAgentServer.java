@@ -4,8 +4,10 @@ import org.springframework.ai.vectorstore.pgvector.autoconfigure.PgVectorStoreAu
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @EnableAsync
+@EnableScheduling
 @SpringBootApplication(exclude = PgVectorStoreAutoConfiguration.class)
 public class GismaAgentServer {
 
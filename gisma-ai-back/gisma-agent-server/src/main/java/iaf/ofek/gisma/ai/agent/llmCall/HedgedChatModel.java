@@ -0,0 +1,98 @@
+package iaf.ofek.gisma.ai.agent.llmCall;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hedges streamed calls, i.e. {@link LLMCallerService#callLLM}: when the first chunk hasn't arrived after the
+ * {@link HedgingPolicy} delay, the same prompt is sent again, the stream that produces a chunk first is relayed and
+ * the other one is cancelled. Hedging happens below the advisors, so retrieval runs and chat memory is written once
+ * per call whichever request wins. A primary that fails before the delay is not hedged. Blocking calls pass through.
+ */
+public class HedgedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+
+    private final HedgingPolicy policy;
+
+    public HedgedChatModel(ChatModel delegate, HedgingPolicy policy) {
+        this.delegate = delegate;
+        this.policy = policy;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return delegate.call(prompt);
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicReference<String> winner = new AtomicReference<>();
+            AtomicBoolean hedgeFired = new AtomicBoolean();
+            AtomicReference<Throwable> primaryError = new AtomicReference<>();
+            Sinks.One<Boolean> primaryFailed = Sinks.one();
+
+            Flux<ChatResponse> primary = attempt(prompt, HedgingPolicy.RESULT_PRIMARY_WON, start, winner, hedgeFired)
+                    .doOnError(e -> {
+                        primaryError.set(e);
+                        primaryFailed.tryEmitValue(true);
+                    });
+
+            Optional<Duration> delay = policy.hedgeDelay();
+            Flux<ChatResponse> raced = delay.isEmpty()
+                    ? primary
+                    : Flux.firstWithValue(primary, Mono.delay(delay.get())
+                            .takeUntilOther(primaryFailed.asMono())
+                            .flatMapMany(tick -> {
+                                hedgeFired.set(true);
+                                return attempt(prompt, HedgingPolicy.RESULT_HEDGE_WON, start, winner, hedgeFired);
+                            }));
+
+            return raced
+                    // both lost, report the primary's failure rather than the combined one
+                    .onErrorMap(NoSuchElementException.class, e -> primaryError.get() != null ? primaryError.get() : e)
+                    .doFinally(signal -> recordResult(signal, winner.get(), hedgeFired.get()));
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    private Flux<ChatResponse> attempt(Prompt prompt, String result, long start, AtomicReference<String> winner,
+                                       AtomicBoolean hedgeFired) {
+        return delegate.stream(prompt)
+                .doOnNext(response -> {
+                    if (winner.compareAndSet(null, result)) {
+                        policy.recordFirstToken(System.nanoTime() - start, hedgeFired.get());
+                    }
+                });
+    }
+
+    private void recordResult(SignalType signal, String winner, boolean hedgeFired) {
+        if (winner == null) {
+            // a caller that gave up before the first chunk says nothing about the provider
+            if (signal == SignalType.ON_ERROR) {
+                policy.recordResult(HedgingPolicy.RESULT_FAILED);
+            }
+        } else {
+            policy.recordResult(hedgeFired ? winner : HedgingPolicy.RESULT_NOT_HEDGED);
+        }
+    }
+
+}
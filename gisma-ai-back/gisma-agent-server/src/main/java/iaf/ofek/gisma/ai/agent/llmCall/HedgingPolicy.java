@@ -0,0 +1,151 @@
+package iaf.ofek.gisma.ai.agent.llmCall;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When to hedge a streamed LLM call. The delay is the {@code percentile} of the time to first token over the last
+ * {@code window} calls, recomputed every {@code refresh-interval} and clamped to {@code [min-delay, max-delay]};
+ * until {@code window / 2} calls were seen {@code initial-delay} is used. At most {@code max-hedge-rate} of the calls
+ * in the window may hedge, so a provider that is slow across the board doesn't get twice the load.
+ * <p>
+ * Exported: {@code agent.llm.first.token} (timer, tagged hedged), {@code agent.llm.hedge} (per result:
+ * not_hedged, primary_won, hedge_won, failed) and the {@code agent.llm.hedge.delay} gauge in ms.
+ */
+@Component
+@ConditionalOnProperty(name = "sa.agent.hedging.enabled", havingValue = "true")
+@Log4j2
+public class HedgingPolicy {
+
+    public static final String RESULT_NOT_HEDGED = "not_hedged";
+
+    public static final String RESULT_PRIMARY_WON = "primary_won";
+
+    public static final String RESULT_HEDGE_WON = "hedge_won";
+
+    public static final String RESULT_FAILED = "failed";
+
+    private final double percentile;
+
+    private final double maxHedgeRate;
+
+    private final long minDelayNanos;
+
+    private final long maxDelayNanos;
+
+    private final AtomicLong delayNanos;
+
+    // ring of the last first token latencies and whether the call hedged, guarded by this
+    private final long[] firstTokenNanos;
+
+    private final boolean[] hedged;
+
+    // guarded by this
+    private int recorded;
+
+    // guarded by this
+    private int next;
+
+    // guarded by this
+    private int hedgedCount;
+
+    private final MeterRegistry meterRegistry;
+
+    public HedgingPolicy(MeterRegistry meterRegistry,
+                         @Value("${sa.agent.hedging.percentile:0.95}") double percentile,
+                         @Value("${sa.agent.hedging.window:200}") int window,
+                         @Value("${sa.agent.hedging.initial-delay:PT3S}") Duration initialDelay,
+                         @Value("${sa.agent.hedging.min-delay:PT500MS}") Duration minDelay,
+                         @Value("${sa.agent.hedging.max-delay:PT10S}") Duration maxDelay,
+                         @Value("${sa.agent.hedging.max-hedge-rate:0.1}") double maxHedgeRate) {
+        this.meterRegistry = meterRegistry;
+        this.percentile = Math.min(1, Math.max(0, percentile));
+        this.maxHedgeRate = maxHedgeRate;
+        this.minDelayNanos = minDelay.toNanos();
+        this.maxDelayNanos = Math.max(minDelayNanos, maxDelay.toNanos());
+        this.delayNanos = new AtomicLong(clamp(initialDelay.toNanos()));
+        this.firstTokenNanos = new long[Math.max(2, window)];
+        this.hedged = new boolean[firstTokenNanos.length];
+        meterRegistry.gauge("agent.llm.hedge.delay", delayNanos, nanos -> nanos.get() / 1_000_000d);
+    }
+
+    /**
+     * Delay after which a call without a first token is hedged, empty while the hedge budget is used up.
+     */
+    public synchronized Optional<Duration> hedgeDelay() {
+        if (recorded > 0 && hedgedCount > maxHedgeRate * recorded) {
+            return Optional.empty();
+        }
+
+        return Optional.of(Duration.ofNanos(delayNanos.get()));
+    }
+
+    /**
+     * Time to the first token as the caller saw it, from the primary request to the winner's first token.
+     */
+    public void recordFirstToken(long nanos, boolean hedgeFired) {
+        Timer.builder("agent.llm.first.token")
+                .tag("hedged", String.valueOf(hedgeFired))
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+
+        synchronized (this) {
+            if (recorded == firstTokenNanos.length) {
+                if (hedged[next]) {
+                    hedgedCount--;
+                }
+            } else {
+                recorded++;
+            }
+            firstTokenNanos[next] = nanos;
+            hedged[next] = hedgeFired;
+            if (hedgeFired) {
+                hedgedCount++;
+            }
+            next = (next + 1) % firstTokenNanos.length;
+        }
+    }
+
+    public void recordResult(String result) {
+        Counter.builder("agent.llm.hedge")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    @Scheduled(fixedDelayString = "${sa.agent.hedging.refresh-interval:PT10S}")
+    public void refresh() {
+        long[] samples;
+        synchronized (this) {
+            if (recorded < firstTokenNanos.length / 2) {
+                return;
+            }
+            samples = Arrays.copyOf(firstTokenNanos, recorded);
+        }
+
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile * samples.length) - 1;
+        long delay = clamp(samples[Math.min(samples.length - 1, Math.max(0, index))]);
+        long previous = delayNanos.getAndSet(delay);
+        if (previous != delay) {
+            log.debug("Hedge delay {} -> {}", Duration.ofNanos(previous), Duration.ofNanos(delay));
+        }
+    }
+
+    private long clamp(long nanos) {
+        return Math.min(maxDelayNanos, Math.max(minDelayNanos, nanos));
+    }
+
+}
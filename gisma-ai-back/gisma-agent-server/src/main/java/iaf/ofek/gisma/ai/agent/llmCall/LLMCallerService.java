@@ -76,7 +76,7 @@ public class LLMCallerService {
         );
     }
 
-    // response to user call
+    // response to user call, hedged with sa.agent.hedging.enabled (see HedgedChatModel)
     public Flux<String> callLLM(Function<ChatClient, ChatClient.ChatClientRequestSpec> callback, String chatId, Function<String, Consumer<ChatClient.AdvisorSpec>> consumer) {
         return callback.apply(chatClient)
                 .advisors(consumer.apply(chatId))
@@ -1,22 +1,178 @@
 package iaf.ofek.gisma.ai.agent.orchestrator;
 
+import iaf.ofek.gisma.ai.agent.scheduling.FairLlmScheduler;
+import iaf.ofek.gisma.ai.agent.scheduling.UserRateLimiter;
+import iaf.ofek.gisma.ai.dto.agent.BatchPromptResult;
 import iaf.ofek.gisma.ai.dto.agent.UserPrompt;
+import iaf.ofek.gisma.ai.enums.RequestChannel;
+import iaf.ofek.gisma.ai.exception.RateLimitExceededException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Prompts pass the user's rate limit first, then wait for an LLM slot in the {@link FairLlmScheduler}.
+ */
 @Service
 @RequiredArgsConstructor
+@Log4j2
 public class AgentOrchestrator {
 
     private final OneShotExecutor oneShotExecutor;
 
-    public Flux<String> handleQuery(UserPrompt prompt, String chatId) {
-        return oneShotExecutor.execute(prompt, chatId);
+    private final UserRateLimiter rateLimiter;
+
+    private final FairLlmScheduler scheduler;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${sa.agent.batch.parallelism:4}")
+    private int batchParallelism;
+
+    @Value("${sa.agent.batch.max-prompts:500}")
+    private int batchMaxPrompts;
+
+    /**
+     * Rejections are streamed back as the answer, like other failures of the chat pipeline.
+     */
+    public Flux<String> handleQuery(UserPrompt prompt, String chatId, String userId, RequestChannel channel) {
+        return stream(prompt, chatId, userId, channel)
+                .onErrorResume(RateLimitExceededException.class, e -> Flux.just(e.getMessage()));
+    }
+
+    /**
+     * The whole answer, without holding a thread while it is generated. Rejections fail the {@link Mono}.
+     */
+    public Mono<String> handleQueryAsync(UserPrompt prompt, String chatId, String userId, RequestChannel channel) {
+        return stream(prompt, chatId, userId, channel)
+                .collect(Collectors.joining());
+    }
+
+    /**
+     * Answers the prompts up to {@code parallelism} at a time and emits every result once its prompt is answered,
+     * i.e. not in request order. Identical prompts are answered once (retrieval, tool calls, memory) and share the
+     * answer. The batch takes a single rate limit token, its prompts wait in the fair queue like any other REST prompt
+     * so a large batch doesn't crowd out other users. A prompt that fails yields a result with the error.
+     */
+    public Flux<BatchPromptResult> handleBatch(List<UserPrompt> prompts, Integer parallelism, String userId) {
+        validateBatch(prompts, parallelism);
+        admit(userId, RequestChannel.REST);
+
+        Map<UserPrompt, List<Integer>> indicesByPrompt = new LinkedHashMap<>();
+        for (int i = 0; i < prompts.size(); i++) {
+            indicesByPrompt.computeIfAbsent(normalize(prompts.get(i)), prompt -> new ArrayList<>()).add(i);
+        }
+        int concurrency = parallelism == null ? batchParallelism : Math.min(parallelism, batchParallelism);
+
+        return Flux.fromIterable(indicesByPrompt.entrySet())
+                .flatMap(entry -> answer(entry.getKey(), userId)
+                        .map(response -> results(entry, response, null))
+                        .onErrorResume(e -> {
+                            log.warn("Batch prompt {} failed: {}", entry.getValue(), e.getMessage());
+                            return Mono.just(results(entry, null, Objects.toString(e.getMessage(),
+                                    e.getClass().getSimpleName())));
+                        }), Math.max(1, concurrency))
+                .flatMapIterable(Function.identity());
+    }
+
+    public String handleQueryBlocking(UserPrompt prompt, String chatId, String userId, RequestChannel channel) {
+        admit(userId, channel);
+
+        return handleAdmittedQueryBlocking(prompt, chatId, userId, channel);
     }
 
-    public String handleQueryBlocking(UserPrompt prompt, String chatId) {
-        return oneShotExecutor.executeBlocking(prompt, chatId);
+    /**
+     * For prompts that passed the rate limit when they were accepted, e.g. queued jobs.
+     */
+    public String handleAdmittedQueryBlocking(UserPrompt prompt, String chatId, String userId, RequestChannel channel) {
+        return scheduler.scheduleBlocking(userId, channel, () -> oneShotExecutor.executeBlocking(prompt, chatId, userId));
+    }
+
+    private Flux<String> stream(UserPrompt prompt, String chatId, String userId, RequestChannel channel) {
+        return Flux.defer(() -> {
+            admit(userId, channel);
+            return scheduler.schedule(userId, channel, () -> oneShotExecutor.execute(prompt, chatId, userId));
+        });
+    }
+
+    /**
+     * Bean validation isn't wired for {@link iaf.ofek.gisma.ai.dto.agent.BatchPromptRequest}, checked before
+     * the batch takes a token.
+     */
+    private void validateBatch(List<UserPrompt> prompts, Integer parallelism) {
+        if (prompts == null || prompts.isEmpty()) {
+            throw new IllegalArgumentException("prompts can't be empty");
+        }
+        if (prompts.size() > batchMaxPrompts) {
+            throw new IllegalArgumentException("prompts can't have more than %d prompts".formatted(batchMaxPrompts));
+        }
+        if (prompts.contains(null)) {
+            throw new IllegalArgumentException("prompts can't contain null");
+        }
+        if (parallelism != null && parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+    }
+
+    private Mono<String> answer(UserPrompt prompt, String userId) {
+        return scheduler.schedule(userId, RequestChannel.REST,
+                        () -> oneShotExecutor.execute(prompt, prompt.chatId(), userId))
+                .collect(Collectors.joining());
+    }
+
+    private static List<BatchPromptResult> results(Map.Entry<UserPrompt, List<Integer>> entry, String response,
+                                                   String error) {
+        String chatId = entry.getKey() == null ? null : entry.getKey().chatId();
+
+        return entry.getValue()
+                .stream()
+                .map(index -> new BatchPromptResult(index, chatId, response, error))
+                .toList();
+    }
+
+    /**
+     * Repeated questions often differ in surrounding whitespace only.
+     */
+    private static UserPrompt normalize(UserPrompt prompt) {
+        if (prompt == null || prompt.query() == null) {
+            return prompt;
+        }
+
+        return new UserPrompt(prompt.query().strip(), prompt.chatId(), prompt.responseFormat(), prompt.schemaJson(),
+                prompt.folderIds());
+    }
+
+    /**
+     * Takes a rate limit token of the user, fails with {@link RateLimitExceededException} when there is none.
+     */
+    public void admit(String userId, RequestChannel channel) {
+        long waitNanos = rateLimiter.tryAcquire(userId);
+        if (waitNanos == 0) {
+            return;
+        }
+
+        Counter.builder("agent.llm.rejected")
+                .tag("channel", channel.name())
+                .tag("reason", "rate_limited")
+                .register(meterRegistry)
+                .increment();
+        Duration retryAfter = Duration.ofNanos(waitNanos);
+        throw new RateLimitExceededException("Too many prompts, try again in %d seconds"
+                .formatted(Math.max(1, (retryAfter.toMillis() + 999) / 1000)), retryAfter);
     }
 
 }
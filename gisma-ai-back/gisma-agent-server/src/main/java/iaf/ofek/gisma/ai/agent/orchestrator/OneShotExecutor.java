@@ -3,7 +3,14 @@ package iaf.ofek.gisma.ai.agent.orchestrator;
 import iaf.ofek.gisma.ai.agent.llmCall.LLMCallerWithMemoryService;
 import iaf.ofek.gisma.ai.agent.memory.ChatMemoryAdvisorProvider;
 import iaf.ofek.gisma.ai.agent.prompt.PromptFormat;
+import iaf.ofek.gisma.ai.agent.retrieval.AdaptiveRetrievalPolicy;
+import iaf.ofek.gisma.ai.agent.retrieval.AdaptiveRetrievalVectorStore;
+import iaf.ofek.gisma.ai.agent.retrieval.FederatedVectorStore;
+import iaf.ofek.gisma.ai.agent.retrieval.FolderScopeFilter;
 import iaf.ofek.gisma.ai.dto.agent.UserPrompt;
+import iaf.ofek.gisma.ai.exception.DependencyUnavailableException;
+import iaf.ofek.gisma.ai.service.resilience.DependencyGuards;
+import iaf.ofek.gisma.ai.service.resilience.GuardedToolCallbackProvider;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
@@ -12,6 +19,8 @@ import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import static iaf.ofek.gisma.ai.constant.AdvisorOrder.QA_ADVISOR_ORDER;
 
@@ -51,41 +60,78 @@ public class OneShotExecutor {
 
     private final LLMCallerWithMemoryService llmCallerService;
 
-    private final QuestionAnswerAdvisor qaAdvisor;
+    private final VectorStore documentVectorStore;
+
+    private final VectorStore userDocumentVectorStore;
+
+    private final AdaptiveRetrievalPolicy retrievalPolicy;
+
+    private final FolderScopeFilter folderScopeFilter;
 
     public OneShotExecutor(@Qualifier("documentVectorStore") VectorStore documentVectorStore,
+                           @Qualifier("userDocumentVectorStore") VectorStore userDocumentVectorStore,
                            ChatClient.Builder builder, ToolCallbackProvider tools,
-                           ChatMemoryAdvisorProvider memoryAdvisorProvider) {
-        this.llmCallerService = new LLMCallerWithMemoryService(builder, tools, memoryAdvisorProvider);
-        this.qaAdvisor = QuestionAnswerAdvisor.builder(documentVectorStore)
-                .order(QA_ADVISOR_ORDER)
-                .build();
+                           ChatMemoryAdvisorProvider memoryAdvisorProvider,
+                           AdaptiveRetrievalPolicy retrievalPolicy, FolderScopeFilter folderScopeFilter,
+                           DependencyGuards guards) {
+        this.documentVectorStore = documentVectorStore;
+        this.userDocumentVectorStore = userDocumentVectorStore;
+        this.retrievalPolicy = retrievalPolicy;
+        this.folderScopeFilter = folderScopeFilter;
+        this.llmCallerService = new LLMCallerWithMemoryService(builder,
+                new GuardedToolCallbackProvider(tools, guards.mcpTools()), memoryAdvisorProvider);
     }
 
-    public Flux<String> execute(UserPrompt userPrompt, String chatId) {
+    public Flux<String> execute(UserPrompt userPrompt, String chatId, String userId) {
         String userMessage = USER_PROMPT_TEMPLATE
                 .replace(PromptFormat.QUERY, userPrompt.query())
                 .replace(PromptFormat.RESPONSE_FORMAT, userPrompt.responseFormat().getFormat(userPrompt.schemaJson()));
 
-        return llmCallerService.callLLM(chatClient -> chatClient.prompt()
-                .system(SYSTEM_MESSAGE)
-                .user(userMessage)
-                .advisors(qaAdvisor), chatId)
+        // folder scope reads the folder tree, keep it off the websocket thread
+        return Mono.fromCallable(() -> folderScopeFilter.toFilterExpression(userPrompt.folderIds()))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(folderFilter -> llmCallerService.callLLM(chatClient -> chatClient.prompt()
+                        .system(SYSTEM_MESSAGE)
+                        .user(userMessage)
+                        .advisors(qaAdvisor(userId))
+                        .advisors(a -> a.param(QuestionAnswerAdvisor.FILTER_EXPRESSION, folderFilter)), chatId))
+                .onErrorResume(DependencyUnavailableException.class, ex -> {
+                    log.warn("LLM pipeline rejected: {}", ex.getMessage());
+                    return Flux.just("The assistant is temporarily unavailable, try again in a minute.");
+                })
                 .onErrorResume(ex -> {
                     log.error("LLM pipeline failed", ex);
                     return Flux.just("Something went wrong. try again...");
                 });
     }
 
-    public String executeBlocking(UserPrompt userPrompt, String chatId) {
+    public String executeBlocking(UserPrompt userPrompt, String chatId, String userId) {
         String userMessage = USER_PROMPT_TEMPLATE
                 .replace(PromptFormat.QUERY, userPrompt.query())
                 .replace(PromptFormat.RESPONSE_FORMAT, userPrompt.responseFormat().getFormat(userPrompt.schemaJson()));
 
+        String folderFilter = folderScopeFilter.toFilterExpression(userPrompt.folderIds());
+
         return llmCallerService.callLLMBlocking(chatClient -> chatClient.prompt()
                 .system(SYSTEM_MESSAGE)
                 .user(userMessage)
-                .advisors(qaAdvisor), chatId);
+                .advisors(qaAdvisor(userId))
+                .advisors(a -> a.param(QuestionAnswerAdvisor.FILTER_EXPRESSION, folderFilter)), chatId);
+    }
+
+    /**
+     * Retrieval covers the global corpus and the private documents of the calling user.
+     */
+    private QuestionAnswerAdvisor qaAdvisor(String userId) {
+        VectorStore store = userId == null
+                ? documentVectorStore
+                : new FederatedVectorStore(documentVectorStore, userDocumentVectorStore, userId);
+        AdaptiveRetrievalVectorStore retrievalStore = new AdaptiveRetrievalVectorStore(store, retrievalPolicy);
+
+        return QuestionAnswerAdvisor.builder(retrievalStore)
+                .searchRequest(retrievalStore.candidateSearchRequest())
+                .order(QA_ADVISOR_ORDER)
+                .build();
     }
 
 }
@@ -0,0 +1,215 @@
+package iaf.ofek.gisma.ai.agent.retrieval;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Decides how many retrieved chunks actually go into the prompt:
+ * similarity floor, cut at the largest score gap (elbow), MMR re-ranking that drops near duplicates,
+ * then a hard cap on the context tokens. The elbow keeps at least {@code minChunks} of the chunks above the floor,
+ * the token cap may still drop some of them.
+ */
+@Component
+@Log4j2
+public class AdaptiveRetrievalPolicy {
+
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    @Getter
+    private final int candidateTopK;
+
+    @Getter
+    private final double minSimilarity;
+
+    private final int minChunks;
+
+    private final int maxChunks;
+
+    private final double minScoreGap;
+
+    private final double mmrLambda;
+
+    private final double duplicateThreshold;
+
+    private final int maxContextTokens;
+
+    private final DistributionSummary candidatesSummary;
+
+    private final DistributionSummary selectedSummary;
+
+    private final DistributionSummary topScoreSummary;
+
+    private final DistributionSummary cutoffScoreSummary;
+
+    private final DistributionSummary contextTokensSummary;
+
+    public AdaptiveRetrievalPolicy(MeterRegistry meterRegistry,
+                                   @Value("${sa.rag.candidate-top-k:12}") int candidateTopK,
+                                   @Value("${sa.rag.min-similarity:0.3}") double minSimilarity,
+                                   @Value("${sa.rag.min-chunks:1}") int minChunks,
+                                   @Value("${sa.rag.max-chunks:6}") int maxChunks,
+                                   @Value("${sa.rag.min-score-gap:0.08}") double minScoreGap,
+                                   @Value("${sa.rag.mmr-lambda:0.7}") double mmrLambda,
+                                   @Value("${sa.rag.duplicate-threshold:0.85}") double duplicateThreshold,
+                                   @Value("${sa.rag.max-context-tokens:2500}") int maxContextTokens) {
+        this.candidateTopK = candidateTopK;
+        this.minSimilarity = minSimilarity;
+        this.minChunks = Math.max(1, minChunks);
+        this.maxChunks = maxChunks;
+        this.minScoreGap = minScoreGap;
+        this.mmrLambda = mmrLambda;
+        this.duplicateThreshold = duplicateThreshold;
+        this.maxContextTokens = maxContextTokens;
+        this.candidatesSummary = DistributionSummary.builder("rag.retrieval.candidates").register(meterRegistry);
+        this.selectedSummary = DistributionSummary.builder("rag.retrieval.selected").register(meterRegistry);
+        this.topScoreSummary = DistributionSummary.builder("rag.retrieval.top.score").register(meterRegistry);
+        this.cutoffScoreSummary = DistributionSummary.builder("rag.retrieval.cutoff.score").register(meterRegistry);
+        this.contextTokensSummary = DistributionSummary.builder("rag.retrieval.context.tokens").register(meterRegistry);
+    }
+
+    public List<Document> select(List<Document> candidates) {
+        List<Document> ranked = candidates.stream()
+                .filter(document -> score(document) >= minSimilarity)
+                .sorted(Comparator.comparingDouble(AdaptiveRetrievalPolicy::score).reversed())
+                .toList();
+        List<Document> selected = capTokens(mmr(cutAtElbow(ranked)));
+        record(candidates, selected);
+
+        return selected;
+    }
+
+    private List<Document> cutAtElbow(List<Document> ranked) {
+        int cut = ranked.size();
+        double largestGap = minScoreGap;
+
+        for (int i = minChunks - 1; i < ranked.size() - 1; i++) {
+            double gap = score(ranked.get(i)) - score(ranked.get(i + 1));
+            if (gap >= largestGap) {
+                largestGap = gap;
+                cut = i + 1;
+            }
+        }
+
+        return ranked.subList(0, cut);
+    }
+
+    private List<Document> mmr(List<Document> ranked) {
+        List<Document> remaining = new ArrayList<>(ranked);
+        List<Document> selected = new ArrayList<>();
+        List<Set<String>> selectedTerms = new ArrayList<>();
+
+        while (!remaining.isEmpty() && selected.size() < maxChunks) {
+            Document best = null;
+            Set<String> bestTerms = null;
+            double bestScore = Double.NEGATIVE_INFINITY;
+
+            for (Iterator<Document> iterator = remaining.iterator(); iterator.hasNext(); ) {
+                Document candidate = iterator.next();
+                Set<String> terms = terms(candidate.getText());
+                double redundancy = selectedTerms.stream()
+                        .mapToDouble(selectedSet -> jaccard(terms, selectedSet))
+                        .max()
+                        .orElse(0);
+
+                if (redundancy >= duplicateThreshold) {
+                    iterator.remove();
+                    continue;
+                }
+
+                double mmrScore = mmrLambda * score(candidate) - (1 - mmrLambda) * redundancy;
+                if (mmrScore > bestScore) {
+                    bestScore = mmrScore;
+                    best = candidate;
+                    bestTerms = terms;
+                }
+            }
+
+            if (best == null) {
+                break;
+            }
+
+            remaining.remove(best);
+            selected.add(best);
+            selectedTerms.add(bestTerms);
+        }
+
+        return selected;
+    }
+
+    /**
+     * Never exceeds {@code maxContextTokens}: a chunk that doesn't fit what is left of the budget is skipped, a shorter
+     * one further down may still fit. This wins over {@code minChunks}.
+     */
+    private List<Document> capTokens(List<Document> documents) {
+        List<Document> capped = new ArrayList<>();
+        int tokens = 0;
+
+        for (Document document : documents) {
+            int documentTokens = tokenCountEstimator.estimate(document.getText());
+            if (tokens + documentTokens > maxContextTokens) {
+                continue;
+            }
+            tokens += documentTokens;
+            capped.add(document);
+        }
+
+        return capped;
+    }
+
+    private void record(List<Document> candidates, List<Document> selected) {
+        candidatesSummary.record(candidates.size());
+        selectedSummary.record(selected.size());
+
+        if (!selected.isEmpty()) {
+            topScoreSummary.record(score(selected.get(0)));
+            cutoffScoreSummary.record(selected.stream().mapToDouble(AdaptiveRetrievalPolicy::score).min().orElse(0));
+            contextTokensSummary.record(selected.stream().mapToInt(d -> tokenCountEstimator.estimate(d.getText())).sum());
+        }
+
+        log.debug("Adaptive retrieval kept {}/{} chunks. candidate scores: {}, selected scores: {}.",
+                selected.size(), candidates.size(), scores(candidates), scores(selected));
+    }
+
+    private static List<Double> scores(List<Document> documents) {
+        return documents.stream()
+                .map(AdaptiveRetrievalPolicy::score)
+                .toList();
+    }
+
+    private static double score(Document document) {
+        return document.getScore() == null ? 0 : document.getScore();
+    }
+
+    private static Set<String> terms(String text) {
+        if (text == null) {
+            return Set.of();
+        }
+
+        Set<String> terms = new HashSet<>(Arrays.asList(text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")));
+        terms.remove("");
+
+        return terms;
+    }
+
+    private static double jaccard(Set<String> a, Set<String> b) {
+        if (a.isEmpty() && b.isEmpty()) {
+            return 1;
+        }
+
+        Set<String> intersection = new HashSet<>(a);
+        intersection.retainAll(b);
+        int union = a.size() + b.size() - intersection.size();
+
+        return (double) intersection.size() / union;
+    }
+
+}
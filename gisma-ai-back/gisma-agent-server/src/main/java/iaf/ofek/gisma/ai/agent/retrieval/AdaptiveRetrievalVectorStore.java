@@ -0,0 +1,73 @@
+package iaf.ofek.gisma.ai.agent.retrieval;
+
+import iaf.ofek.gisma.ai.exception.DependencyUnavailableException;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Read side view handed to {@code QuestionAnswerAdvisor}: searches the candidate pool of the delegate
+ * and lets {@link AdaptiveRetrievalPolicy} pick the chunks that go into the prompt.
+ * While the embedding model is unavailable the prompt goes out without documents rather than failing.
+ */
+@Log4j2
+public class AdaptiveRetrievalVectorStore implements VectorStore {
+
+    private final VectorStore delegate;
+
+    private final AdaptiveRetrievalPolicy policy;
+
+    public AdaptiveRetrievalVectorStore(VectorStore delegate, AdaptiveRetrievalPolicy policy) {
+        this.delegate = delegate;
+        this.policy = policy;
+    }
+
+    /**
+     * Search request template for the advisor, the policy trims the candidates afterward.
+     */
+    public SearchRequest candidateSearchRequest() {
+        return SearchRequest.builder()
+                .topK(policy.getCandidateTopK())
+                .similarityThreshold(policy.getMinSimilarity())
+                .build();
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        delegate.add(documents);
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        delegate.delete(idList);
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        delegate.delete(filterExpression);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        List<Document> candidates;
+        try {
+            candidates = delegate.similaritySearch(request);
+        } catch (DependencyUnavailableException e) {
+            log.warn("Retrieval skipped: {}", e.getMessage());
+            return List.of();
+        }
+
+        return candidates == null ? List.of() : policy.select(candidates);
+    }
+
+    @Override
+    public <T> Optional<T> getNativeClient() {
+        return delegate.getNativeClient();
+    }
+
+}
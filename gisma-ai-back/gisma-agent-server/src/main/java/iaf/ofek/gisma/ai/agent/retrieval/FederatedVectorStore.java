@@ -0,0 +1,81 @@
+package iaf.ofek.gisma.ai.agent.retrieval;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+import static iaf.ofek.gisma.ai.service.ingestion.IngestionService.USER_ID;
+
+/**
+ * Per request read only view over the global store and the private store of one user.
+ * Both are searched in parallel, the user search is always limited to the user id,
+ * the request filter (folder scope) applies to the global store only. Results are merged by score.
+ */
+public class FederatedVectorStore implements VectorStore {
+
+    private static final FilterExpressionBuilder filterBuilder = new FilterExpressionBuilder();
+
+    private final VectorStore globalStore;
+
+    private final VectorStore userStore;
+
+    private final Filter.Expression userFilter;
+
+    public FederatedVectorStore(VectorStore globalStore, VectorStore userStore, String userId) {
+        this.globalStore = globalStore;
+        this.userStore = userStore;
+        this.userFilter = filterBuilder.eq(USER_ID, userId).build();
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        throw new UnsupportedOperationException("Federated vector store is read only");
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        throw new UnsupportedOperationException("Federated vector store is read only");
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        throw new UnsupportedOperationException("Federated vector store is read only");
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        SearchRequest userRequest = SearchRequest.from(request)
+                .filterExpression(userFilter)
+                .build();
+
+        return Mono.zip(search(globalStore, request), search(userStore, userRequest), (global, user) -> {
+                    List<Document> merged = new ArrayList<>(global.size() + user.size());
+                    merged.addAll(global);
+                    merged.addAll(user);
+                    merged.sort(Comparator.comparingDouble((Document d) -> d.getScore() == null ? 0 : d.getScore()).reversed());
+
+                    return merged.subList(0, Math.min(request.getTopK(), merged.size()));
+                })
+                .block();
+    }
+
+    @Override
+    public <T> Optional<T> getNativeClient() {
+        return Optional.empty();
+    }
+
+    private static Mono<List<Document>> search(VectorStore store, SearchRequest request) {
+        return Mono.fromCallable(() -> Optional.ofNullable(store.similaritySearch(request)).orElse(List.of()))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+}
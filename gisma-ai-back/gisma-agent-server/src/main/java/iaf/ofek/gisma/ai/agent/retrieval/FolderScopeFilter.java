@@ -0,0 +1,48 @@
+package iaf.ofek.gisma.ai.agent.retrieval;
+
+import iaf.ofek.gisma.ai.service.ingestion.ParentFolderFetcherService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static iaf.ofek.gisma.ai.service.ingestion.IngestionService.FOLDER_PATH;
+
+/**
+ * Builds the retrieval filter limiting the RAG context to the selected folders and their subfolders.
+ * The term is pushed down to the GIN indexed {@code folder_path} column, chunks of content shared by several
+ * documents carry the union of their folder paths.
+ */
+@Component
+@RequiredArgsConstructor
+public class FolderScopeFilter {
+
+    private final ParentFolderFetcherService parentFolderFetcherService;
+
+    /**
+     * @return filter expression text for {@code QuestionAnswerAdvisor.FILTER_EXPRESSION},
+     * empty when nothing is selected or the root folder is selected (no scoping). Blocking, reads the folder tree.
+     */
+    public String toFilterExpression(List<UUID> folderIds) {
+        if (folderIds == null || folderIds.isEmpty()) {
+            return "";
+        }
+
+        Set<UUID> selected = new LinkedHashSet<>(folderIds);
+        for (UUID folderId : selected) {
+            if (parentFolderFetcherService.getParentFolder(folderId).getParentFolder() == null) {
+                return ""; // root folder, the whole corpus
+            }
+        }
+
+        return "%s IN [%s]".formatted(FOLDER_PATH, quoted(selected));
+    }
+
+    private static String quoted(Collection<UUID> ids) {
+        return ids.stream()
+                .map(id -> "'" + id + "'")
+                .collect(Collectors.joining(","));
+    }
+
+}
@@ -0,0 +1,253 @@
+package iaf.ofek.gisma.ai.agent.scheduling;
+
+import iaf.ofek.gisma.ai.enums.RequestChannel;
+import iaf.ofek.gisma.ai.exception.RateLimitExceededException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Weighted fair queue in front of the LLM: at most {@code max-concurrency} calls run at once, the rest wait here.
+ * Every user is a flow, a waiting call gets the virtual finish time {@code max(now, user's last finish) + 1 / weight}
+ * and the smallest one runs next (WFQ). A user with ten queued calls thus can't delay another user's single call
+ * by more than one slot, and a websocket call (weight {@code websocket-weight}) finishes ahead of REST calls
+ * queued at the same time. Calls that wait longer than {@code queue-timeout}, or find {@code max-queued} calls
+ * waiting, are rejected.
+ * <p>
+ * Exported: {@code agent.llm.queue.wait} (timer per channel), {@code agent.llm.rejected} (per channel and reason),
+ * {@code agent.llm.queued} and {@code agent.llm.running} gauges.
+ */
+@Component
+@Log4j2
+public class FairLlmScheduler {
+
+    private static final String REASON_QUEUE_FULL = "queue_full";
+
+    private static final String REASON_QUEUE_TIMEOUT = "queue_timeout";
+
+    private final int maxConcurrency;
+
+    private final int maxQueued;
+
+    private final Duration queueTimeout;
+
+    private final Map<RequestChannel, Double> weights = new EnumMap<>(RequestChannel.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>(Comparator.comparingDouble(Ticket::finish)
+            .thenComparingLong(Ticket::sequence));
+
+    // guarded by lock
+    private final Map<String, Double> lastFinish = new HashMap<>();
+
+    // guarded by lock
+    private double virtualTime;
+
+    // guarded by lock
+    private int running;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicInteger runningGauge = new AtomicInteger();
+
+    private final MeterRegistry meterRegistry;
+
+    public FairLlmScheduler(MeterRegistry meterRegistry,
+                            @Value("${sa.agent.scheduler.max-concurrency:8}") int maxConcurrency,
+                            @Value("${sa.agent.scheduler.max-queued:200}") int maxQueued,
+                            @Value("${sa.agent.scheduler.queue-timeout:PT30S}") Duration queueTimeout,
+                            @Value("${sa.agent.scheduler.websocket-weight:4}") double websocketWeight,
+                            @Value("${sa.agent.scheduler.rest-weight:1}") double restWeight) {
+        this.meterRegistry = meterRegistry;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxQueued = maxQueued;
+        this.queueTimeout = queueTimeout;
+        weights.put(RequestChannel.WEBSOCKET, websocketWeight);
+        weights.put(RequestChannel.REST, restWeight);
+        meterRegistry.gauge("agent.llm.queued", queued);
+        meterRegistry.gauge("agent.llm.running", runningGauge);
+    }
+
+    /**
+     * Subscribes to {@code call} once a slot is free, the slot is held until the stream terminates or is cancelled.
+     */
+    public <T> Flux<T> schedule(String userId, RequestChannel channel, Supplier<Flux<T>> call) {
+        return Flux.defer(() -> {
+            Ticket ticket = enqueue(userId, channel);
+
+            return Mono.fromFuture(ticket.granted(), true)
+                    .timeout(queueTimeout)
+                    .onErrorMap(TimeoutException.class, e -> timedOut(channel))
+                    .thenMany(Flux.defer(call))
+                    .doFinally(signal -> ticket.close());
+        });
+    }
+
+    public <T> T scheduleBlocking(String userId, RequestChannel channel, Supplier<T> call) {
+        Ticket ticket = enqueue(userId, channel);
+        try {
+            ticket.granted().get(queueTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            return call.get();
+        } catch (TimeoutException e) {
+            throw timedOut(channel);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the LLM", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed waiting for the LLM", e.getCause());
+        } finally {
+            ticket.close();
+        }
+    }
+
+    private Ticket enqueue(String userId, RequestChannel channel) {
+        lock.lock();
+        try {
+            if (running < maxConcurrency && queue.isEmpty()) {
+                running++;
+                runningGauge.set(running);
+                Ticket ticket = new Ticket(this, userId, channel, 0, 0, sequence.incrementAndGet(), System.nanoTime());
+                ticket.grant();
+                return ticket;
+            }
+
+            if (queue.size() >= maxQueued) {
+                reject(channel, REASON_QUEUE_FULL);
+                throw new RateLimitExceededException("Too many prompts are waiting, try again shortly", Duration.ofSeconds(5));
+            }
+
+            double start = Math.max(virtualTime, lastFinish.getOrDefault(userId, 0d));
+            double finish = start + 1 / weights.get(channel);
+            lastFinish.put(userId, finish);
+            Ticket ticket = new Ticket(this, userId, channel, start, finish, sequence.incrementAndGet(), System.nanoTime());
+            queue.add(ticket);
+            queued.set(queue.size());
+
+            return ticket;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the freed slot to the next waiting call, abandoned ones are skipped.
+     */
+    private void release() {
+        while (true) {
+            Ticket next;
+            lock.lock();
+            try {
+                next = queue.poll();
+                queued.set(queue.size());
+                if (next == null) {
+                    running--;
+                    runningGauge.set(running);
+                    // all flows are idle, their finish times no longer matter
+                    lastFinish.clear();
+                    virtualTime = 0;
+                    return;
+                }
+                virtualTime = next.start();
+            } finally {
+                lock.unlock();
+            }
+
+            if (next.grant()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops a call that gave up waiting, so it no longer takes a place in the queue.
+     */
+    private void abandon(Ticket ticket) {
+        lock.lock();
+        try {
+            queue.remove(ticket);
+            queued.set(queue.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private RateLimitExceededException timedOut(RequestChannel channel) {
+        reject(channel, REASON_QUEUE_TIMEOUT);
+        return new RateLimitExceededException("Timed out waiting for a free LLM slot, try again shortly", Duration.ofSeconds(5));
+    }
+
+    private void reject(RequestChannel channel, String reason) {
+        Counter.builder("agent.llm.rejected")
+                .tag("channel", channel.name())
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private void recordWait(Ticket ticket) {
+        Timer.builder("agent.llm.queue.wait")
+                .tag("channel", ticket.channel().name())
+                .register(meterRegistry)
+                .record(System.nanoTime() - ticket.enqueuedNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * A call's place in the queue and, once granted, its slot. Granting and closing race when a waiting call is
+     * cancelled or times out just as it gets the slot, the state CAS decides who gives the slot back.
+     */
+    private record Ticket(FairLlmScheduler scheduler, String userId, RequestChannel channel, double start, double finish,
+                          long sequence, long enqueuedNanos, AtomicInteger state, CompletableFuture<Void> granted) {
+
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int CLOSED = 2;
+
+        Ticket(FairLlmScheduler scheduler, String userId, RequestChannel channel, double start, double finish,
+               long sequence, long enqueuedNanos) {
+            this(scheduler, userId, channel, start, finish, sequence, enqueuedNanos, new AtomicInteger(WAITING),
+                    new CompletableFuture<>());
+        }
+
+        boolean grant() {
+            if (!state.compareAndSet(WAITING, GRANTED)) {
+                return false;
+            }
+            scheduler.recordWait(this);
+            granted.complete(null);
+            return true;
+        }
+
+        void close() {
+            if (state.compareAndSet(GRANTED, CLOSED)) {
+                scheduler.release();
+            } else if (state.compareAndSet(WAITING, CLOSED)) {
+                scheduler.abandon(this);
+            }
+        }
+
+    }
+
+}
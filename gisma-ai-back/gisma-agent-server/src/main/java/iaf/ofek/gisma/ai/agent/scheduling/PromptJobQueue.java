@@ -0,0 +1,188 @@
+package iaf.ofek.gisma.ai.agent.scheduling;
+
+import iaf.ofek.gisma.ai.agent.orchestrator.AgentOrchestrator;
+import iaf.ofek.gisma.ai.dto.agent.ClaimedPromptJob;
+import iaf.ofek.gisma.ai.dto.agent.PromptJob;
+import iaf.ofek.gisma.ai.dto.agent.UserPrompt;
+import iaf.ofek.gisma.ai.enums.PromptJobStatus;
+import iaf.ofek.gisma.ai.enums.RequestChannel;
+import iaf.ofek.gisma.ai.exception.DependencyUnavailableException;
+import iaf.ofek.gisma.ai.exception.RateLimitExceededException;
+import iaf.ofek.gisma.ai.repository.PromptJobRepository;
+import iaf.ofek.gisma.ai.util.LeasedQueueWorker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Prompts answered in the background, for clients whose gateway can't wait for a long answer. Submitting stores a
+ * {@code prompt_jobs} row and returns its id, a bounded pool claims the rows with a lease and answers them through
+ * the {@link FairLlmScheduler} like any REST prompt. The outcome is pushed on {@code /user/queue/jobs} and kept
+ * for {@code retention} to be fetched by id.
+ * <p>
+ * The queue lives in Postgres, so jobs survive restarts: jobs running on a node that shuts down are put back right
+ * away, those of a node that died are claimed again once their lease ran out. A job that fails is retried with
+ * backoff until {@code max-attempts}; waiting for a slot or an open circuit breaker doesn't use up attempts.
+ * <p>
+ * Exported: {@code agent.jobs.runs} (per outcome: done, failed, retry, deferred) and the {@code agent.jobs.pending} gauge.
+ */
+@Service
+@Log4j2
+public class PromptJobQueue implements DisposableBean {
+
+    private final PromptJobRepository jobRepository;
+
+    private final AgentOrchestrator agentOrchestrator;
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    private final int maxAttempts;
+
+    private final Duration retryBackoff;
+
+    private final Duration maxRetryBackoff;
+
+    private final Duration retention;
+
+    private final LeasedQueueWorker<ClaimedPromptJob> worker;
+
+    public PromptJobQueue(PromptJobRepository jobRepository, AgentOrchestrator agentOrchestrator,
+                          SimpMessagingTemplate messagingTemplate, MeterRegistry meterRegistry,
+                          @Value("${sa.agent.jobs.parallelism:2}") int parallelism,
+                          @Value("${sa.agent.jobs.lease:PT10M}") Duration lease,
+                          @Value("${sa.agent.jobs.max-attempts:3}") int maxAttempts,
+                          @Value("${sa.agent.jobs.retry-backoff:PT30S}") Duration retryBackoff,
+                          @Value("${sa.agent.jobs.max-retry-backoff:PT10M}") Duration maxRetryBackoff,
+                          @Value("${sa.agent.jobs.retention:PT24H}") Duration retention) {
+        this.jobRepository = jobRepository;
+        this.agentOrchestrator = agentOrchestrator;
+        this.messagingTemplate = messagingTemplate;
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+        this.maxRetryBackoff = maxRetryBackoff;
+        this.retention = retention;
+
+        this.worker = new LeasedQueueWorker<>("prompt-job", parallelism,
+                limit -> jobRepository.claim(limit, lease), this::run);
+
+        meterRegistry.gauge("agent.jobs.pending", jobRepository, repository -> repository.countByStatus(PromptJobStatus.PENDING));
+    }
+
+    /**
+     * Takes a rate limit token of the user now, the job itself only waits for a slot.
+     */
+    public PromptJob submit(UserPrompt prompt, String userId) {
+        agentOrchestrator.admit(userId, RequestChannel.REST);
+        UUID id = jobRepository.enqueue(UUID.fromString(userId), prompt);
+        worker.wakeUp();
+
+        return new PromptJob(id, PromptJobStatus.PENDING, null, null, Instant.now(), null);
+    }
+
+    public PromptJob getJob(UUID id, String userId) {
+        return jobRepository.findByIdAndUserId(id, UUID.fromString(userId))
+                .orElseThrow(() -> new EntityNotFoundException("Prompt job %s not found".formatted(id)));
+    }
+
+    /**
+     * Picks up jobs submitted on other nodes and jobs back from a retry or an expired lease.
+     */
+    @Scheduled(fixedDelayString = "${sa.agent.jobs.poll-interval:PT5S}")
+    public void poll() {
+        worker.poll();
+    }
+
+    @Scheduled(cron = "${sa.agent.jobs.purge-cron:0 */10 * * * *}")
+    public void purgeExpired() {
+        int deleted = jobRepository.deleteExpired();
+        if (deleted > 0) {
+            log.info("Purged {} expired prompt jobs.", deleted);
+        }
+    }
+
+    /**
+     * Running jobs go back to the queue, so a restart resumes them right away instead of after the lease.
+     */
+    @Override
+    public void destroy() {
+        worker.shutdown().forEach(job -> {
+            try {
+                jobRepository.retryLater(job.id(), Duration.ZERO, "Interrupted by shutdown", true);
+            } catch (RuntimeException e) {
+                log.warn("Failed requeueing prompt job {}, it is resumed after its lease: {}.", job.id(), e.getMessage());
+            }
+        });
+    }
+
+    private void run(ClaimedPromptJob job) {
+        try {
+            if (job.prompt() == null) {
+                throw new IllegalStateException("Unreadable prompt");
+            }
+
+            String response = agentOrchestrator.handleAdmittedQueryBlocking(job.prompt(), job.prompt().chatId(),
+                    job.userId().toString(), RequestChannel.REST);
+            finish(job, PromptJobStatus.DONE, response, null);
+        } catch (RateLimitExceededException e) {
+            defer(job, e.getRetryAfter(), e.getMessage());
+        } catch (DependencyUnavailableException e) {
+            defer(job, e.getRetryAfter(), e.getMessage());
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // shutting down, destroy() puts the job back
+                return;
+            }
+            String error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+
+            if (job.prompt() == null || job.attempts() >= maxAttempts) {
+                log.error("Prompt job {} failed {} times, giving up: {}.", job.id(), job.attempts(), error);
+                finish(job, PromptJobStatus.FAILED, null, error);
+            } else {
+                Duration delay = LeasedQueueWorker.backoff(retryBackoff, maxRetryBackoff, job.attempts());
+                log.warn("Prompt job {} failed (attempt {}), retrying in {}: {}.", job.id(), job.attempts(), delay, error);
+                jobRepository.retryLater(job.id(), delay, error, false);
+                count("retry");
+            }
+        }
+    }
+
+    /**
+     * No slot or the model is down, not the job's fault: back to the queue without using up an attempt.
+     */
+    private void defer(ClaimedPromptJob job, Duration retryAfter, String reason) {
+        log.info("Prompt job {} deferred by {}: {}.", job.id(), retryAfter, reason);
+        jobRepository.retryLater(job.id(), retryAfter, reason, true);
+        count("deferred");
+    }
+
+    private void finish(ClaimedPromptJob job, PromptJobStatus status, String response, String error) {
+        if (!jobRepository.finish(job.id(), status, response, error, retention)) {
+            return;
+        }
+
+        count(status.name().toLowerCase());
+        messagingTemplate.convertAndSendToUser(job.userId().toString(), "/queue/jobs",
+                new PromptJob(job.id(), status, response, error, null, Instant.now()));
+    }
+
+    private void count(String outcome) {
+        Counter.builder("agent.jobs.runs")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+}
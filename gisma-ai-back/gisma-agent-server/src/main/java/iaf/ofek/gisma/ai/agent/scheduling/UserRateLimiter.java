@@ -0,0 +1,90 @@
+package iaf.ofek.gisma.ai.agent.scheduling;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per user token bucket, {@code requests-per-minute} sustained with bursts of up to {@code burst} requests.
+ * Implemented as GCRA: a bucket is a single {@link AtomicLong} holding the theoretical arrival time of the next
+ * request, admitting is one CAS and no lock is ever taken. Buckets are spread over stripes by user id so the
+ * idle sweep walks small maps, a full (idle) bucket carries no state and is dropped.
+ */
+@Component
+public class UserRateLimiter {
+
+    private static final int STRIPES = 16;
+
+    private final Map<String, AtomicLong>[] stripes;
+
+    // time one token takes to refill
+    private final long emissionIntervalNanos;
+
+    // how far ahead of now the arrival time may run, i.e. burst - 1 tokens
+    private final long burstToleranceNanos;
+
+    @SuppressWarnings("unchecked")
+    public UserRateLimiter(@Value("${sa.agent.rate-limit.requests-per-minute:20}") int requestsPerMinute,
+                           @Value("${sa.agent.rate-limit.burst:5}") int burst) {
+        this.emissionIntervalNanos = TimeUnit.MINUTES.toNanos(1) / Math.max(1, requestsPerMinute);
+        this.burstToleranceNanos = emissionIntervalNanos * (Math.max(1, burst) - 1);
+        this.stripes = new Map[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Takes a token of the user.
+     *
+     * @return 0 when admitted, otherwise nanos until the user has a token again
+     */
+    public long tryAcquire(String userId) {
+        AtomicLong arrival = stripe(userId).computeIfAbsent(userId, id -> new AtomicLong(System.nanoTime()));
+
+        while (true) {
+            long now = System.nanoTime();
+            long current = arrival.get();
+            long base = current - now > 0 ? current : now;
+            long ahead = base - now;
+            if (ahead > burstToleranceNanos) {
+                return ahead - burstToleranceNanos;
+            }
+            if (arrival.compareAndSet(current, base + emissionIntervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Drops buckets that refilled completely. A request racing the sweep may take a token from a dropped bucket,
+     * which costs at most one extra request per user and sweep.
+     */
+    @Scheduled(fixedDelayString = "${sa.agent.rate-limit.sweep-interval:PT1M}")
+    public void sweep() {
+        long now = System.nanoTime();
+        for (Map<String, AtomicLong> stripe : stripes) {
+            stripe.values().removeIf(arrival -> arrival.get() - now <= 0);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<String, AtomicLong> stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private Map<String, AtomicLong> stripe(String userId) {
+        // spread the hash like HashMap does before masking
+        int hash = userId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+}
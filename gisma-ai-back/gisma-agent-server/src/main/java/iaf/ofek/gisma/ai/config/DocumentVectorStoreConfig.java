@@ -1,36 +1,82 @@
 package iaf.ofek.gisma.ai.config;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import iaf.ofek.gisma.ai.repository.ReembeddingJobRepository;
+import iaf.ofek.gisma.ai.service.embedding.EmbeddingModelFactory;
+import iaf.ofek.gisma.ai.service.vectorstore.CachingVectorStore;
+import iaf.ofek.gisma.ai.service.vectorstore.CorpusVersion;
+import iaf.ofek.gisma.ai.service.vectorstore.GismaPgVectorStore;
+import iaf.ofek.gisma.ai.service.vectorstore.GismaPgVectorStoreFactory;
+import iaf.ofek.gisma.ai.service.vectorstore.SwitchableVectorStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.ai.document.Document;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.List;
 
 import static iaf.ofek.gisma.ai.constant.DBTableNames.DOCUMENT_VECTOR_STORE;
-import static iaf.ofek.gisma.ai.constant.DBTableNames.USER_DOCUMENT_VECTOR_STORE;
+import static iaf.ofek.gisma.ai.constant.DBTableNames.DOCUMENT_VECTOR_STORE_SHADOW;
+import static iaf.ofek.gisma.ai.enums.ReembeddingJobStatus.COMPLETED;
+import static iaf.ofek.gisma.ai.enums.ReembeddingJobStatus.RUNNING;
 
 @Configuration
 public class DocumentVectorStoreConfig {
 
-    @Value("${spring.ai.vectorstore.pgvector.schema-name}")
-    private String schema;
+    @Value("${sa.vectorstore.dimensions:1536}")
+    private int dimensions;
+
+    @Value("${sa.vectorstore.cache.max-size:10000}")
+    private long cacheMaxSize;
+
+    @Value("${sa.vectorstore.cache.ttl:PT1H}")
+    private Duration cacheTtl;
 
     @Bean("userDocumentVectorStore")
-    public VectorStore userDocumentVectorStore(JdbcTemplate jdbcTemplate, EmbeddingModel embeddingModel) {
-        return PgVectorStore.builder(jdbcTemplate, embeddingModel)
-                .schemaName(schema)
-                .vectorTableName(USER_DOCUMENT_VECTOR_STORE)
-                .build();
+    public VectorStore userDocumentVectorStore(GismaPgVectorStoreFactory storeFactory, EmbeddingModel embeddingModel) {
+        return storeFactory.userDocumentStore(embeddingModel, dimensions);
+    }
+
+    /**
+     * The model of the last completed re-embedding wins over the configured one, a re-embedding that was
+     * still running when the application stopped gets its dual-write back before any request is served.
+     */
+    @Bean("documentPgVectorStore")
+    public SwitchableVectorStore documentPgVectorStore(GismaPgVectorStoreFactory storeFactory,
+                                                       EmbeddingModelFactory embeddingModelFactory,
+                                                       ReembeddingJobRepository reembeddingJobRepository) {
+        GismaPgVectorStore active = reembeddingJobRepository.findLatestByStatus(COMPLETED)
+                .map(job -> storeFactory.documentStore(DOCUMENT_VECTOR_STORE,
+                        embeddingModelFactory.get(job.targetModel()), job.targetDimensions()))
+                .orElseGet(() -> storeFactory.documentStore(DOCUMENT_VECTOR_STORE, embeddingModelFactory.get(null), dimensions));
+        SwitchableVectorStore store = new SwitchableVectorStore(active);
+
+        reembeddingJobRepository.findLatest()
+                .filter(job -> job.status() == RUNNING)
+                .ifPresent(job -> store.startDualWrite(storeFactory.documentStore(DOCUMENT_VECTOR_STORE_SHADOW,
+                        embeddingModelFactory.get(job.targetModel()), job.targetDimensions())));
+
+        return store;
     }
 
     @Bean("documentVectorStore")
-    public VectorStore documentVectorStore(JdbcTemplate jdbcTemplate, EmbeddingModel embeddingModel) {
-        return PgVectorStore.builder(jdbcTemplate, embeddingModel)
-                .schemaName(schema)
-                .vectorTableName(DOCUMENT_VECTOR_STORE)
+    public VectorStore documentVectorStore(@Qualifier("documentPgVectorStore") SwitchableVectorStore documentPgVectorStore,
+                                           CorpusVersion corpusVersion, MeterRegistry meterRegistry) {
+        Cache<CachingVectorStore.RetrievalKey, List<Document>> cache = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(cacheTtl)
+                .recordStats()
                 .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "retrieval");
+
+        return new CachingVectorStore(documentPgVectorStore, cache, corpusVersion);
     }
 
 }
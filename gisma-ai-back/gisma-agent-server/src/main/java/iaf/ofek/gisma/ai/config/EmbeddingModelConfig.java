@@ -0,0 +1,49 @@
+package iaf.ofek.gisma.ai.config;
+
+import iaf.ofek.gisma.ai.service.embedding.ParallelEmbeddingModel;
+import iaf.ofek.gisma.ai.service.resilience.DependencyGuards;
+import iaf.ofek.gisma.ai.service.resilience.GuardedEmbeddingModel;
+import org.springframework.ai.transformers.TransformersEmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Local ONNX embeddings ({@code spring.ai.model.embedding=transformers}): the auto-configured
+ * {@link TransformersEmbeddingModel} is wrapped so ingestion batches are spread across the cores.
+ * The {@code embedding-model} guard goes inside, around every batch, so a large fan-out isn't one slow call;
+ * {@link ResilienceConfig} leaves the parallel model alone. Batches beyond
+ * {@code sa.resilience.embedding-model.max-concurrent} wait for a slot of the guard.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.ai.model.embedding", havingValue = "transformers")
+public class EmbeddingModelConfig {
+
+    @Bean
+    public static BeanPostProcessor parallelEmbeddingModelPostProcessor(
+            ObjectProvider<DependencyGuards> guards,
+            @Value("${sa.embedding.local.batch-size:32}") int batchSize,
+            @Value("${sa.embedding.local.parallelism:0}") int parallelism) {
+        class ParallelEmbeddingModelPostProcessor implements BeanPostProcessor, Ordered {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof TransformersEmbeddingModel embeddingModel
+                        ? new ParallelEmbeddingModel(new GuardedEmbeddingModel(embeddingModel,
+                        guards.getObject().embeddingModel()), batchSize, parallelism)
+                        : bean;
+            }
+
+            @Override
+            public int getOrder() {
+                return Ordered.HIGHEST_PRECEDENCE;
+            }
+        }
+
+        return new ParallelEmbeddingModelPostProcessor();
+    }
+
+}
@@ -0,0 +1,40 @@
+package iaf.ofek.gisma.ai.config;
+
+import iaf.ofek.gisma.ai.agent.llmCall.HedgedChatModel;
+import iaf.ofek.gisma.ai.agent.llmCall.HedgingPolicy;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Hedged streaming ({@code sa.agent.hedging.enabled=true}): the chat model bean is wrapped outside its
+ * {@link ResilienceConfig guard}, so each of the two requests passes the breaker and takes a bulkhead slot of its own.
+ */
+@Configuration
+@ConditionalOnProperty(name = "sa.agent.hedging.enabled", havingValue = "true")
+public class LlmHedgingConfig {
+
+    @Bean
+    public static BeanPostProcessor hedgedChatModelPostProcessor(ObjectProvider<HedgingPolicy> policy) {
+        class HedgedChatModelPostProcessor implements BeanPostProcessor, Ordered {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof ChatModel chatModel && !(bean instanceof HedgedChatModel)
+                        ? new HedgedChatModel(chatModel, policy.getObject())
+                        : bean;
+            }
+
+            @Override
+            public int getOrder() {
+                return Ordered.LOWEST_PRECEDENCE;
+            }
+        }
+
+        return new HedgedChatModelPostProcessor();
+    }
+
+}
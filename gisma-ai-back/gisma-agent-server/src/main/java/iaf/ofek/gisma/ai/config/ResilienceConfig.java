@@ -0,0 +1,50 @@
+package iaf.ofek.gisma.ai.config;
+
+import iaf.ofek.gisma.ai.service.embedding.ParallelEmbeddingModel;
+import iaf.ofek.gisma.ai.service.resilience.DependencyGuards;
+import iaf.ofek.gisma.ai.service.resilience.GuardedChatModel;
+import iaf.ofek.gisma.ai.service.resilience.GuardedEmbeddingModel;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * The auto-configured chat and embedding models are wrapped in their {@link DependencyGuards guards}, so every
+ * caller (chat client, vector stores, ingestion) shares one breaker and bulkhead per model. MCP tools are guarded
+ * where the agent registers them, see {@code OneShotExecutor}.
+ */
+@Configuration
+public class ResilienceConfig {
+
+    @Bean
+    public static BeanPostProcessor dependencyGuardPostProcessor(ObjectProvider<DependencyGuards> guards) {
+        class DependencyGuardPostProcessor implements BeanPostProcessor, Ordered {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof ChatModel chatModel && !(bean instanceof GuardedChatModel)) {
+                    return new GuardedChatModel(chatModel, guards.getObject().chatModel());
+                }
+                // the parallel local model guards each of its batches itself, see EmbeddingModelConfig
+                if (bean instanceof EmbeddingModel embeddingModel && !(bean instanceof GuardedEmbeddingModel)
+                        && !(bean instanceof ParallelEmbeddingModel)) {
+                    return new GuardedEmbeddingModel(embeddingModel, guards.getObject().embeddingModel());
+                }
+
+                return bean;
+            }
+
+            // after the model specific wrappers, before hedging
+            @Override
+            public int getOrder() {
+                return Ordered.LOWEST_PRECEDENCE - 1;
+            }
+        }
+
+        return new DependencyGuardPostProcessor();
+    }
+
+}
@@ -4,10 +4,20 @@ public class DBTableNames {
 
     public static final String DOCUMENT_VECTOR_STORE = "document_vector_store";
 
+    public static final String DOCUMENT_VECTOR_STORE_SHADOW = "document_vector_store_shadow";
+
+    public static final String DOCUMENT_VECTOR_STORE_RETIRED = "document_vector_store_retired";
+
     public static final String USER_DOCUMENT_VECTOR_STORE = "user_document_vector_store";
 
     public static final String S3_DOCUMENTS = "s3_documents";
 
+    public static final String S3_CONTENTS = "s3_contents";
+
     public static final String S3_FOLDERS = "s3_folders";
 
+    public static final String USER_S3_DOCUMENTS = "user_s3_documents";
+
+    public static final String USER_S3_FOLDERS = "user_s3_folders";
+
 }
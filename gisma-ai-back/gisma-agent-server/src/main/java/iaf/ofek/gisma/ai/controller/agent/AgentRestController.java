@@ -1,30 +1,123 @@
 package iaf.ofek.gisma.ai.controller.agent;
 
 import iaf.ofek.gisma.ai.agent.orchestrator.AgentOrchestrator;
+import iaf.ofek.gisma.ai.agent.scheduling.PromptJobQueue;
+import iaf.ofek.gisma.ai.dto.agent.BatchPromptRequest;
+import iaf.ofek.gisma.ai.dto.agent.BatchPromptResult;
+import iaf.ofek.gisma.ai.dto.agent.PromptJob;
 import iaf.ofek.gisma.ai.dto.agent.PromptResponse;
 import iaf.ofek.gisma.ai.dto.agent.UserPrompt;
+import iaf.ofek.gisma.ai.enums.RequestChannel;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.net.URI;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Answers are either reactive (the request thread is released while they are generated) or run as jobs.
+ */
 @RestController
 @RequestMapping("/prompt")
 @Log4j2
 @RequiredArgsConstructor
 public class AgentRestController {
 
+    private static final String EVENT_TOKEN = "token";
+
+    private static final String EVENT_DONE = "done";
+
     private final AgentOrchestrator agentOrchestrator;
 
+    private final PromptJobQueue promptJobQueue;
+
+    @Value("${sa.agent.sse.heartbeat-interval:PT15S}")
+    private Duration heartbeatInterval;
+
     @PostMapping
-    public PromptResponse handlePrompt(@RequestBody UserPrompt prompt) {
+    public Mono<PromptResponse> handlePrompt(@RequestBody UserPrompt prompt, Principal user) {
         log.info("handlePrompt started. prompt: {}", prompt);
-        var response = new PromptResponse(agentOrchestrator.handleQueryBlocking(prompt, prompt.chatId()));
-        log.info("handlePrompt ended. response: {}", response);
 
-        return response;
+        return agentOrchestrator.handleQueryAsync(prompt, prompt.chatId(), user.getName(), RequestChannel.REST)
+                .map(PromptResponse::new)
+                .doOnNext(response -> log.info("handlePrompt ended. response: {}", response));
+    }
+
+    /**
+     * One JSON line per prompt, written as soon as the prompt is answered, see {@link AgentOrchestrator#handleBatch}.
+     */
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchPromptResult> handleBatch(@RequestBody BatchPromptRequest request, Principal user) {
+        Flux<BatchPromptResult> results = agentOrchestrator.handleBatch(request.getPrompts(), request.getParallelism(),
+                user.getName());
+        log.info("handleBatch started. prompts: {}", request.getPrompts().size());
+
+        return results.doOnComplete(() -> log.info("handleBatch ended."));
+    }
+
+    /**
+     * Returns the job right away, the answer is pushed on {@code /user/queue/jobs} and can be fetched from the
+     * {@code Location} until it expires.
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<PromptJob> submitJob(@RequestBody UserPrompt prompt, Principal user) {
+        log.info("submitJob started. prompt: {}", prompt);
+        PromptJob job = promptJobQueue.submit(prompt, user.getName());
+        log.info("submitJob ended. job: {}", job.id());
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/prompt/jobs/" + job.id()))
+                .body(job);
+    }
+
+    @GetMapping("/jobs/{id}")
+    public PromptJob getJob(@PathVariable UUID id, Principal user) {
+        return promptJobQueue.getJob(id, user.getName());
+    }
+
+    /**
+     * Answer chunks as {@code token} events, then an empty {@code done} event. Comment lines are sent only while the
+     * answer is idle (waiting for a slot, retrieval, tool calls), every event restarts the heartbeat timer. Spring MVC
+     * writes one event at a time and only then requests the next one, and a client disconnect cancels the stream,
+     * which frees the LLM slot and the provider call.
+     */
+    @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> streamPrompt(@RequestBody UserPrompt prompt, Principal user) {
+        log.info("streamPrompt started. prompt: {}", prompt);
+
+        Flux<ServerSentEvent<String>> answer = agentOrchestrator.handleQuery(prompt, prompt.chatId(), user.getName(),
+                        RequestChannel.REST)
+                .map(chunk -> ServerSentEvent.builder(chunk).event(EVENT_TOKEN).build())
+                .concatWith(Mono.fromSupplier(() -> ServerSentEvent.builder("").event(EVENT_DONE).build()));
+
+        return answer.publish(events -> events.mergeWith(heartbeatsWhileIdle(events)))
+                .takeUntil(event -> EVENT_DONE.equals(event.event()))
+                .doOnCancel(() -> log.info("streamPrompt cancelled by the client."))
+                .doOnComplete(() -> log.info("streamPrompt ended."));
+    }
+
+    /**
+     * A comment every {@code heartbeatInterval} without an event, ticks a slow client has no room for are dropped.
+     */
+    private Flux<ServerSentEvent<String>> heartbeatsWhileIdle(Flux<ServerSentEvent<String>> events) {
+        return events.startWith(ServerSentEvent.<String>builder().build())
+                .switchMap(event -> Flux.interval(heartbeatInterval)
+                        .onBackpressureDrop()
+                        .map(tick -> ServerSentEvent.<String>builder().comment("heartbeat").build()));
     }
 
-}
\ No newline at end of file
+}
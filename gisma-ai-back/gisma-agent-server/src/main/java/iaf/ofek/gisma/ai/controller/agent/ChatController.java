@@ -3,6 +3,7 @@ package iaf.ofek.gisma.ai.controller.agent;
 import iaf.ofek.gisma.ai.agent.orchestrator.AgentOrchestrator;
 import iaf.ofek.gisma.ai.dto.agent.UserPrompt;
 import iaf.ofek.gisma.ai.dto.agent.memory.ChatStartRequest;
+import iaf.ofek.gisma.ai.enums.RequestChannel;
 import iaf.ofek.gisma.ai.service.memory.ChatMemoryService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
@@ -35,7 +36,7 @@ public class ChatController {
         String chatId = prompt.chatId();
         String userId = user.getName();
 
-        return agentOrchestrator.handleQuery(prompt, chatId)
+        return agentOrchestrator.handleQuery(prompt, chatId, userId, RequestChannel.WEBSOCKET)
                 .doOnNext(response ->
                         messagingTemplate.convertAndSendToUser(
                                 userId,
@@ -58,8 +59,11 @@ public class ChatController {
                             messagingTemplate.convertAndSendToUser(userId, "/queue/metadata", chatStartResponse)
                     );
                     Flux<Void> responses = agentOrchestrator.handleQuery(
-                                    new UserPrompt(chatStart.query(), chatId, chatStart.responseFormat(), chatStart.schemaJson()),
-                                    chatId
+                                    new UserPrompt(chatStart.query(), chatId, chatStart.responseFormat(), chatStart.schemaJson(),
+                                            chatStart.folderIds()),
+                                    chatId,
+                                    userId,
+                                    RequestChannel.WEBSOCKET
                             )
                             .concatMap(response -> Mono.fromRunnable(() ->
                                     messagingTemplate.convertAndSendToUser(userId, "/queue/chat." + chatId, response)
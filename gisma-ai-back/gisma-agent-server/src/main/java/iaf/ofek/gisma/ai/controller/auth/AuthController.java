@@ -59,7 +59,10 @@ public class AuthController {
     }
 
     @PostMapping("/logout")
-    public ResponseEntity<?> logout(HttpServletResponse response) {
+    public ResponseEntity<?> logout(@CookieValue(name = Token.ACCESS_TOKEN, required = false) String accessToken,
+                                    @CookieValue(name = Token.REFRESH_TOKEN, required = false) String refreshToken,
+                                    HttpServletResponse response) {
+        cookieUtil.revokeTokens(accessToken, refreshToken);
         cookieUtil.removeCookies(response);
 
         return ResponseEntity.ok()
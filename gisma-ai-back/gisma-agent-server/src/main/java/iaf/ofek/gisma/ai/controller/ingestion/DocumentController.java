@@ -1,8 +1,16 @@
 package iaf.ofek.gisma.ai.controller.ingestion;
 
 import iaf.ofek.gisma.ai.annotation.AdminOnly;
+import iaf.ofek.gisma.ai.dto.ingestion.ArchiveIngestionResult;
+import iaf.ofek.gisma.ai.dto.ingestion.FinalizeUploadDTO;
+import iaf.ofek.gisma.ai.dto.ingestion.PresignUploadDTO;
 import iaf.ofek.gisma.ai.entity.ingestion.S3Document;
+import iaf.ofek.gisma.ai.service.ingestion.ArchiveIngestionService;
+import iaf.ofek.gisma.ai.service.ingestion.DirectUploadService;
 import iaf.ofek.gisma.ai.service.ingestion.DocumentProcessor;
+import iaf.ofek.gisma.ai.service.ingestion.IngestionProgressPublisher;
+import iaf.ofek.gisma.ai.service.storage.BlobDownloadService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.http.HttpStatus;
@@ -11,7 +19,11 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.Principal;
 import java.util.List;
 import java.util.UUID;
@@ -24,25 +36,97 @@ import java.util.UUID;
 @Log4j2
 public class DocumentController {
 
+    // progress of the upload is pushed to /user/queue/ingestion under this id
+    private static final String UPLOAD_ID_HEADER = "X-Upload-Id";
+
     private final DocumentProcessor documentProcessor;
 
+    private final ArchiveIngestionService archiveIngestionService;
+
+    private final DirectUploadService directUploadService;
+
+    private final BlobDownloadService blobDownloadService;
+
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> createNewDocument(@RequestPart("files") List<MultipartFile> files,
-                                               @RequestPart("parentFolderId") String parentFolderId, Principal user) {
+                                               @RequestPart("parentFolderId") String parentFolderId,
+                                               @RequestParam(value = "uploadId", required = false) String uploadId,
+                                               Principal user) {
         log.info("Uploading {} files.", files.size());
         String userId = user.getName();
-        List<S3Document> results = documentProcessor.saveNewDocuments(files, UUID.fromString(parentFolderId), userId);
-        log.info("Uploaded {} files successfully.", results.size());
+        String id = IngestionProgressPublisher.uploadId(uploadId);
+        List<S3Document> results = documentProcessor.saveNewDocuments(files, UUID.fromString(parentFolderId), userId, id);
+        log.info("Uploaded {} files successfully, {} deduplicated.", results.size(),
+                results.stream().filter(S3Document::isDeduplicated).count());
+
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .header(UPLOAD_ID_HEADER, id)
+                .body(results);
+    }
+
+    /**
+     * Imports a ZIP / TAR / TAR.GZ archive sent as the raw request body (not multipart, so nothing is buffered),
+     * its directories are recreated under the parent folder.
+     */
+    /**
+     * Streams the stored file, supports Range requests and ETag revalidation.
+     */
+    @GetMapping("/{id}/content")
+    public ResponseEntity<StreamingResponseBody> download(@PathVariable UUID id, HttpServletRequest request) {
+        S3Document document = documentProcessor.getDocument(id);
+
+        return blobDownloadService.download(document.getUrl(), document.getName(), document.getContentType(), request);
+    }
+
+    @PostMapping(value = "/archive", consumes = {"application/zip", "application/x-tar", "application/gzip",
+            "application/x-gzip", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<?> importArchive(@RequestParam(value = "parentFolderId", required = false) UUID parentFolderId,
+                                           @RequestParam(value = "uploadId", required = false) String uploadId,
+                                           HttpServletRequest request, Principal user) throws IOException {
+        log.info("Importing archive into folder {}.", parentFolderId);
+        String id = IngestionProgressPublisher.uploadId(uploadId);
+        try (InputStream archive = request.getInputStream()) {
+            ArchiveIngestionResult result = archiveIngestionService.ingest(archive, parentFolderId, user.getName(), id);
+
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .header(UPLOAD_ID_HEADER, id)
+                    .body(result);
+        }
+    }
+
+    /**
+     * First step of a direct upload: returns a presigned request the client sends the file with,
+     * or alreadyStored when the content is known and nothing needs to be sent.
+     */
+    @PostMapping("/presigned")
+    public ResponseEntity<?> presignUpload(@RequestBody PresignUploadDTO request, Principal user) {
+        return ResponseEntity.ok(directUploadService.presign(request, user.getName()));
+    }
+
+    @PostMapping("/presigned/finalize")
+    public ResponseEntity<?> finalizeUpload(@RequestBody FinalizeUploadDTO request,
+                                            @RequestParam(value = "uploadId", required = false) String uploadId,
+                                            Principal user) {
+        String id = IngestionProgressPublisher.uploadId(uploadId);
+        S3Document document = directUploadService.finalizeUpload(request, user.getName(), id);
+        log.info("Finalized direct upload of {}, deduplicated: {}.", request.getFilename(), document.isDeduplicated());
 
-        return ResponseEntity.status(HttpStatus.CREATED).body(results);
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .header(UPLOAD_ID_HEADER, id)
+                .body(document);
     }
 
     @PatchMapping(value = "/edit", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<?> editDocument(@RequestPart("file") MultipartFile file, @RequestPart("id") String id, Principal user) {
+    public ResponseEntity<?> editDocument(@RequestPart("file") MultipartFile file, @RequestPart("id") String id,
+                                          @RequestParam(value = "uploadId", required = false) String uploadId,
+                                          Principal user) {
         String userId = user.getName();
-        S3Document document = documentProcessor.editDocument(file, UUID.fromString(id), userId);
+        String progressId = IngestionProgressPublisher.uploadId(uploadId);
+        S3Document document = documentProcessor.editDocument(file, UUID.fromString(id), userId, progressId);
 
-        return ResponseEntity.status(HttpStatus.OK).body(document);
+        return ResponseEntity.status(HttpStatus.OK)
+                .header(UPLOAD_ID_HEADER, progressId)
+                .body(document);
     }
 
 
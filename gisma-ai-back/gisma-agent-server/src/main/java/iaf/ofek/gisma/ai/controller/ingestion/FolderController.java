@@ -3,6 +3,7 @@ package iaf.ofek.gisma.ai.controller.ingestion;
 
 import iaf.ofek.gisma.ai.annotation.AdminOnly;
 import iaf.ofek.gisma.ai.dto.ingestion.CreateFolderDTO;
+import iaf.ofek.gisma.ai.dto.ingestion.MoveFolderDTO;
 import iaf.ofek.gisma.ai.service.ingestion.FolderService;
 import iaf.ofek.gisma.ai.service.ingestion.ParentFolderFetcherService;
 import lombok.RequiredArgsConstructor;
@@ -39,6 +40,12 @@ public class FolderController {
                 .body(folderService.createFolder(createFolderDTO));
     }
 
+    @PatchMapping("/move")
+    public ResponseEntity<?> moveFolder(@RequestBody @Valid MoveFolderDTO moveFolderDTO) {
+        return ResponseEntity.status(HttpStatus.OK)
+                .body(folderService.moveFolder(moveFolderDTO));
+    }
+
     @DeleteMapping
     public ResponseEntity<?> delete(@RequestBody List<UUID> ids) {
         folderService.deleteFolders(ids);
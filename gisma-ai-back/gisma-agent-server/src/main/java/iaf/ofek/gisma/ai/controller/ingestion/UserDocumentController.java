@@ -0,0 +1,69 @@
+package iaf.ofek.gisma.ai.controller.ingestion;
+
+import iaf.ofek.gisma.ai.entity.ingestion.UserS3Document;
+import iaf.ofek.gisma.ai.service.ingestion.UserDocumentService;
+import iaf.ofek.gisma.ai.service.storage.BlobDownloadService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.security.Principal;
+import java.util.List;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/user/documents")
+@RequiredArgsConstructor
+@Validated
+@Log4j2
+public class UserDocumentController {
+
+    private final UserDocumentService userDocumentService;
+
+    private final BlobDownloadService blobDownloadService;
+
+    @GetMapping
+    public ResponseEntity<?> getDocuments(Principal user) {
+        return ResponseEntity.status(HttpStatus.OK)
+                .body(userDocumentService.getTopLevelDocuments(UUID.fromString(user.getName())));
+    }
+
+    /**
+     * Streams the stored file, supports Range requests and ETag revalidation.
+     */
+    @GetMapping("/{id}/content")
+    public ResponseEntity<StreamingResponseBody> download(@PathVariable UUID id, HttpServletRequest request,
+                                                          Principal user) {
+        UserS3Document document = userDocumentService.getDocument(id, UUID.fromString(user.getName()));
+
+        return blobDownloadService.download(document.getUrl(), document.getName(), document.getContentType(), request);
+    }
+
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> createNewDocument(@RequestPart("files") List<MultipartFile> files,
+                                               @RequestPart(value = "parentFolderId", required = false) String parentFolderId,
+                                               Principal user) {
+        log.info("Uploading {} private files.", files.size());
+        UUID folderId = parentFolderId == null || parentFolderId.isBlank() ? null : UUID.fromString(parentFolderId);
+        List<UserS3Document> results = userDocumentService.createNewDocuments(files, folderId, UUID.fromString(user.getName()));
+        log.info("Uploaded {} private files successfully.", results.size());
+
+        return ResponseEntity.status(HttpStatus.CREATED).body(results);
+    }
+
+    @DeleteMapping
+    public ResponseEntity<?> delete(@RequestBody List<UUID> ids, Principal user) {
+        userDocumentService.deleteDocuments(ids, UUID.fromString(user.getName()));
+
+        return ResponseEntity.status(HttpStatus.NO_CONTENT)
+                .build();
+    }
+
+}
@@ -0,0 +1,44 @@
+package iaf.ofek.gisma.ai.controller.ingestion;
+
+import iaf.ofek.gisma.ai.dto.ingestion.CreateFolderDTO;
+import iaf.ofek.gisma.ai.service.ingestion.UserFolderService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+import javax.validation.Valid;
+import java.security.Principal;
+import java.util.List;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/user/folders")
+@RequiredArgsConstructor
+@Validated
+public class UserFolderController {
+
+    private final UserFolderService userFolderService;
+
+    @GetMapping
+    public ResponseEntity<?> getFolders(Principal user) {
+        return ResponseEntity.status(HttpStatus.OK)
+                .body(userFolderService.getTopLevelFolders(UUID.fromString(user.getName())));
+    }
+
+    @PostMapping
+    public ResponseEntity<?> createFolder(@RequestBody @Valid CreateFolderDTO createFolderDTO, Principal user) {
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(userFolderService.createFolder(createFolderDTO, UUID.fromString(user.getName())));
+    }
+
+    @DeleteMapping
+    public ResponseEntity<?> delete(@RequestBody List<UUID> ids, Principal user) {
+        userFolderService.deleteFolders(ids, UUID.fromString(user.getName()));
+
+        return ResponseEntity.status(HttpStatus.NO_CONTENT)
+                .build();
+    }
+
+}
@@ -0,0 +1,84 @@
+package iaf.ofek.gisma.ai.controller.ingestion;
+
+import iaf.ofek.gisma.ai.annotation.AdminOnly;
+import iaf.ofek.gisma.ai.dto.embedding.EmbeddingBenchmarkRequest;
+import iaf.ofek.gisma.ai.dto.vectorstore.ReembeddingRequest;
+import iaf.ofek.gisma.ai.dto.vectorstore.VectorSearchBenchmarkRequest;
+import iaf.ofek.gisma.ai.service.embedding.EmbeddingBenchmarkService;
+import iaf.ofek.gisma.ai.service.vectorstore.QuantizedEmbeddingBackfillJob;
+import iaf.ofek.gisma.ai.service.vectorstore.ReembeddingJob;
+import iaf.ofek.gisma.ai.service.vectorstore.VectorSearchBenchmarkService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/ingestion/vector-store")
+@RequiredArgsConstructor
+@AdminOnly
+@Validated
+@Log4j2
+public class VectorStoreController {
+
+    private final QuantizedEmbeddingBackfillJob backfillJob;
+
+    private final VectorSearchBenchmarkService benchmarkService;
+
+    private final EmbeddingBenchmarkService embeddingBenchmarkService;
+
+    private final ReembeddingJob reembeddingJob;
+
+    @PostMapping("/quantization/backfill")
+    public ResponseEntity<?> startQuantizationBackfill() {
+        if (!backfillJob.tryStart()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(backfillJob.status());
+        }
+
+        log.info("Starting quantized embeddings backfill.");
+        backfillJob.run();
+
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(backfillJob.status());
+    }
+
+    @GetMapping("/quantization/backfill")
+    public ResponseEntity<?> getQuantizationBackfillStatus() {
+        return ResponseEntity.ok(backfillJob.status());
+    }
+
+    @PostMapping("/benchmark")
+    public ResponseEntity<?> benchmark(@RequestBody VectorSearchBenchmarkRequest request) {
+        return ResponseEntity.ok(benchmarkService.run(request));
+    }
+
+    @PostMapping("/embedding/benchmark")
+    public ResponseEntity<?> benchmarkEmbedding(@RequestBody EmbeddingBenchmarkRequest request) {
+        return ResponseEntity.ok(embeddingBenchmarkService.run(request));
+    }
+
+    @PostMapping("/reembedding")
+    public ResponseEntity<?> startReembedding(@RequestBody ReembeddingRequest request) {
+        log.info("Starting re-embedding into {}.", request.targetModel());
+
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(reembeddingJob.start(request));
+    }
+
+    @PostMapping("/reembedding/resume")
+    public ResponseEntity<?> resumeReembedding() {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(reembeddingJob.resume());
+    }
+
+    @GetMapping("/reembedding")
+    public ResponseEntity<?> getReembeddingStatus() {
+        return reembeddingJob.status()
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.noContent().build());
+    }
+
+}
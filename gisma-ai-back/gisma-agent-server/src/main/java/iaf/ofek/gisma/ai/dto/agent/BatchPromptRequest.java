@@ -0,0 +1,20 @@
+package iaf.ofek.gisma.ai.dto.agent;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchPromptRequest {
+
+    // checked by AgentOrchestrator.handleBatch, at most sa.agent.batch.max-prompts
+    private List<UserPrompt> prompts;
+
+    // prompts answered at once, positive and capped by sa.agent.batch.parallelism
+    private Integer parallelism;
+
+}
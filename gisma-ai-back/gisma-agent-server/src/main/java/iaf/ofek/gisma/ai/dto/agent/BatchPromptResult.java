@@ -0,0 +1,9 @@
+package iaf.ofek.gisma.ai.dto.agent;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One line of the batch response: the answer of the prompt at {@code index}, or its error.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchPromptResult(int index, String chatId, String response, String error) {}
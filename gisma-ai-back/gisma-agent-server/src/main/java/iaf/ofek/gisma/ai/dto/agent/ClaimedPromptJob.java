@@ -0,0 +1,9 @@
+package iaf.ofek.gisma.ai.dto.agent;
+
+import java.util.UUID;
+
+/**
+ * Claimed prompt job row, {@code attempts} includes the current one. {@code prompt} is null when the stored prompt
+ * can't be read.
+ */
+public record ClaimedPromptJob(UUID id, UUID userId, UserPrompt prompt, int attempts) {}
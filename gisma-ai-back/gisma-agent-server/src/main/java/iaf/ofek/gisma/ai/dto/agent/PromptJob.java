@@ -0,0 +1,14 @@
+package iaf.ofek.gisma.ai.dto.agent;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import iaf.ofek.gisma.ai.enums.PromptJobStatus;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A prompt job as returned by {@code GET /prompt/jobs/{id}} and pushed on {@code /user/queue/jobs}.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PromptJob(UUID id, PromptJobStatus status, String response, String error, Instant createdAt,
+                        Instant completedAt) {}
@@ -2,8 +2,12 @@ package iaf.ofek.gisma.ai.dto.agent;
 
 import iaf.ofek.gisma.ai.enums.ResponseFormat;
 
+import java.util.List;
+import java.util.UUID;
+
 public record UserPrompt(String query,
                          String chatId,
                          ResponseFormat responseFormat,
-                         String schemaJson)
+                         String schemaJson,
+                         List<UUID> folderIds)
 {}
@@ -2,7 +2,11 @@ package iaf.ofek.gisma.ai.dto.agent.memory;
 
 import iaf.ofek.gisma.ai.enums.ResponseFormat;
 
+import java.util.List;
+import java.util.UUID;
+
 public record ChatStartRequest(String query,
                                ResponseFormat responseFormat,
-                               String schemaJson) {
+                               String schemaJson,
+                               List<UUID> folderIds) {
 }
@@ -0,0 +1,10 @@
+package iaf.ofek.gisma.ai.dto.auth;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * @param digest    hex SHA-256 of the token
+ * @param remaining time until the token expires on its own
+ */
+public record RevokedToken(String digest, Instant revokedAt, Duration remaining) {}
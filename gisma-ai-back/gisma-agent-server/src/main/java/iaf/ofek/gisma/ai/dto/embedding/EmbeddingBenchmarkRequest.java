@@ -0,0 +1,5 @@
+package iaf.ofek.gisma.ai.dto.embedding;
+
+public record EmbeddingBenchmarkRequest(Integer sampleSize,
+                                        Integer requestSize)
+{}
@@ -0,0 +1,8 @@
+package iaf.ofek.gisma.ai.dto.embedding;
+
+import java.util.List;
+
+public record EmbeddingBenchmarkResult(int texts,
+                                       int requestSize,
+                                       List<EmbeddingThroughput> models)
+{}
@@ -0,0 +1,9 @@
+package iaf.ofek.gisma.ai.dto.embedding;
+
+public record EmbeddingThroughput(String model,
+                                  int dimensions,
+                                  double textsPerSecond,
+                                  double requestP50Ms,
+                                  double requestP99Ms,
+                                  String error)
+{}
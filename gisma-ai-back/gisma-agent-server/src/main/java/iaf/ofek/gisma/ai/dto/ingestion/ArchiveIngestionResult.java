@@ -0,0 +1,9 @@
+package iaf.ofek.gisma.ai.dto.ingestion;
+
+import java.util.Map;
+
+/**
+ * Outcome of an archive import, {@code failed} maps entry paths to the reason they were not imported.
+ */
+public record ArchiveIngestionResult(int entries, int folders, int documentsCreated, int deduplicated,
+                                     Map<String, String> failed) {}
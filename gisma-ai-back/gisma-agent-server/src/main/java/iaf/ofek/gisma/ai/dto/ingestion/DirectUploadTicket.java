@@ -0,0 +1,9 @@
+package iaf.ofek.gisma.ai.dto.ingestion;
+
+import iaf.ofek.gisma.ai.dto.storage.PresignedUpload;
+
+/**
+ * Answer to a presign call. When {@code alreadyStored} the content is known by its hash, the client skips
+ * the upload and finalizes right away, otherwise it sends the file with {@code upload} and finalizes with {@code uploadKey}.
+ */
+public record DirectUploadTicket(String uploadKey, PresignedUpload upload, boolean alreadyStored) {}
@@ -0,0 +1,7 @@
+package iaf.ofek.gisma.ai.dto.ingestion;
+
+/**
+ * Run of extracted text between structural boundaries (pages, headings), {@code heading} and {@code page}
+ * are null when the document has none.
+ */
+public record DocumentSection(String heading, Integer page, String text) {}
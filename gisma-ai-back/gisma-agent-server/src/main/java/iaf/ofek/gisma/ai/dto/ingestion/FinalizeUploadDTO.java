@@ -0,0 +1,30 @@
+package iaf.ofek.gisma.ai.dto.ingestion;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+/**
+ * Checked by {@link iaf.ofek.gisma.ai.service.ingestion.DirectUploadService#finalizeUpload}.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FinalizeUploadDTO {
+
+    // key handed out by the presign call, null when it answered alreadyStored
+    private String uploadKey;
+
+    private String filename;
+
+    private String contentType;
+
+    private Long size;
+
+    private String sha256;
+
+    private UUID parentFolderId;
+
+}
@@ -0,0 +1,12 @@
+package iaf.ofek.gisma.ai.dto.ingestion;
+
+import iaf.ofek.gisma.ai.enums.IngestionStage;
+
+/**
+ * Progress of one upload pushed to {@code /user/queue/ingestion}. {@code completed} / {@code total} count the
+ * units of the stage (chunks embedded so far out of all chunks of the file), {@code filesTotal} is null while
+ * unknown (archives are read as a stream). {@code COMPLETED} closes the upload.
+ */
+public record IngestionProgressEvent(String uploadId, String filename, IngestionStage stage,
+                                     int completed, int total, int filesDone, Integer filesTotal,
+                                     String error) {}
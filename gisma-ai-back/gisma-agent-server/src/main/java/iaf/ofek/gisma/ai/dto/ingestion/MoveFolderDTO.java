@@ -0,0 +1,20 @@
+package iaf.ofek.gisma.ai.dto.ingestion;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.NotNull;
+import java.util.UUID;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MoveFolderDTO {
+
+    @NotNull(message = "can't be null")
+    private UUID folderId;
+
+    private UUID parentFolderId;
+
+}
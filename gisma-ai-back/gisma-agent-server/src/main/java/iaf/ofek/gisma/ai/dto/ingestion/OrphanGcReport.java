@@ -0,0 +1,10 @@
+package iaf.ofek.gisma.ai.dto.ingestion;
+
+import java.time.Instant;
+
+/**
+ * Outcome of one orphan collector run, in dry-run mode the counts are orphans found rather than deleted.
+ */
+public record OrphanGcReport(Instant startedAt, Instant finishedAt, boolean dryRun,
+                             long orphanContents, long orphanUserDocuments, long orphanS3Objects,
+                             String error) {}
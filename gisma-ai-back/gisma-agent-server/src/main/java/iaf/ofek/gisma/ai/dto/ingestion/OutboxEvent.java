@@ -0,0 +1,10 @@
+package iaf.ofek.gisma.ai.dto.ingestion;
+
+import iaf.ofek.gisma.ai.enums.OutboxEventType;
+
+import java.util.UUID;
+
+/**
+ * Claimed outbox row, {@code attempts} includes the current one.
+ */
+public record OutboxEvent(UUID id, OutboxEventType type, OutboxPayload payload, int attempts) {}
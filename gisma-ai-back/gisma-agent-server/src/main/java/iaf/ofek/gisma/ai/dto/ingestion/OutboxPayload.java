@@ -0,0 +1,24 @@
+package iaf.ofek.gisma.ai.dto.ingestion;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.UUID;
+
+/**
+ * Arguments of an outbox event, only the fields its type needs are set.
+ * {@code uploadId} and {@code progressFilename} route progress events back to the uploading client,
+ * {@code documentId} is set for private documents of a user.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record OutboxPayload(UUID contentId, String url, String userId, String filename, String uploadId,
+                            String progressFilename, UUID documentId) {
+
+    public static OutboxPayload content(UUID contentId) {
+        return new OutboxPayload(contentId, null, null, null, null, null, null);
+    }
+
+    public static OutboxPayload userDocument(UUID documentId, String url) {
+        return new OutboxPayload(null, url, null, null, null, null, documentId);
+    }
+
+}
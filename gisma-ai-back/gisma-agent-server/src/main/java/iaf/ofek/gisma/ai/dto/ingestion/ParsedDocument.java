@@ -0,0 +1,7 @@
+package iaf.ofek.gisma.ai.dto.ingestion;
+
+/**
+ * Summary of a parse, the text itself was handed out section by section.
+ * {@code truncated} when it hit the extracted text limit.
+ */
+public record ParsedDocument(String contentType, long characters, int sections, boolean truncated) {}
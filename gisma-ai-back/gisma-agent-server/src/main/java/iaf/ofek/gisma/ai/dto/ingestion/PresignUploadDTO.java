@@ -0,0 +1,24 @@
+package iaf.ofek.gisma.ai.dto.ingestion;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Checked by {@link iaf.ofek.gisma.ai.service.ingestion.DirectUploadService#presign}.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PresignUploadDTO {
+
+    private String filename;
+
+    private String contentType;
+
+    private Long size;
+
+    // hex SHA-256 of the file, the upload is rejected by storage if the bytes don't match it
+    private String sha256;
+
+}
@@ -0,0 +1,9 @@
+package iaf.ofek.gisma.ai.dto.storage;
+
+import java.time.Instant;
+
+/**
+ * Stored object as listed by a {@link iaf.ofek.gisma.ai.service.storage.BlobStore}, {@code url} is the value
+ * document rows reference it by. {@code etag} is quoted and changes with the bytes, null when the store has none.
+ */
+public record BlobInfo(String url, Instant lastModified, long size, String etag) {}
@@ -0,0 +1,9 @@
+package iaf.ofek.gisma.ai.dto.storage;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Signed request the client sends the file with, {@code headers} must be sent exactly as given.
+ */
+public record PresignedUpload(String url, String method, Map<String, String> headers, Instant expiresAt) {}
@@ -0,0 +1,3 @@
+package iaf.ofek.gisma.ai.dto.vectorstore;
+
+public record BackfillStatus(boolean running, long processedRows) {}
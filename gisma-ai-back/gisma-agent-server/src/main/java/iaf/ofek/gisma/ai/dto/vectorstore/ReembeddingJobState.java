@@ -0,0 +1,16 @@
+package iaf.ofek.gisma.ai.dto.vectorstore;
+
+import iaf.ofek.gisma.ai.enums.ReembeddingJobStatus;
+
+import java.time.Instant;
+import java.util.UUID;
+
+public record ReembeddingJobState(UUID id,
+                             String targetModel,
+                             int targetDimensions,
+                             ReembeddingJobStatus status,
+                             UUID lastId,
+                             long processedRows,
+                             String error,
+                             Instant updatedAt)
+{}
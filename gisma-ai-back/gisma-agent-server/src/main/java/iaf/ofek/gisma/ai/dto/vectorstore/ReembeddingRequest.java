@@ -0,0 +1,5 @@
+package iaf.ofek.gisma.ai.dto.vectorstore;
+
+public record ReembeddingRequest(String targetModel,
+                                 Integer targetDimensions)
+{}
@@ -0,0 +1,8 @@
+package iaf.ofek.gisma.ai.dto.vectorstore;
+
+import iaf.ofek.gisma.ai.service.vectorstore.QuantizationMode;
+
+public record VectorSearchBenchmarkRequest(Integer sampleSize,
+                                           Integer topK,
+                                           QuantizationMode mode)
+{}
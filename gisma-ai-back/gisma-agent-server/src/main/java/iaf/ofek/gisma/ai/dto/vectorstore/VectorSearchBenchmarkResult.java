@@ -0,0 +1,14 @@
+package iaf.ofek.gisma.ai.dto.vectorstore;
+
+import iaf.ofek.gisma.ai.service.vectorstore.QuantizationMode;
+
+public record VectorSearchBenchmarkResult(int queries,
+                                          int topK,
+                                          int oversample,
+                                          QuantizationMode mode,
+                                          double recallAtK,
+                                          double baselineP50Ms,
+                                          double baselineP99Ms,
+                                          double quantizedP50Ms,
+                                          double quantizedP99Ms)
+{}
@@ -0,0 +1,34 @@
+package iaf.ofek.gisma.ai.entity.ingestion;
+
+import iaf.ofek.gisma.ai.entity.GismaAiEntity;
+import jakarta.persistence.*;
+import lombok.*;
+
+import static iaf.ofek.gisma.ai.constant.DBTableNames.S3_CONTENTS;
+
+/**
+ * Stored file content shared by every global document with the same SHA-256: one S3 object and one set of chunks.
+ * {@code refCount} is the number of documents pointing at it, the content goes away with the last one.
+ */
+@Entity
+@Table(name = S3_CONTENTS)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class S3Content extends GismaAiEntity {
+
+    @Column(unique = true, length = 64)
+    private String sha256;
+
+    @Column
+    private String url;
+
+    @Column(name = "content_type")
+    private String contentType;
+
+    @Column(name = "ref_count", nullable = false)
+    private int refCount;
+
+}
@@ -1,6 +1,7 @@
 package iaf.ofek.gisma.ai.entity.ingestion;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import iaf.ofek.gisma.ai.entity.GismaAiEntity;
 import jakarta.persistence.*;
 import lombok.*;
@@ -31,4 +32,15 @@ public class S3Document extends GismaAiEntity {
     @JsonBackReference(value = "folder-document")
     private S3Folder parentFolder;
 
+    @ManyToOne
+    @JoinColumn(name = "content_id")
+    @JsonIgnore
+    private S3Content content;
+
+    /**
+     * Set on upload responses when the file matched stored content and was neither parsed, embedded nor uploaded again.
+     */
+    @Transient
+    private boolean deduplicated;
+
 }
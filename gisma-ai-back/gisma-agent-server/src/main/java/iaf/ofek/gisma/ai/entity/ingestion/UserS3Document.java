@@ -0,0 +1,38 @@
+package iaf.ofek.gisma.ai.entity.ingestion;
+
+import com.fasterxml.jackson.annotation.JsonBackReference;
+import iaf.ofek.gisma.ai.entity.GismaAiEntity;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.util.UUID;
+
+import static iaf.ofek.gisma.ai.constant.DBTableNames.USER_S3_DOCUMENTS;
+
+@Entity
+@Table(name = USER_S3_DOCUMENTS)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UserS3Document extends GismaAiEntity {
+
+    @Column
+    private String url;
+
+    @Column
+    private String name;
+
+    @Column(name = "content_type")
+    private String contentType;
+
+    @Column(name = "user_id", nullable = false)
+    private UUID userId;
+
+    @ManyToOne
+    @JoinColumn(name = "folder_id")
+    @JsonBackReference(value = "user-folder-document")
+    private UserS3Folder parentFolder;
+
+}
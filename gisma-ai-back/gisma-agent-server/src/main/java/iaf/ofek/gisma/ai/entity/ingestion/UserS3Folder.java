@@ -0,0 +1,40 @@
+package iaf.ofek.gisma.ai.entity.ingestion;
+
+import com.fasterxml.jackson.annotation.JsonBackReference;
+import iaf.ofek.gisma.ai.entity.GismaAiEntity;
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static iaf.ofek.gisma.ai.constant.DBTableNames.USER_S3_FOLDERS;
+
+@Entity
+@Table(name = USER_S3_FOLDERS)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UserS3Folder extends GismaAiEntity {
+
+    @Column
+    private String name;
+
+    @Column(name = "user_id", nullable = false)
+    private UUID userId;
+
+    @ManyToOne
+    @JoinColumn(name = "parent_id")
+    @JsonBackReference(value = "user-folder-folder")
+    private UserS3Folder parentFolder;
+
+    @OneToMany(mappedBy = "parentFolder", cascade = CascadeType.ALL)
+    private List<UserS3Folder> childrenFolders = new ArrayList<>();
+
+    @OneToMany(mappedBy = "parentFolder", cascade = CascadeType.ALL)
+    private List<UserS3Document> childrenDocuments = new ArrayList<>();
+
+}
@@ -0,0 +1,14 @@
+package iaf.ofek.gisma.ai.enums;
+
+/**
+ * State of a circuit breaker around a remote dependency, ordered by severity.
+ */
+public enum CircuitState {
+
+    CLOSED,
+
+    HALF_OPEN,
+
+    OPEN
+
+}
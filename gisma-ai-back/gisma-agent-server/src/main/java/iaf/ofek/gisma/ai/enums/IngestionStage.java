@@ -0,0 +1,27 @@
+package iaf.ofek.gisma.ai.enums;
+
+public enum IngestionStage {
+
+    RECEIVED,
+
+    PARSED,
+
+    CHUNKED,
+
+    EMBEDDED,
+
+    STORED,
+
+    UPLOADED,
+
+    DEDUPLICATED,
+
+    QUEUED,
+
+    DONE,
+
+    FAILED,
+
+    COMPLETED
+
+}
@@ -0,0 +1,9 @@
+package iaf.ofek.gisma.ai.enums;
+
+public enum OutboxEventStatus {
+
+    PENDING,
+
+    DEAD
+
+}
@@ -0,0 +1,15 @@
+package iaf.ofek.gisma.ai.enums;
+
+public enum OutboxEventType {
+
+    INGEST_CONTENT,
+
+    REFRESH_FOLDER_METADATA,
+
+    DELETE_CONTENT,
+
+    INGEST_USER_DOCUMENT,
+
+    DELETE_USER_DOCUMENT
+
+}
@@ -0,0 +1,16 @@
+package iaf.ofek.gisma.ai.enums;
+
+/**
+ * RUNNING jobs hold a lease, a job whose lease ran out (its node died) is claimed again.
+ */
+public enum PromptJobStatus {
+
+    PENDING,
+
+    RUNNING,
+
+    DONE,
+
+    FAILED
+
+}
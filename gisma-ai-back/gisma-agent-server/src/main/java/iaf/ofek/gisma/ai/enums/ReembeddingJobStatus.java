@@ -0,0 +1,11 @@
+package iaf.ofek.gisma.ai.enums;
+
+public enum ReembeddingJobStatus {
+
+    RUNNING,
+
+    FAILED,
+
+    COMPLETED
+
+}
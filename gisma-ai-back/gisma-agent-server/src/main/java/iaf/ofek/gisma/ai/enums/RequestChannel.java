@@ -0,0 +1,12 @@
+package iaf.ofek.gisma.ai.enums;
+
+/**
+ * Transport a prompt came in on, interactive websocket chats are scheduled ahead of REST calls.
+ */
+public enum RequestChannel {
+
+    WEBSOCKET,
+
+    REST
+
+}
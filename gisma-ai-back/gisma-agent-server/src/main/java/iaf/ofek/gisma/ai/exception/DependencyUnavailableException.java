@@ -0,0 +1,17 @@
+package iaf.ofek.gisma.ai.exception;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+public class DependencyUnavailableException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public DependencyUnavailableException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+}
@@ -0,0 +1,17 @@
+package iaf.ofek.gisma.ai.exception;
+
+/**
+ * The document could not be parsed right now (pool busy, parse timed out), unlike a {@link org.apache.tika.exception.TikaException}
+ * retrying it later may succeed.
+ */
+public class ParserUnavailableException extends RuntimeException {
+
+    public ParserUnavailableException(String message) {
+        super(message);
+    }
+
+    public ParserUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
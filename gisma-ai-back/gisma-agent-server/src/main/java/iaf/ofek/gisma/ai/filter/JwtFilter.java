@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Optional;
-import java.util.UUID;
 
 @Log4j2
 @Component
@@ -37,12 +36,11 @@ public class JwtFilter extends OncePerRequestFilter {
                 || (!servletPath.startsWith("/auth/"))) {
             try {
                 Optional<String> tokenOptional = getJwtFromCookies(request);
+                // verified once per token and node, see JwtUtil
                 tokenOptional.filter(token -> !token.isBlank())
-                        .filter(jwtUtil::validateToken)
-                        .ifPresent(jwtToken -> {
-                            UUID userId = jwtUtil.extractUserId(jwtToken);
-
-                            if (userId != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+                        .flatMap(jwtUtil::verify)
+                        .ifPresent(userId -> {
+                            if (SecurityContextHolder.getContext().getAuthentication() == null) {
                                 UsernamePasswordAuthenticationToken auth =
                                         new UsernamePasswordAuthenticationToken(userId, null, Collections.emptyList());
                                 auth.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
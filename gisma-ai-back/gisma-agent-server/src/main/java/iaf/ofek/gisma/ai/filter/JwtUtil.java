@@ -1,25 +1,62 @@
 package iaf.ofek.gisma.ai.filter;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import iaf.ofek.gisma.ai.service.auth.TokenRevocationList;
+import iaf.ofek.gisma.ai.util.HashUtils;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Date;
+import java.util.HexFormat;
+import java.util.Optional;
 import java.util.UUID;
 
+/**
+ * Tokens are verified (signature, expiry) once per node: the result is cached by the SHA-256 of the token until
+ * the token expires, later requests with the same cookie cost a digest and two map lookups. Raw tokens are never kept.
+ * The revocation list is checked on every call, cached or not.
+ */
 @Component
 public class JwtUtil {
 
     private final SecretKey key;
 
-    public JwtUtil(@Value("${sa.jwt.secret}") String secret) {
+    // immutable and thread safe, built once
+    private final JwtParser parser;
+
+    private final Cache<String, VerifiedToken> verifiedTokens;
+
+    private final TokenRevocationList revocationList;
+
+    public JwtUtil(@Value("${sa.jwt.secret}") String secret,
+                   @Value("${sa.jwt.cache.max-size:100000}") long cacheMaxSize,
+                   TokenRevocationList revocationList, MeterRegistry meterRegistry) {
         key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret));
+        parser = Jwts.parser()
+                .verifyWith(key)
+                .build();
+        this.revocationList = revocationList;
+        verifiedTokens = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfter(new UntilTokenExpiry())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, "jwt");
     }
 
     public String generateToken(UUID userId, Integer expirationMs) {
@@ -32,33 +69,91 @@ public class JwtUtil {
                 .compact();
     }
 
+    /**
+     * User of a valid, unrevoked token, empty otherwise.
+     */
+    public Optional<UUID> verify(String token) {
+        String digest = digest(token);
+        if (revocationList.isRevoked(digest)) {
+            return Optional.empty();
+        }
+
+        return verified(token, digest).map(VerifiedToken::userId);
+    }
+
     public UUID extractUserId(String token) {
-        return UUID.fromString(extractSubject(token));
+        return verify(token)
+                .orElseThrow(() -> new BadCredentialsException("Invalid or expired JWT token"));
     }
 
     public boolean validateToken(String token) {
-        try {
-            Jwts.parser()
-                    .verifyWith(key)
-                    .build()
-                    .parseSignedClaims(token);
-            return true;
-        } catch (JwtException e) {
-            return false;
+        return verify(token).isPresent();
+    }
+
+    /**
+     * Invalid tokens are ignored, there is nothing to revoke.
+     */
+    public void revoke(String token) {
+        String digest = digest(token);
+        verified(token, digest).ifPresent(verifiedToken -> {
+            revocationList.revoke(digest, Duration.between(Instant.now(), verifiedToken.expiresAt()));
+            verifiedTokens.invalidate(digest);
+        });
+    }
+
+    private Optional<VerifiedToken> verified(String token, String digest) {
+        VerifiedToken verifiedToken = verifiedTokens.getIfPresent(digest);
+        if (verifiedToken == null) {
+            verifiedToken = parse(token);
+            if (verifiedToken == null) {
+                return Optional.empty();
+            }
+            verifiedTokens.put(digest, verifiedToken);
         }
+
+        // the cache expires entries lazily, never hand out an expired one
+        return verifiedToken.expiresAt().isAfter(Instant.now()) ? Optional.of(verifiedToken) : Optional.empty();
     }
 
-    private String extractSubject(String token) {
+    /**
+     * Null for tokens that fail verification, or carry no subject or expiry (those are never issued here).
+     */
+    private VerifiedToken parse(String token) {
         try {
-            return Jwts.parser()
-                    .verifyWith(key)
-                    .build()
-                    .parseSignedClaims(token)
-                    .getPayload()
-                    .getSubject();
-        }  catch (Exception e) {
-            throw new BadCredentialsException("Invalid or expired JWT token");
+            Claims claims = parser.parseSignedClaims(token).getPayload();
+            if (claims.getSubject() == null || claims.getExpiration() == null) {
+                return null;
+            }
+
+            return new VerifiedToken(UUID.fromString(claims.getSubject()), claims.getExpiration().toInstant());
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
         }
     }
 
+    private static String digest(String token) {
+        return HexFormat.of().formatHex(HashUtils.sha256().digest(token.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private record VerifiedToken(UUID userId, Instant expiresAt) {}
+
+    private static class UntilTokenExpiry implements Expiry<String, VerifiedToken> {
+
+        @Override
+        public long expireAfterCreate(String digest, VerifiedToken token, long currentTime) {
+            return Math.max(0, Duration.between(Instant.now(), token.expiresAt()).toNanos());
+        }
+
+        @Override
+        public long expireAfterUpdate(String digest, VerifiedToken token, long currentTime, long currentDuration) {
+            return expireAfterCreate(digest, token, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String digest, VerifiedToken token, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+    }
+
 }
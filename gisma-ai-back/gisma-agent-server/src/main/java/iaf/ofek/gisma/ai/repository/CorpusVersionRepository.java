@@ -0,0 +1,29 @@
+package iaf.ofek.gisma.ai.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * The corpus version is a sequence: bumping never waits on another node's transaction and its value is readable
+ * without a row lock. A rolled back bump only costs a cache miss.
+ */
+@Repository
+@RequiredArgsConstructor
+public class CorpusVersionRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public long next() {
+        Long version = jdbcTemplate.queryForObject("SELECT nextval('corpus_version_seq')", Long.class);
+
+        return version == null ? 0 : version;
+    }
+
+    public long current() {
+        Long version = jdbcTemplate.queryForObject("SELECT last_value FROM corpus_version_seq", Long.class);
+
+        return version == null ? 0 : version;
+    }
+
+}
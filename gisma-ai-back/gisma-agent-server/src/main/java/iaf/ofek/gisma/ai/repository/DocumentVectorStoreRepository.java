@@ -0,0 +1,98 @@
+package iaf.ofek.gisma.ai.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+@Repository
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class DocumentVectorStoreRepository {
+
+    /**
+     * Rewrites the folder metadata of the chunks of the selected contents from the folders of every document
+     * sharing the content: {@code folderIds} / {@code folderPath} are their union.
+     */
+    private static final String REFRESH_CONTENT_FOLDERS_SQL = """
+            WITH RECURSIVE folder_paths(id, path) AS (
+                SELECT id, ARRAY[]::uuid[] FROM s3_folders WHERE parent_id IS NULL
+                UNION ALL
+                SELECT f.id, p.path || f.id
+                FROM s3_folders f
+                JOIN folder_paths p ON f.parent_id = p.id
+            ),
+            content_folders AS (
+                SELECT d.content_id,
+                       array_agg(DISTINCT d.folder_id) AS folder_ids,
+                       COALESCE(array_agg(DISTINCT a.folder_id) FILTER (WHERE a.folder_id IS NOT NULL), ARRAY[]::uuid[]) AS folder_path
+                FROM s3_documents d
+                JOIN folder_paths fp ON fp.id = d.folder_id
+                LEFT JOIN LATERAL unnest(fp.path) AS a(folder_id) ON TRUE
+                WHERE d.content_id IN (%s)
+                GROUP BY d.content_id
+            )
+            UPDATE document_vector_store v
+            SET metadata = v.metadata
+                || jsonb_build_object('folderIds', to_jsonb(cf.folder_ids), 'folderPath', to_jsonb(cf.folder_path))
+            FROM content_folders cf
+            WHERE v.metadata->>'contentId' = cf.content_id::text
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Recomputes the folder metadata of every chunk under the given folder from the current folder tree,
+     * the indexed folder columns follow through the table trigger.
+     *
+     * @return number of updated chunks
+     */
+    @Transactional
+    public int refreshFolderMetadata(UUID folderId) {
+        String contents = "SELECT DISTINCT (v.metadata->>'contentId')::uuid FROM document_vector_store v WHERE v.folder_path @> ARRAY[?]::uuid[]";
+
+        return jdbcTemplate.update(REFRESH_CONTENT_FOLDERS_SQL.formatted(contents), folderId);
+    }
+
+    /**
+     * Recomputes the folder metadata of the chunks of the given contents, after a document was added to
+     * or removed from a shared content.
+     *
+     * @return number of updated chunks
+     */
+    @Transactional
+    public int refreshContentFolderMetadata(Collection<UUID> contentIds) {
+        if (contentIds.isEmpty()) {
+            return 0;
+        }
+
+        String ids = contentIds.stream()
+                .map(UUID::toString)
+                .collect(Collectors.joining(",", "{", "}"));
+
+        return jdbcTemplate.update(REFRESH_CONTENT_FOLDERS_SQL.formatted("SELECT unnest(CAST(? AS uuid[]))"), ids);
+    }
+
+    /**
+     * One page of owner ids (the {@code idKey} metadata value) that have chunks in the vector table but no row
+     * in the owner table, in id order so callers can page with the last id of the previous page.
+     */
+    public List<String> findOrphanIds(String vectorTable, String idKey, String ownerTable, String afterId, int limit) {
+        String sql = """
+                SELECT DISTINCT v.metadata->>'%3$s' AS owner_id
+                FROM %1$s v
+                WHERE v.metadata->>'%3$s' > ?
+                  AND NOT EXISTS (SELECT 1 FROM %2$s o WHERE o.id = (v.metadata->>'%3$s')::uuid)
+                ORDER BY owner_id
+                LIMIT ?
+                """.formatted(vectorTable, ownerTable, idKey);
+
+        return jdbcTemplate.queryForList(sql, String.class, afterId, limit);
+    }
+
+}
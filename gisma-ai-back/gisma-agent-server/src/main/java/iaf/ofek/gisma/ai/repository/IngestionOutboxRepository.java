@@ -0,0 +1,120 @@
+package iaf.ofek.gisma.ai.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import iaf.ofek.gisma.ai.dto.ingestion.OutboxEvent;
+import iaf.ofek.gisma.ai.dto.ingestion.OutboxPayload;
+import iaf.ofek.gisma.ai.enums.OutboxEventStatus;
+import iaf.ofek.gisma.ai.enums.OutboxEventType;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class IngestionOutboxRepository {
+
+    /**
+     * Claiming leases the rows: they become available again after the lease, so events of a crashed
+     * instance are retried, and concurrent dispatchers skip each other's rows.
+     */
+    private static final String CLAIM_SQL = """
+            UPDATE ingestion_outbox o
+            SET attempts = o.attempts + 1, available_at = now() + CAST(? AS interval)
+            WHERE o.id IN (
+                SELECT id FROM ingestion_outbox
+                WHERE status = ? AND available_at <= now()
+                ORDER BY available_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            )
+            RETURNING o.id, o.event_type, o.payload, o.attempts
+            """;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Joins the caller's transaction, the event commits or rolls back with the metadata it belongs to.
+     */
+    @Transactional
+    public UUID enqueue(OutboxEventType type, OutboxPayload payload) {
+        UUID id = UUID.randomUUID();
+        jdbcTemplate.update(
+                "INSERT INTO ingestion_outbox (id, event_type, payload, status) VALUES (?, ?, CAST(? AS jsonb), ?)",
+                id, type.name(), toJson(payload), OutboxEventStatus.PENDING.name()
+        );
+
+        return id;
+    }
+
+    @Transactional
+    public List<OutboxEvent> claim(int limit, Duration lease) {
+        return jdbcTemplate.query(CLAIM_SQL, this::mapRow,
+                "%d milliseconds".formatted(lease.toMillis()), OutboxEventStatus.PENDING.name(), limit);
+    }
+
+    @Transactional
+    public void complete(UUID id) {
+        jdbcTemplate.update("DELETE FROM ingestion_outbox WHERE id = ?", id);
+    }
+
+    @Transactional
+    public void retryLater(UUID id, Duration delay, String error) {
+        jdbcTemplate.update(
+                "UPDATE ingestion_outbox SET available_at = now() + CAST(? AS interval), last_error = ? WHERE id = ?",
+                "%d milliseconds".formatted(delay.toMillis()), error, id
+        );
+    }
+
+    @Transactional
+    public void markDead(UUID id, String error) {
+        jdbcTemplate.update(
+                "UPDATE ingestion_outbox SET status = ?, last_error = ? WHERE id = ?",
+                OutboxEventStatus.DEAD.name(), error, id
+        );
+    }
+
+    public long countByStatus(OutboxEventStatus status) {
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM ingestion_outbox WHERE status = ?", Long.class, status.name());
+
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * An unreadable payload maps to null instead of failing the whole claim, the dispatcher buries the event.
+     */
+    private OutboxEvent mapRow(ResultSet rs, int rowNum) throws SQLException {
+        OutboxPayload payload;
+        try {
+            payload = objectMapper.readValue(rs.getString("payload"), OutboxPayload.class);
+        } catch (JsonProcessingException e) {
+            payload = null;
+        }
+
+        return new OutboxEvent(
+                rs.getObject("id", UUID.class),
+                OutboxEventType.valueOf(rs.getString("event_type")),
+                payload,
+                rs.getInt("attempts")
+        );
+    }
+
+    private static String toJson(OutboxPayload payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed serializing outbox payload", e);
+        }
+    }
+
+}
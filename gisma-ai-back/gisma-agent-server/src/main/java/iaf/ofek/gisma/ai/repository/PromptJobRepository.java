@@ -0,0 +1,155 @@
+package iaf.ofek.gisma.ai.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import iaf.ofek.gisma.ai.dto.agent.ClaimedPromptJob;
+import iaf.ofek.gisma.ai.dto.agent.PromptJob;
+import iaf.ofek.gisma.ai.dto.agent.UserPrompt;
+import iaf.ofek.gisma.ai.enums.PromptJobStatus;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class PromptJobRepository {
+
+    /**
+     * Claiming leases the rows like the ingestion outbox does: RUNNING rows whose lease ran out belong to a node
+     * that died and are claimed again, concurrent workers skip each other's rows.
+     */
+    private static final String CLAIM_SQL = """
+            UPDATE prompt_jobs j
+            SET status = ?, attempts = j.attempts + 1, available_at = now() + CAST(? AS interval)
+            WHERE j.id IN (
+                SELECT id FROM prompt_jobs
+                WHERE status IN (?, ?) AND available_at <= now()
+                ORDER BY available_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            )
+            RETURNING j.id, j.user_id, j.prompt, j.attempts
+            """;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Transactional
+    public UUID enqueue(UUID userId, UserPrompt prompt) {
+        UUID id = UUID.randomUUID();
+        jdbcTemplate.update(
+                "INSERT INTO prompt_jobs (id, user_id, prompt, status) VALUES (?, ?, CAST(? AS jsonb), ?)",
+                id, userId, toJson(prompt), PromptJobStatus.PENDING.name()
+        );
+
+        return id;
+    }
+
+    @Transactional
+    public List<ClaimedPromptJob> claim(int limit, Duration lease) {
+        return jdbcTemplate.query(CLAIM_SQL, this::mapClaimed,
+                PromptJobStatus.RUNNING.name(), "%d milliseconds".formatted(lease.toMillis()),
+                PromptJobStatus.PENDING.name(), PromptJobStatus.RUNNING.name(), limit);
+    }
+
+    /**
+     * Stores the outcome, kept for {@code retention}. A job that was claimed again meanwhile is finished by whichever
+     * worker ends first, the other one changes nothing.
+     */
+    @Transactional
+    public boolean finish(UUID id, PromptJobStatus status, String response, String error, Duration retention) {
+        return jdbcTemplate.update("""
+                        UPDATE prompt_jobs
+                        SET status = ?, response = ?, error = ?, completed_at = now(), expires_at = now() + CAST(? AS interval)
+                        WHERE id = ? AND status = ?
+                        """,
+                status.name(), response, error, "%d milliseconds".formatted(retention.toMillis()),
+                id, PromptJobStatus.RUNNING.name()) > 0;
+    }
+
+    /**
+     * Back to the queue after {@code delay}, a refunded attempt doesn't count toward the attempt limit.
+     */
+    @Transactional
+    public void retryLater(UUID id, Duration delay, String error, boolean refund) {
+        jdbcTemplate.update("""
+                        UPDATE prompt_jobs
+                        SET status = ?, available_at = now() + CAST(? AS interval), error = ?, attempts = attempts - ?
+                        WHERE id = ? AND status = ?
+                        """,
+                PromptJobStatus.PENDING.name(), "%d milliseconds".formatted(delay.toMillis()), error, refund ? 1 : 0,
+                id, PromptJobStatus.RUNNING.name());
+    }
+
+    public Optional<PromptJob> findByIdAndUserId(UUID id, UUID userId) {
+        return jdbcTemplate.query("""
+                        SELECT id, status, response, error, created_at, completed_at
+                        FROM prompt_jobs
+                        WHERE id = ? AND user_id = ? AND (expires_at IS NULL OR expires_at > now())
+                        """,
+                this::mapJob, id, userId).stream().findFirst();
+    }
+
+    @Transactional
+    public int deleteExpired() {
+        return jdbcTemplate.update("DELETE FROM prompt_jobs WHERE expires_at <= now()");
+    }
+
+    public long countByStatus(PromptJobStatus status) {
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM prompt_jobs WHERE status = ?", Long.class, status.name());
+
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * An unreadable prompt maps to null instead of failing the whole claim, the worker fails the job.
+     */
+    private ClaimedPromptJob mapClaimed(ResultSet rs, int rowNum) throws SQLException {
+        UserPrompt prompt;
+        try {
+            prompt = objectMapper.readValue(rs.getString("prompt"), UserPrompt.class);
+        } catch (JsonProcessingException e) {
+            prompt = null;
+        }
+
+        return new ClaimedPromptJob(
+                rs.getObject("id", UUID.class),
+                rs.getObject("user_id", UUID.class),
+                prompt,
+                rs.getInt("attempts")
+        );
+    }
+
+    private PromptJob mapJob(ResultSet rs, int rowNum) throws SQLException {
+        Timestamp completedAt = rs.getTimestamp("completed_at");
+
+        return new PromptJob(
+                rs.getObject("id", UUID.class),
+                PromptJobStatus.valueOf(rs.getString("status")),
+                rs.getString("response"),
+                rs.getString("error"),
+                rs.getTimestamp("created_at").toInstant(),
+                completedAt == null ? null : completedAt.toInstant()
+        );
+    }
+
+    private static String toJson(UserPrompt prompt) {
+        try {
+            return objectMapper.writeValueAsString(prompt);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Failed serializing prompt", e);
+        }
+    }
+
+}
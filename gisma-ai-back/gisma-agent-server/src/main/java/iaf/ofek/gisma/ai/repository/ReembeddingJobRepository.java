@@ -0,0 +1,117 @@
+package iaf.ofek.gisma.ai.repository;
+
+import iaf.ofek.gisma.ai.dto.vectorstore.ReembeddingJobState;
+import iaf.ofek.gisma.ai.enums.ReembeddingJobStatus;
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class ReembeddingJobRepository {
+
+    private static final String SELECT_SQL = """
+            SELECT id, target_model, target_dimensions, status, last_id, processed_rows, error, updated_at
+            FROM reembedding_jobs
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * The new job is leased to the caller, the unique index on RUNNING rows rejects a second running job.
+     */
+    @Transactional
+    public ReembeddingJobState create(String targetModel, int targetDimensions, Duration lease) {
+        UUID id = UUID.randomUUID();
+        try {
+            jdbcTemplate.update(
+                    "INSERT INTO reembedding_jobs (id, target_model, target_dimensions, status, lease_until) VALUES (?, ?, ?, ?, now() + CAST(? AS interval))",
+                    id, targetModel, targetDimensions, ReembeddingJobStatus.RUNNING.name(), interval(lease)
+            );
+        } catch (DuplicateKeyException e) {
+            throw new IllegalStateException("A re-embedding job is already running");
+        }
+
+        return findById(id).orElseThrow();
+    }
+
+    /**
+     * Takes the job over when no other node holds its lease.
+     */
+    @Transactional
+    public boolean claim(UUID id, Duration lease) {
+        return jdbcTemplate.update(
+                "UPDATE reembedding_jobs SET lease_until = now() + CAST(? AS interval) WHERE id = ? AND (lease_until IS NULL OR lease_until <= now())",
+                interval(lease), id
+        ) > 0;
+    }
+
+    @Transactional
+    public void renewLease(UUID id, Duration lease) {
+        jdbcTemplate.update("UPDATE reembedding_jobs SET lease_until = now() + CAST(? AS interval) WHERE id = ?", interval(lease), id);
+    }
+
+    public Optional<ReembeddingJobState> findById(UUID id) {
+        return jdbcTemplate.query(SELECT_SQL + " WHERE id = ?", this::mapRow, id)
+                .stream()
+                .findFirst();
+    }
+
+    public Optional<ReembeddingJobState> findLatest() {
+        return jdbcTemplate.query(SELECT_SQL + " ORDER BY created_at DESC LIMIT 1", this::mapRow)
+                .stream()
+                .findFirst();
+    }
+
+    public Optional<ReembeddingJobState> findLatestByStatus(ReembeddingJobStatus status) {
+        return jdbcTemplate.query(SELECT_SQL + " WHERE status = ? ORDER BY created_at DESC LIMIT 1", this::mapRow, status.name())
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Checkpoint, meant to commit together with the rows it covers. A null last id only counts the rows.
+     */
+    @Transactional
+    public void updateProgress(UUID id, UUID lastId, int processedRows) {
+        jdbcTemplate.update(
+                "UPDATE reembedding_jobs SET last_id = COALESCE(?, last_id), processed_rows = processed_rows + ?, updated_at = now() WHERE id = ?",
+                lastId, processedRows, id
+        );
+    }
+
+    @Transactional
+    public void updateStatus(UUID id, ReembeddingJobStatus status, String error) {
+        jdbcTemplate.update(
+                "UPDATE reembedding_jobs SET status = ?, error = ?, updated_at = now(), lease_until = NULL WHERE id = ?",
+                status.name(), error, id
+        );
+    }
+
+    private static String interval(Duration duration) {
+        return "%d milliseconds".formatted(duration.toMillis());
+    }
+
+    private ReembeddingJobState mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new ReembeddingJobState(
+                rs.getObject("id", UUID.class),
+                rs.getString("target_model"),
+                rs.getInt("target_dimensions"),
+                ReembeddingJobStatus.valueOf(rs.getString("status")),
+                rs.getObject("last_id", UUID.class),
+                rs.getLong("processed_rows"),
+                rs.getString("error"),
+                rs.getTimestamp("updated_at").toInstant()
+        );
+    }
+
+}
@@ -0,0 +1,60 @@
+package iaf.ofek.gisma.ai.repository;
+
+import iaf.ofek.gisma.ai.dto.auth.RevokedToken;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Timestamps are computed by the database, nodes with skewed clocks still agree on them.
+ */
+@Repository
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class RevokedTokenRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Transactional
+    public void revoke(String digest, Duration remaining) {
+        jdbcTemplate.update(
+                "INSERT INTO revoked_tokens (digest, expires_at) VALUES (?, now() + CAST(? AS interval)) ON CONFLICT (digest) DO NOTHING",
+                digest, "%d milliseconds".formatted(remaining.toMillis())
+        );
+    }
+
+    /**
+     * Unexpired tokens revoked after {@code since}, all of them for null, oldest first.
+     */
+    public List<RevokedToken> findRevokedAfter(Instant since) {
+        return jdbcTemplate.query("""
+                        SELECT digest, revoked_at, CAST(EXTRACT(EPOCH FROM (expires_at - now())) * 1000 AS BIGINT) AS remaining_ms
+                        FROM revoked_tokens
+                        WHERE expires_at > now() AND revoked_at > ?
+                        ORDER BY revoked_at
+                        """,
+                this::mapRow, Timestamp.from(since == null ? Instant.EPOCH : since));
+    }
+
+    @Transactional
+    public int deleteExpired() {
+        return jdbcTemplate.update("DELETE FROM revoked_tokens WHERE expires_at <= now()");
+    }
+
+    private RevokedToken mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return new RevokedToken(
+                rs.getString("digest"),
+                rs.getTimestamp("revoked_at").toInstant(),
+                Duration.ofMillis(rs.getLong("remaining_ms"))
+        );
+    }
+
+}
@@ -0,0 +1,37 @@
+package iaf.ofek.gisma.ai.repository;
+
+import iaf.ofek.gisma.ai.entity.ingestion.S3Content;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface S3ContentRepository extends JpaRepository<S3Content, UUID> {
+
+    /**
+     * Locks the content row, reference count updates of concurrent uploads / deletes are serialized on it.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<S3Content> findBySha256(String sha256);
+
+    /**
+     * Unlocked check made before the upload transaction, decides whether the file has to be uploaded at all.
+     */
+    boolean existsBySha256(String sha256);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from S3Content c where c.id = :id")
+    Optional<S3Content> findByIdForUpdate(@Param("id") UUID id);
+
+    @Query("select c.url from S3Content c where c.url in :urls")
+    List<String> findExistingUrls(@Param("urls") Collection<String> urls);
+
+}
@@ -30,4 +30,6 @@ public interface S3FolderRepository extends JpaRepository<S3Folder, UUID> {
     @Query("SELECT f FROM S3Folder f WHERE f.name = '/'")
     Optional<S3Folder> findRootFolder();
 
+    Optional<S3Folder> findFirstByParentFolderAndName(S3Folder parentFolder, String name);
+
 }
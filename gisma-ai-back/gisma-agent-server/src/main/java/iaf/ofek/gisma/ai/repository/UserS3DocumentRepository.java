@@ -0,0 +1,26 @@
+package iaf.ofek.gisma.ai.repository;
+
+import iaf.ofek.gisma.ai.entity.ingestion.UserS3Document;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface UserS3DocumentRepository extends JpaRepository<UserS3Document, UUID> {
+
+    List<UserS3Document> findAllByUserIdAndParentFolderIsNull(UUID userId);
+
+    Optional<UserS3Document> findByIdAndUserId(UUID id, UUID userId);
+
+    List<UserS3Document> findAllByIdInAndUserId(Collection<UUID> ids, UUID userId);
+
+    @Query("select d.url from UserS3Document d where d.url in :urls")
+    List<String> findExistingUrls(@Param("urls") Collection<String> urls);
+
+}
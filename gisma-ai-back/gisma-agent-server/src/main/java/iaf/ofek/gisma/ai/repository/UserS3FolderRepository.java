@@ -0,0 +1,18 @@
+package iaf.ofek.gisma.ai.repository;
+
+import iaf.ofek.gisma.ai.entity.ingestion.UserS3Folder;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface UserS3FolderRepository extends JpaRepository<UserS3Folder, UUID> {
+
+    List<UserS3Folder> findAllByUserIdAndParentFolderIsNull(UUID userId);
+
+    Optional<UserS3Folder> findByIdAndUserId(UUID id, UUID userId);
+
+}
@@ -7,6 +7,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseCookie;
 import org.springframework.stereotype.Component;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.UUID;
 
@@ -66,6 +67,15 @@ public class CookieUtil {
         response.addHeader("Set-Cookie", cookie.toString());
     }
 
+    /**
+     * Revokes the tokens so they stop working right away, not only once their cookies are gone.
+     */
+    public void revokeTokens(String... tokens) {
+        Arrays.stream(tokens)
+                .filter(token -> token != null && !token.isBlank())
+                .forEach(jwtUtil::revoke);
+    }
+
     public UUID extractUserId(String refreshToken) {
         return jwtUtil.extractUserId(refreshToken);
     }
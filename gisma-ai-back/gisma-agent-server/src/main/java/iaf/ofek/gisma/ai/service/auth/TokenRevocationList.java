@@ -0,0 +1,76 @@
+package iaf.ofek.gisma.ai.service.auth;
+
+import iaf.ofek.gisma.ai.dto.auth.RevokedToken;
+import iaf.ofek.gisma.ai.repository.RevokedTokenRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tokens revoked before they expire, by token digest. Lookups are a hash map read, the table is only
+ * polled: revocations of other nodes apply here within {@code sa.jwt.revocation.sync-interval}.
+ * Entries go away once their token has expired, so the list stays as small as the number of recent logouts.
+ */
+@Service
+@Log4j2
+public class TokenRevocationList {
+
+    // transactions may commit out of revoked_at order, rows this much older than the newest seen are read again
+    private static final Duration SYNC_OVERLAP = Duration.ofMinutes(1);
+
+    private final RevokedTokenRepository revokedTokenRepository;
+
+    private final Map<String, Instant> revoked = new ConcurrentHashMap<>();
+
+    private volatile Instant lastRevokedAt;
+
+    public TokenRevocationList(RevokedTokenRepository revokedTokenRepository, MeterRegistry meterRegistry) {
+        this.revokedTokenRepository = revokedTokenRepository;
+        meterRegistry.gauge("auth.tokens.revoked", revoked, Map::size);
+        sync();
+    }
+
+    public boolean isRevoked(String digest) {
+        return !revoked.isEmpty() && revoked.containsKey(digest);
+    }
+
+    public void revoke(String digest, Duration remaining) {
+        if (remaining.isNegative() || remaining.isZero()) {
+            return;
+        }
+
+        revoked.put(digest, Instant.now().plus(remaining));
+        revokedTokenRepository.revoke(digest, remaining);
+    }
+
+    @Scheduled(fixedDelayString = "${sa.jwt.revocation.sync-interval:PT10S}")
+    public void sync() {
+        try {
+            Instant since = lastRevokedAt == null ? null : lastRevokedAt.minus(SYNC_OVERLAP);
+            List<RevokedToken> tokens = revokedTokenRepository.findRevokedAfter(since);
+            Instant now = Instant.now();
+            tokens.forEach(token -> revoked.put(token.digest(), now.plus(token.remaining())));
+            if (!tokens.isEmpty()) {
+                lastRevokedAt = tokens.get(tokens.size() - 1).revokedAt();
+            }
+
+            revoked.values().removeIf(expiresAt -> expiresAt.isBefore(now));
+        } catch (Exception e) {
+            log.warn("Failed syncing revoked tokens: {}.", e.getMessage());
+        }
+    }
+
+    @Scheduled(cron = "${sa.jwt.revocation.purge-cron:0 0 * * * *}")
+    public void purgeExpired() {
+        int purged = revokedTokenRepository.deleteExpired();
+        log.debug("Purged {} expired revoked tokens.", purged);
+    }
+
+}
@@ -1,19 +1,30 @@
 package iaf.ofek.gisma.ai.service.auth;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import iaf.ofek.gisma.ai.dto.auth.RegisterUserDto;
 import iaf.ofek.gisma.ai.entity.auth.Role;
 import iaf.ofek.gisma.ai.entity.auth.User;
 import iaf.ofek.gisma.ai.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import jakarta.persistence.EntityNotFoundException;
-import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.util.Optional;
 import java.util.UUID;
 
-@AllArgsConstructor
+/**
+ * Users are cached by id, and username / email are cached as pointers to the id, so authentication and
+ * {@code /auth/me} skip the database for active users. Writes of this service evict the user right away and
+ * put the saved row once the transaction commits. Changes made by other nodes show up after {@code sa.auth.user-cache.ttl}.
+ */
 @Service
 public class UserService {
 
@@ -21,9 +32,32 @@ public class UserService {
 
     private final PasswordEncoder passwordEncoder;
 
+    private final Cache<UUID, User> usersById;
+
+    private final Cache<String, UUID> userIdsByIdentifier;
+
+    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder, MeterRegistry meterRegistry,
+                       @Value("${sa.auth.user-cache.max-size:10000}") long cacheMaxSize,
+                       @Value("${sa.auth.user-cache.ttl:PT5M}") Duration cacheTtl) {
+        this.userRepository = userRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.usersById = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(cacheTtl)
+                .recordStats()
+                .build();
+        this.userIdsByIdentifier = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize * 2)
+                .expireAfterWrite(cacheTtl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, usersById, "users");
+        CaffeineCacheMetrics.monitor(meterRegistry, userIdsByIdentifier, "user-identifiers");
+    }
+
     @Transactional
     public User createOrUpdateUser(String email, String name, String provider, String oauthId, String picture) {
-        return userRepository.findByEmail(email)
+        User saved = userRepository.findByEmail(email)
                 .map(existingUser -> {
                     existingUser.setUsername(name);
                     existingUser.setOauthProvider(provider);
@@ -43,10 +77,29 @@ public class UserService {
 
                     return userRepository.save(newUser);
                 });
+        writeThrough(saved);
+
+        return saved;
     }
 
     public Optional<User> findUserByUsernameOrEmail(String userIdentifier) {
-        return userRepository.findByEmailOrUsername(userIdentifier, userIdentifier);
+        UUID cachedId = userIdsByIdentifier.getIfPresent(userIdentifier);
+        if (cachedId != null) {
+            User cached = usersById.getIfPresent(cachedId);
+            // the pointer is stale if the user was renamed since
+            if (cached != null && matches(cached, userIdentifier)) {
+                return Optional.of(cached);
+            }
+            userIdsByIdentifier.invalidate(userIdentifier);
+        }
+
+        Optional<User> user = userRepository.findByEmailOrUsername(userIdentifier, userIdentifier);
+        user.ifPresent(found -> {
+            usersById.put(found.getId(), found);
+            userIdsByIdentifier.put(userIdentifier, found.getId());
+        });
+
+        return user;
     }
 
     public User getUser(String userIdentifier) {
@@ -55,8 +108,16 @@ public class UserService {
     }
 
     public User getUserById(UUID userId) {
-        return userRepository.findById(userId)
+        User cached = usersById.getIfPresent(userId);
+        if (cached != null) {
+            return cached;
+        }
+
+        User user = userRepository.findById(userId)
                 .orElseThrow(() -> new EntityNotFoundException(String.format("User with id %s not found", userId)));
+        usersById.put(userId, user);
+
+        return user;
     }
 
     @Transactional
@@ -68,7 +129,43 @@ public class UserService {
         newUser.setRole(Role.USER);
         newUser.setPassword(passwordEncoder.encode(user.getPassword()));
 
-        return userRepository.save(newUser);
+        User saved = userRepository.save(newUser);
+        writeThrough(saved);
+
+        return saved;
+    }
+
+    /**
+     * Evicts the user now, so nothing reads the old row while the transaction runs, and caches the saved
+     * row after commit. A rollback leaves the user evicted.
+     */
+    private void writeThrough(User user) {
+        usersById.invalidate(user.getId());
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache(user);
+                }
+            });
+        } else {
+            cache(user);
+        }
+    }
+
+    private void cache(User user) {
+        usersById.put(user.getId(), user);
+        if (user.getUsername() != null) {
+            userIdsByIdentifier.put(user.getUsername(), user.getId());
+        }
+        if (user.getEmail() != null) {
+            userIdsByIdentifier.put(user.getEmail(), user.getId());
+        }
+    }
+
+    private static boolean matches(User user, String userIdentifier) {
+        return userIdentifier.equals(user.getUsername()) || userIdentifier.equals(user.getEmail());
     }
 
 }
@@ -0,0 +1,96 @@
+package iaf.ofek.gisma.ai.service.embedding;
+
+import iaf.ofek.gisma.ai.dto.embedding.EmbeddingBenchmarkRequest;
+import iaf.ofek.gisma.ai.dto.embedding.EmbeddingBenchmarkResult;
+import iaf.ofek.gisma.ai.dto.embedding.EmbeddingThroughput;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static iaf.ofek.gisma.ai.constant.DBTableNames.DOCUMENT_VECTOR_STORE;
+import static iaf.ofek.gisma.ai.service.embedding.EmbeddingModelFactory.OPENAI;
+import static iaf.ofek.gisma.ai.service.embedding.EmbeddingModelFactory.TRANSFORMERS;
+import static iaf.ofek.gisma.ai.util.StatsUtils.percentile;
+
+/**
+ * Embeds the same sample of stored chunks with the local ONNX model and the remote OpenAI model
+ * and reports throughput and request latency of each.
+ */
+@Service
+@Log4j2
+public class EmbeddingBenchmarkService {
+
+    private static final int DEFAULT_SAMPLE_SIZE = 256;
+
+    private static final int DEFAULT_REQUEST_SIZE = 128;
+
+    private static final String SAMPLE_SQL = "SELECT content FROM %s WHERE content IS NOT NULL ORDER BY random() LIMIT ?";
+
+    private final EmbeddingModelFactory embeddingModelFactory;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${spring.ai.vectorstore.pgvector.schema-name}")
+    private String schema;
+
+    public EmbeddingBenchmarkService(EmbeddingModelFactory embeddingModelFactory, JdbcTemplate jdbcTemplate) {
+        this.embeddingModelFactory = embeddingModelFactory;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public EmbeddingBenchmarkResult run(EmbeddingBenchmarkRequest request) {
+        int sampleSize = request.sampleSize() != null ? request.sampleSize() : DEFAULT_SAMPLE_SIZE;
+        int requestSize = request.requestSize() != null ? request.requestSize() : DEFAULT_REQUEST_SIZE;
+        List<String> texts = sampleTexts(sampleSize);
+
+        List<EmbeddingThroughput> results = List.of(
+                measure(TRANSFORMERS, texts, requestSize),
+                measure(OPENAI, texts, requestSize)
+        );
+
+        return new EmbeddingBenchmarkResult(texts.size(), requestSize, results);
+    }
+
+    private EmbeddingThroughput measure(String name, List<String> texts, int requestSize) {
+        try {
+            EmbeddingModel model = embeddingModelFactory.get(name);
+            List<Double> requestLatencies = new ArrayList<>();
+            long start = System.nanoTime();
+
+            for (int from = 0; from < texts.size(); from += requestSize) {
+                long requestStart = System.nanoTime();
+                model.embed(texts.subList(from, Math.min(from + requestSize, texts.size())));
+                requestLatencies.add((System.nanoTime() - requestStart) / 1_000_000.0);
+            }
+
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            EmbeddingThroughput result = new EmbeddingThroughput(name, model.dimensions(), texts.size() / seconds,
+                    percentile(requestLatencies, 50), percentile(requestLatencies, 99), null);
+            log.info("Embedding benchmark: {}.", result);
+
+            return result;
+        } catch (Exception e) {
+            log.warn("Embedding benchmark of {} failed: {}.", name, e.getMessage());
+            return new EmbeddingThroughput(name, 0, 0, 0, 0, e.getMessage());
+        }
+    }
+
+    private List<String> sampleTexts(int sampleSize) {
+        List<String> texts = jdbcTemplate.queryForList(SAMPLE_SQL.formatted(schema + "." + DOCUMENT_VECTOR_STORE), String.class, sampleSize);
+        if (!texts.isEmpty()) {
+            return texts;
+        }
+
+        // empty corpus, fall back to synthetic chunks of a typical size
+        return IntStream.range(0, sampleSize)
+                .mapToObj(i -> ("Sample chunk %d describing an API endpoint, its parameters and response fields. ".formatted(i)).repeat(8))
+                .toList();
+    }
+
+}
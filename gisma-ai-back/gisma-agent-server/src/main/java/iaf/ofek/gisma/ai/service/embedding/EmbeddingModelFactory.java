@@ -0,0 +1,115 @@
+package iaf.ofek.gisma.ai.service.embedding;
+
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.ai.openai.OpenAiEmbeddingOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.ai.transformers.TransformersEmbeddingModel;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Embedding models by their {@code spring.ai.model.embedding} name. The configured one is the application bean,
+ * the other one is created on first use, for benchmarks and re-embedding into another model.
+ */
+@Component
+public class EmbeddingModelFactory implements DisposableBean {
+
+    public static final String OPENAI = "openai";
+
+    public static final String TRANSFORMERS = "transformers";
+
+    private final EmbeddingModel embeddingModel;
+
+    private final Map<String, EmbeddingModel> models = new ConcurrentHashMap<>();
+
+    @Value("${spring.ai.model.embedding}")
+    private String configuredModel;
+
+    @Value("${spring.ai.openai.api-key:}")
+    private String openAiApiKey;
+
+    @Value("${spring.ai.openai.embedding.options.model:text-embedding-3-small}")
+    private String openAiEmbeddingModel;
+
+    @Value("${spring.ai.embedding.transformer.onnx.modelUri:}")
+    private String onnxModelUri;
+
+    @Value("${spring.ai.embedding.transformer.tokenizer.uri:}")
+    private String onnxTokenizerUri;
+
+    @Value("${sa.embedding.local.batch-size:32}")
+    private int localBatchSize;
+
+    @Value("${sa.embedding.local.parallelism:0}")
+    private int localParallelism;
+
+    public EmbeddingModelFactory(EmbeddingModel embeddingModel) {
+        this.embeddingModel = embeddingModel;
+    }
+
+    public String getConfiguredModel() {
+        return configuredModel;
+    }
+
+    public EmbeddingModel get(String name) {
+        if (name == null || name.equals(configuredModel)) {
+            return embeddingModel;
+        }
+
+        return models.computeIfAbsent(name, this::create);
+    }
+
+    private EmbeddingModel create(String name) {
+        return switch (name) {
+            case OPENAI -> remoteModel();
+            case TRANSFORMERS -> localModel();
+            default -> throw new IllegalArgumentException("Unknown embedding model: " + name);
+        };
+    }
+
+    private EmbeddingModel remoteModel() {
+        if (openAiApiKey.isBlank()) {
+            throw new IllegalStateException("spring.ai.openai.api-key is not set");
+        }
+
+        return new OpenAiEmbeddingModel(
+                OpenAiApi.builder().apiKey(openAiApiKey).build(),
+                MetadataMode.EMBED,
+                OpenAiEmbeddingOptions.builder().model(openAiEmbeddingModel).build()
+        );
+    }
+
+    private EmbeddingModel localModel() {
+        TransformersEmbeddingModel model = new TransformersEmbeddingModel();
+        if (!onnxModelUri.isBlank()) {
+            model.setModelResource(onnxModelUri);
+        }
+        if (!onnxTokenizerUri.isBlank()) {
+            model.setTokenizerResource(onnxTokenizerUri);
+        }
+
+        try {
+            model.afterPropertiesSet();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed loading the local embedding model", e);
+        }
+
+        return new ParallelEmbeddingModel(model, localBatchSize, localParallelism);
+    }
+
+    @Override
+    public void destroy() {
+        models.values().forEach(model -> {
+            if (model instanceof ParallelEmbeddingModel parallel) {
+                parallel.destroy();
+            }
+        });
+    }
+
+}
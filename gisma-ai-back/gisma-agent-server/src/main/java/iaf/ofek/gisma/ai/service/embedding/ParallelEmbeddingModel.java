@@ -0,0 +1,98 @@
+package iaf.ofek.gisma.ai.service.embedding;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits an embedding request into fixed size batches and runs them concurrently, one batch per core.
+ * Meant for in-process models (ONNX), where a single huge batch pads every text to the longest one
+ * and leaves the other cores idle. Embedding order matches the request order.
+ */
+public class ParallelEmbeddingModel implements EmbeddingModel, DisposableBean {
+
+    private final EmbeddingModel delegate;
+
+    private final int batchSize;
+
+    private final ExecutorService executor;
+
+    public ParallelEmbeddingModel(EmbeddingModel delegate, int batchSize, int parallelism) {
+        this.delegate = delegate;
+        this.batchSize = Math.max(1, batchSize);
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "local-embedding-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        if (texts.size() <= batchSize) {
+            return delegate.call(request);
+        }
+
+        List<CompletableFuture<EmbeddingResponse>> batches = new ArrayList<>();
+        for (int from = 0; from < texts.size(); from += batchSize) {
+            EmbeddingRequest batch = new EmbeddingRequest(
+                    texts.subList(from, Math.min(from + batchSize, texts.size())), request.getOptions());
+            batches.add(CompletableFuture.supplyAsync(() -> delegate.call(batch), executor));
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (CompletableFuture<EmbeddingResponse> batch : batches) {
+            for (Embedding embedding : batch.join().getResults()) {
+                embeddings.add(new Embedding(embedding.getOutput(), embeddings.size()));
+            }
+        }
+
+        return new EmbeddingResponse(embeddings);
+    }
+
+    /**
+     * No remote token limit to respect, so the batching strategy is skipped and all texts are fanned out by {@link #call}.
+     */
+    @Override
+    public List<float[]> embed(List<Document> documents, EmbeddingOptions options, BatchingStrategy batchingStrategy) {
+        List<String> texts = documents.stream()
+                .map(Document::getText)
+                .toList();
+
+        return call(new EmbeddingRequest(texts, options)).getResults()
+                .stream()
+                .map(Embedding::getOutput)
+                .toList();
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+}
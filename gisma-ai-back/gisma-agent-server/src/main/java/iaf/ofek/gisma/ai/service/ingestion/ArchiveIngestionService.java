@@ -0,0 +1,240 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.dto.ingestion.ArchiveIngestionResult;
+import iaf.ofek.gisma.ai.entity.ingestion.S3Document;
+import iaf.ofek.gisma.ai.entity.ingestion.S3Folder;
+import iaf.ofek.gisma.ai.enums.IngestionStage;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.tika.Tika;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports a ZIP / TAR (optionally gzip compressed) archive streamed straight from the request body.
+ * Entries are extracted one at a time: directories become {@link S3Folder}s, every file is handed to a bounded
+ * worker pool for parsing and embedding as soon as it is read, while the reader moves on to the next entry.
+ * Memory is bounded by the number of extracted entries waiting for a worker ({@code max-in-flight}) times the
+ * entry size limit; the reader blocks when the limit is reached.
+ */
+@Service
+@Log4j2
+public class ArchiveIngestionService implements DisposableBean {
+
+    private static final Tika tika = new Tika();
+
+    private final DocumentService documentService;
+
+    private final FolderService folderService;
+
+    private final ParentFolderFetcherService parentFolderFetcherService;
+
+    private final IngestionProgressPublisher progressPublisher;
+
+    private final ExecutorService workers;
+
+    private final Semaphore inFlight;
+
+    private final long maxEntryBytes;
+
+    private final int maxEntries;
+
+    public ArchiveIngestionService(DocumentService documentService, FolderService folderService,
+                                   ParentFolderFetcherService parentFolderFetcherService,
+                                   IngestionProgressPublisher progressPublisher,
+                                   @Value("${sa.ingestion.archive.parallelism:4}") int parallelism,
+                                   @Value("${sa.ingestion.archive.max-in-flight:8}") int maxInFlight,
+                                   @Value("${sa.ingestion.archive.max-entry-size:50MB}") DataSize maxEntrySize,
+                                   @Value("${sa.ingestion.archive.max-entries:20000}") int maxEntries) {
+        this.documentService = documentService;
+        this.folderService = folderService;
+        this.parentFolderFetcherService = parentFolderFetcherService;
+        this.progressPublisher = progressPublisher;
+        this.workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "archive-ingestion");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.inFlight = new Semaphore(maxInFlight);
+        this.maxEntryBytes = maxEntrySize.toBytes();
+        this.maxEntries = maxEntries;
+    }
+
+    public ArchiveIngestionResult ingest(InputStream body, UUID parentFolderId, String userId, String uploadId) {
+        S3Folder root = parentFolderFetcherService.getParentFolder(parentFolderId);
+        IngestionUpload upload = progressPublisher.startUpload(userId, uploadId, null);
+        Map<String, S3Folder> folders = new HashMap<>();
+        folders.put("", root);
+        Map<String, String> failed = new ConcurrentSkipListMap<>();
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger deduplicated = new AtomicInteger();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        int entries = 0;
+        String error = null;
+
+        try (ArchiveInputStream<? extends ArchiveEntry> archive = open(body)) {
+            ArchiveEntry entry;
+            while ((entry = archive.getNextEntry()) != null) {
+                if (++entries > maxEntries) {
+                    throw new IllegalArgumentException("Archive has more than %d entries".formatted(maxEntries));
+                }
+
+                List<String> path = normalize(entry.getName());
+                if (path.isEmpty() || isHidden(path)) {
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    resolveFolder(path, folders);
+                    continue;
+                }
+
+                String entryName = String.join("/", path);
+                if (!archive.canReadEntryData(entry) || entry.getSize() > maxEntryBytes) {
+                    failed.put(entryName, "unreadable or larger than %d bytes".formatted(maxEntryBytes));
+                    continue;
+                }
+
+                S3Folder folder = resolveFolder(path.subList(0, path.size() - 1), folders);
+                byte[] content = readEntry(archive);
+                if (content == null) {
+                    failed.put(entryName, "larger than %d bytes".formatted(maxEntryBytes));
+                    continue;
+                }
+
+                ArchiveEntryFile file = new ArchiveEntryFile(path.get(path.size() - 1), tika.detect(content, entryName), content);
+                acquireSlot();
+                pending.add(CompletableFuture.runAsync(() -> {
+                    IngestionProgress progress = upload.file(entryName);
+                    try {
+                        S3Document document = createDocument(file, folder, userId, progress);
+                        created.incrementAndGet();
+                        // new contents report DONE from the outbox once they are embedded
+                        if (document.isDeduplicated()) {
+                            deduplicated.incrementAndGet();
+                            progress.stage(IngestionStage.DONE);
+                        }
+                    } catch (Exception e) {
+                        log.warn("Failed importing archive entry {}: {}.", entryName, e.getMessage());
+                        progress.failed(e.getMessage());
+                        failed.put(entryName, String.valueOf(e.getMessage()));
+                    } finally {
+                        inFlight.release();
+                    }
+                }, workers));
+            }
+        } catch (IOException | ArchiveException e) {
+            error = "Failed reading archive: " + e.getMessage();
+            throw new IllegalArgumentException(error, e);
+        } catch (RuntimeException e) {
+            error = e.getMessage();
+            throw e;
+        } finally {
+            // entries already handed to workers are finished even when reading failed half way
+            CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+            upload.complete(error);
+        }
+
+        log.info("Imported archive into folder {}: {} entries, {} documents ({} deduplicated), {} failed.",
+                root.getId(), entries, created.get(), deduplicated.get(), failed.size());
+
+        return new ArchiveIngestionResult(entries, folders.size() - 1, created.get(), deduplicated.get(), failed);
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Identical files inside one archive race for the same content hash, the loser retries and is deduplicated.
+     */
+    private S3Document createDocument(ArchiveEntryFile file, S3Folder folder, String userId, IngestionProgress progress) {
+        try {
+            return documentService.createNewDocument(file, folder, userId, progress);
+        } catch (DataIntegrityViolationException e) {
+            return documentService.createNewDocument(file, folder, userId, progress);
+        }
+    }
+
+    private S3Folder resolveFolder(List<String> path, Map<String, S3Folder> folders) {
+        S3Folder current = folders.get("");
+        for (int i = 0; i < path.size(); i++) {
+            S3Folder parent = current;
+            String name = path.get(i);
+            current = folders.computeIfAbsent(String.join("/", path.subList(0, i + 1)),
+                    key -> folderService.findOrCreateChildFolder(parent, name));
+        }
+
+        return current;
+    }
+
+    /**
+     * @return entry bytes, null when the entry turns out larger than the limit (sizes in headers are optional)
+     */
+    private byte[] readEntry(InputStream archive) throws IOException {
+        byte[] content = IOUtils.toByteArray(new BoundedInputStream(archive, maxEntryBytes + 1));
+
+        return content.length > maxEntryBytes ? null : content;
+    }
+
+    private void acquireSlot() {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Archive import interrupted", e);
+        }
+    }
+
+    private static ArchiveInputStream<? extends ArchiveEntry> open(InputStream body) throws ArchiveException {
+        InputStream in = new BufferedInputStream(body);
+        try {
+            String compression = CompressorStreamFactory.detect(in);
+            in = new BufferedInputStream(new CompressorStreamFactory().createCompressorInputStream(compression, in));
+        } catch (CompressorException e) {
+            // not compressed, plain archive
+        }
+
+        return new ArchiveStreamFactory().createArchiveInputStream(in);
+    }
+
+    /**
+     * Path segments of an entry name, {@code .} / {@code ..} / empty segments dropped so entries can't escape the target folder.
+     */
+    private static List<String> normalize(String entryName) {
+        return Arrays.stream(entryName.replace('\\', '/').split("/"))
+                .filter(segment -> !segment.isBlank() && !segment.equals(".") && !segment.equals(".."))
+                .toList();
+    }
+
+    private static boolean isHidden(List<String> path) {
+        return path.stream().anyMatch(segment -> segment.startsWith(".") || segment.equals("__MACOSX"));
+    }
+
+}
@@ -0,0 +1,78 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.enums.IngestionStage;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embeds and stores the chunks of one document as sections arrive, possibly from several chunker threads.
+ * The previous chunks of the document are removed right before the first write, so a file that yields
+ * no text keeps its old embeddings.
+ */
+class ChunkWriter {
+
+    private final VectorStore store;
+
+    private final Runnable deleteExisting;
+
+    private final int batchSize;
+
+    private final IngestionProgress progress;
+
+    private final AtomicInteger produced = new AtomicInteger();
+
+    private final AtomicInteger stored = new AtomicInteger();
+
+    private volatile boolean started;
+
+    ChunkWriter(VectorStore store, Runnable deleteExisting, int batchSize, IngestionProgress progress) {
+        this.store = store;
+        this.deleteExisting = deleteExisting;
+        this.batchSize = Math.max(1, batchSize);
+        this.progress = progress;
+    }
+
+    void write(List<Document> chunks) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+
+        int total = produced.addAndGet(chunks.size());
+        progress.progress(IngestionStage.CHUNKED, total, total);
+        start();
+
+        for (int from = 0; from < chunks.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, chunks.size());
+            store.add(chunks.subList(from, to));
+            progress.progress(IngestionStage.EMBEDDED, stored.addAndGet(to - from), produced.get());
+        }
+    }
+
+    /**
+     * Drops whatever part of the document was written, used when ingestion fails halfway.
+     */
+    void discard() {
+        if (started) {
+            deleteExisting.run();
+        }
+    }
+
+    int getStored() {
+        return stored.get();
+    }
+
+    private void start() {
+        if (!started) {
+            synchronized (this) {
+                if (!started) {
+                    deleteExisting.run();
+                    started = true;
+                }
+            }
+        }
+    }
+
+}
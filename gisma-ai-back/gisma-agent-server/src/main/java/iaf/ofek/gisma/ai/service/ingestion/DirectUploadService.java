@@ -0,0 +1,153 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.dto.ingestion.DirectUploadTicket;
+import iaf.ofek.gisma.ai.dto.ingestion.FinalizeUploadDTO;
+import iaf.ofek.gisma.ai.dto.ingestion.PresignUploadDTO;
+import iaf.ofek.gisma.ai.entity.ingestion.S3Document;
+import iaf.ofek.gisma.ai.enums.IngestionStage;
+import iaf.ofek.gisma.ai.repository.S3ContentRepository;
+import iaf.ofek.gisma.ai.service.storage.DirectUploadStore;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Uploads that skip the server: the client announces the file (size, SHA-256), gets a presigned request,
+ * sends the bytes straight to storage and then finalizes. Storage verifies the bytes against the announced hash,
+ * so finalizing is a metadata check, the server never reads the file until the outbox streams it into ingestion.
+ * Content already stored under the hash is not uploaded at all. Uploads that are never finalized are removed
+ * by the orphan collector.
+ */
+@Service
+@Log4j2
+public class DirectUploadService {
+
+    private static final String KEY_PREFIX = "uploads/";
+
+    private static final Pattern SHA256 = Pattern.compile("^[0-9a-fA-F]{64}$");
+
+    private final ObjectProvider<DirectUploadStore> directUploadStore;
+
+    private final S3ContentRepository s3ContentRepository;
+
+    private final DocumentService documentService;
+
+    private final IngestionProgressPublisher progressPublisher;
+
+    private final Duration ttl;
+
+    private final long maxSize;
+
+    public DirectUploadService(ObjectProvider<DirectUploadStore> directUploadStore,
+                               S3ContentRepository s3ContentRepository, DocumentService documentService,
+                               IngestionProgressPublisher progressPublisher,
+                               @Value("${sa.ingestion.presigned.ttl:PT15M}") Duration ttl,
+                               @Value("${sa.ingestion.presigned.max-size:1GB}") DataSize maxSize) {
+        this.directUploadStore = directUploadStore;
+        this.s3ContentRepository = s3ContentRepository;
+        this.documentService = documentService;
+        this.progressPublisher = progressPublisher;
+        this.ttl = ttl;
+        this.maxSize = maxSize.toBytes();
+    }
+
+    public DirectUploadTicket presign(PresignUploadDTO request, String userId) {
+        String sha256 = validate(request.getFilename(), request.getContentType(), request.getSize(), request.getSha256());
+
+        if (s3ContentRepository.existsBySha256(sha256)) {
+            return new DirectUploadTicket(null, null, true);
+        }
+
+        String key = "%s%s/%s/%s".formatted(KEY_PREFIX, userId, UUID.randomUUID(), safeName(request.getFilename()));
+
+        return new DirectUploadTicket(key, store().presignUpload(key, request.getContentType(), request.getSize(),
+                sha256, ttl), false);
+    }
+
+    /**
+     * Creates the document once the upload is verified, progress is reported like for a multipart upload.
+     */
+    public S3Document finalizeUpload(FinalizeUploadDTO request, String userId, String uploadId) {
+        String sha256 = validate(request.getFilename(), request.getContentType(), request.getSize(), request.getSha256());
+        IngestionUpload upload = progressPublisher.startUpload(userId, uploadId, 1);
+        IngestionProgress progress = upload.file(request.getFilename());
+
+        try {
+            String url = null;
+            if (request.getUploadKey() != null) {
+                if (!request.getUploadKey().startsWith(KEY_PREFIX + userId + "/")) {
+                    throw new IllegalArgumentException("Upload key doesn't belong to the user");
+                }
+                url = store().verifyUpload(request.getUploadKey(), request.getSize(), sha256)
+                        .orElseThrow(() -> new IllegalArgumentException("File was not uploaded or doesn't match its size / SHA-256"));
+                progress.stage(IngestionStage.UPLOADED);
+            } else if (!s3ContentRepository.existsBySha256(sha256)) {
+                throw new IllegalArgumentException("Content is not stored, upload the file first");
+            }
+
+            S3Document created = documentService.createUploadedDocument(request.getFilename(), request.getContentType(),
+                    sha256, url, request.getParentFolderId(), userId, progress);
+            // new contents report DONE from the outbox once they are embedded
+            if (created.isDeduplicated()) {
+                progress.stage(IngestionStage.DONE);
+            }
+            upload.complete(null);
+
+            return created;
+        } catch (RuntimeException e) {
+            progress.failed(e.getMessage());
+            upload.complete(e.getMessage());
+            throw e;
+        }
+    }
+
+    private DirectUploadStore store() {
+        DirectUploadStore store = directUploadStore.getIfAvailable();
+        if (store == null) {
+            throw new IllegalArgumentException("Direct uploads are not supported by the configured blob store");
+        }
+
+        return store;
+    }
+
+    /**
+     * Bean validation isn't wired for these DTOs, checked here before anything reaches storage.
+     *
+     * @return the SHA-256 in lower case
+     */
+    private String validate(String filename, String contentType, Long size, String sha256) {
+        if (filename == null || filename.isBlank()) {
+            throw new IllegalArgumentException("filename can't be blank");
+        }
+        if (contentType == null || contentType.isBlank()) {
+            throw new IllegalArgumentException("contentType can't be blank");
+        }
+        DocumentService.validateContentType(contentType);
+        if (size == null || size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        if (size > maxSize) {
+            throw new IllegalArgumentException("File is larger than %d bytes".formatted(maxSize));
+        }
+        if (sha256 == null || !SHA256.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("sha256 must be a hex SHA-256");
+        }
+
+        return sha256.toLowerCase(Locale.ROOT);
+    }
+
+    private static String safeName(String filename) {
+        String name = FilenameUtils.getName(filename).replaceAll("[^A-Za-z0-9._-]", "_");
+
+        return name.isBlank() ? "file" : name;
+    }
+
+}
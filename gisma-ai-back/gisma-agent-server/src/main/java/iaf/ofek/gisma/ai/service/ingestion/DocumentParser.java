@@ -0,0 +1,268 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.dto.ingestion.DocumentSection;
+import iaf.ofek.gisma.ai.dto.ingestion.ParsedDocument;
+import iaf.ofek.gisma.ai.exception.ParserUnavailableException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.exception.WriteLimitReachedException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Component;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs Tika on a dedicated, bounded pool of low priority daemon threads, so parsing never runs on request,
+ * websocket or reactor threads and a burst of uploads can't take more than {@code parallelism} cores from chat.
+ * <ul>
+ *     <li>callers wait for one of the {@code parallelism} slots before their parse is submitted, up to
+ *     {@code queue-capacity} of them for at most {@code queue-timeout}, so the pool never queues work</li>
+ *     <li>every parse has a timeout counted from the moment it got a slot, the caller gets a
+ *     {@link ParserUnavailableException} and the worker is abandoned</li>
+ *     <li>text is handed out as {@link DocumentSection}s while it is extracted, see {@link SectionContentHandler}</li>
+ *     <li>extracted text is capped at {@code max-text-length} characters, longer documents are truncated</li>
+ *     <li>the pool is recycled (replaced by a fresh one) after a timeout, so a hung parser no longer holds a thread
+ *     of the pool, and after {@code max-parses-per-pool} parses, which drops parser thread locals and caches.
+ *     Parses still running on the old pool finish there and keep their slots</li>
+ * </ul>
+ * Parse latency is exported per content type and outcome as the {@code ingestion.parse} timer.
+ */
+@Component
+@Log4j2
+public class DocumentParser implements DisposableBean {
+
+    private static final String OUTCOME_SUCCESS = "success";
+    private static final String OUTCOME_TRUNCATED = "truncated";
+    private static final String OUTCOME_TIMEOUT = "timeout";
+    private static final String OUTCOME_ERROR = "error";
+    private static final String OUTCOME_REJECTED = "rejected";
+
+    private static final String UNKNOWN_CONTENT_TYPE = "unknown";
+
+    private final AutoDetectParser parser = new AutoDetectParser();
+
+    private final MeterRegistry meterRegistry;
+
+    private final int parallelism;
+
+    private final Semaphore admission;
+
+    private final Semaphore slots;
+
+    private final Duration timeout;
+
+    private final Duration queueTimeout;
+
+    private final int maxTextLength;
+
+    private final int minSectionChars;
+
+    private final int maxSectionChars;
+
+    private final int maxParsesPerPool;
+
+    private final AtomicReference<ExecutorService> pool = new AtomicReference<>();
+
+    private final AtomicInteger parsesOnPool = new AtomicInteger();
+
+    private final AtomicInteger poolGeneration = new AtomicInteger();
+
+    public DocumentParser(MeterRegistry meterRegistry,
+                          @Value("${sa.ingestion.parser.parallelism:2}") int parallelism,
+                          @Value("${sa.ingestion.parser.queue-capacity:32}") int queueCapacity,
+                          @Value("${sa.ingestion.parser.timeout:PT2M}") Duration timeout,
+                          @Value("${sa.ingestion.parser.queue-timeout:PT5M}") Duration queueTimeout,
+                          @Value("${sa.ingestion.parser.max-text-length:1000000}") int maxTextLength,
+                          @Value("${sa.ingestion.parser.max-parses-per-pool:500}") int maxParsesPerPool,
+                          @Value("${sa.ingestion.parser.min-section-chars:2000}") int minSectionChars,
+                          @Value("${sa.ingestion.parser.max-section-chars:32000}") int maxSectionChars) {
+        this.meterRegistry = meterRegistry;
+        this.parallelism = Math.max(1, parallelism);
+        this.admission = new Semaphore(this.parallelism + Math.max(0, queueCapacity));
+        this.slots = new Semaphore(this.parallelism);
+        this.timeout = timeout;
+        this.queueTimeout = queueTimeout;
+        this.maxTextLength = maxTextLength;
+        this.maxParsesPerPool = maxParsesPerPool;
+        this.minSectionChars = minSectionChars;
+        this.maxSectionChars = maxSectionChars;
+        this.pool.set(newPool());
+    }
+
+    /**
+     * Blocks until the document is parsed. The stream is opened, its type detected (magic bytes + file name)
+     * and parsed on the parser thread, {@code sectionsFor} is called once with the detected content type and the
+     * returned consumer gets the sections as they complete. It should hand them off rather than do heavy work itself,
+     * the parse timeout covers its time as well.
+     * Container formats (OOXML, ODF) may be spooled to a temp file by Tika, nothing is buffered in memory.
+     *
+     * @throws TikaException the document can't be parsed
+     * @throws IOException reading the stream failed
+     * @throws ParserUnavailableException the pool was busy or the parse timed out, may succeed later
+     */
+    public ParsedDocument parse(InputStreamSource source, String filename,
+                                Function<String, Consumer<DocumentSection>> sectionsFor) throws IOException, TikaException {
+        AtomicReference<String> contentType = new AtomicReference<>(UNKNOWN_CONTENT_TYPE);
+        long start = System.nanoTime();
+
+        if (!acquire(admission, queueTimeout.toNanos())) {
+            record(contentType.get(), OUTCOME_REJECTED, start);
+            throw new ParserUnavailableException("Parser pool busy, %s was not parsed".formatted(filename));
+        }
+        if (!acquire(slots, queueTimeout.toNanos() - (System.nanoTime() - start))) {
+            admission.release();
+            record(contentType.get(), OUTCOME_REJECTED, start);
+            throw new ParserUnavailableException("Parser pool busy, %s was not parsed".formatted(filename));
+        }
+
+        ExecutorService executor = pool.get();
+        Future<ParsedDocument> parse;
+        try {
+            parse = executor.submit(() -> doParse(source, filename, contentType, sectionsFor));
+        } catch (RuntimeException e) {
+            slots.release();
+            admission.release();
+            throw new ParserUnavailableException("Failed scheduling parse of " + filename, e);
+        }
+
+        try {
+            ParsedDocument parsed = parse.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            record(contentType.get(), parsed.truncated() ? OUTCOME_TRUNCATED : OUTCOME_SUCCESS, start);
+            return parsed;
+        } catch (TimeoutException e) {
+            parse.cancel(true);
+            record(contentType.get(), OUTCOME_TIMEOUT, start);
+            recycle(executor, "parse of %s timed out".formatted(filename));
+            throw new ParserUnavailableException("Parsing %s timed out after %s".formatted(filename, timeout));
+        } catch (ExecutionException e) {
+            record(contentType.get(), OUTCOME_ERROR, start);
+            if (e.getCause() instanceof TikaException tikaException) {
+                throw tikaException;
+            }
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            // e.g. the blob store failing to open the stream
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Failed parsing " + filename, e.getCause());
+        } catch (InterruptedException e) {
+            parse.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ParserUnavailableException("Interrupted while parsing " + filename, e);
+        } finally {
+            // a timed out parse gave up its thread with the recycle, its slot is free again
+            slots.release();
+            admission.release();
+            if (parsesOnPool.incrementAndGet() >= maxParsesPerPool) {
+                recycle(executor, "%d parses".formatted(maxParsesPerPool));
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        pool.get().shutdownNow();
+    }
+
+    private ParsedDocument doParse(InputStreamSource source, String filename, AtomicReference<String> contentType,
+                                   Function<String, Consumer<DocumentSection>> sectionsFor) throws IOException, TikaException {
+        Metadata metadata = metadata(filename);
+        boolean truncated = false;
+
+        try (TikaInputStream inputStream = TikaInputStream.get(source.getInputStream())) {
+            contentType.set(parser.getDetector().detect(inputStream, metadata).getBaseType().toString());
+            SectionContentHandler handler = new SectionContentHandler(sectionsFor.apply(contentType.get()),
+                    minSectionChars, maxSectionChars, maxTextLength);
+
+            try {
+                parser.parse(inputStream, new BodyContentHandler(handler), metadata, new ParseContext());
+            } catch (SAXException | TikaException e) {
+                if (!WriteLimitReachedException.isWriteLimitReached(e)) {
+                    throw e instanceof TikaException tikaException ? tikaException : new TikaException("Failed extracting text", e);
+                }
+                truncated = true;
+                log.warn("Extracted text of {} truncated at {} characters.", filename, maxTextLength);
+            }
+
+            return new ParsedDocument(contentType.get(), handler.getCharacters(), handler.getSectionCount(), truncated);
+        }
+    }
+
+    private static Metadata metadata(String filename) {
+        Metadata metadata = new Metadata();
+        metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, filename);
+        return metadata;
+    }
+
+    /**
+     * Swaps in a fresh pool, only the caller that still sees the old pool does it. Running parses of the old
+     * pool finish (or hang) on their own daemon threads, outside of the admission limit.
+     */
+    private void recycle(ExecutorService executor, String reason) {
+        ExecutorService fresh = newPool();
+        if (pool.compareAndSet(executor, fresh)) {
+            parsesOnPool.set(0);
+            executor.shutdown();
+            log.info("Recycled parser pool after {}.", reason);
+        } else {
+            fresh.shutdown();
+        }
+    }
+
+    private ExecutorService newPool() {
+        int generation = poolGeneration.incrementAndGet();
+        AtomicInteger threads = new AtomicInteger();
+
+        return new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "tika-parser-%d-%d".formatted(generation, threads.incrementAndGet()));
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    private static boolean acquire(Semaphore semaphore, long timeoutNanos) {
+        try {
+            return semaphore.tryAcquire(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void record(String contentType, String outcome, long startNanos) {
+        Timer.builder("ingestion.parse")
+                .tag("contentType", contentType)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+}
@@ -2,6 +2,7 @@ package iaf.ofek.gisma.ai.service.ingestion;
 
 import iaf.ofek.gisma.ai.dto.ingestion.CreateDocumentDTO;
 import iaf.ofek.gisma.ai.entity.ingestion.S3Document;
+import iaf.ofek.gisma.ai.enums.IngestionStage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
@@ -17,16 +18,45 @@ public class DocumentProcessor {
 
     private final DocumentService documentService;
 
-    public List<S3Document> saveNewDocuments(List<MultipartFile> files, UUID parentFolderId, String userId) {
+    private final IngestionProgressPublisher progressPublisher;
+
+    public List<S3Document> saveNewDocuments(List<MultipartFile> files, UUID parentFolderId, String userId, String uploadId) {
         List<CreateDocumentDTO> documents = files.stream()
                 .map(file -> new CreateDocumentDTO(parentFolderId, file))
                 .toList();
+        IngestionUpload upload = progressPublisher.startUpload(userId, uploadId, files.size());
+
+        try {
+            List<S3Document> created = documentService.createNewDocuments(documents, userId, upload);
+            upload.complete(null);
+            return created;
+        } catch (RuntimeException e) {
+            upload.complete(e.getMessage());
+            throw e;
+        }
+    }
+
+    public S3Document editDocument(MultipartFile file, UUID documentId, String userId, String uploadId) {
+        IngestionUpload upload = progressPublisher.startUpload(userId, uploadId, 1);
+        IngestionProgress progress = upload.file(file.getOriginalFilename());
 
-        return documentService.createNewDocuments(documents, userId);
+        try {
+            S3Document edited = documentService.editDocument(file, documentId, userId, progress);
+            // new contents report DONE from the outbox once they are embedded
+            if (edited.isDeduplicated()) {
+                progress.stage(IngestionStage.DONE);
+            }
+            upload.complete(null);
+            return edited;
+        } catch (RuntimeException e) {
+            progress.failed(e.getMessage());
+            upload.complete(e.getMessage());
+            throw e;
+        }
     }
 
-    public S3Document editDocument(MultipartFile file, UUID documentId, String userId) {
-        return documentService.editDocument(file, documentId, userId);
+    public S3Document getDocument(UUID documentId) {
+        return documentService.getDocument(documentId);
     }
 
     public void deleteDocuments(List<UUID> ids) {
@@ -1,111 +1,348 @@
 package iaf.ofek.gisma.ai.service.ingestion;
 
 import iaf.ofek.gisma.ai.dto.ingestion.CreateDocumentDTO;
+import iaf.ofek.gisma.ai.entity.ingestion.S3Content;
 import iaf.ofek.gisma.ai.entity.ingestion.S3Document;
+import iaf.ofek.gisma.ai.entity.ingestion.S3Folder;
+import iaf.ofek.gisma.ai.enums.IngestionStage;
+import iaf.ofek.gisma.ai.repository.S3ContentRepository;
 import iaf.ofek.gisma.ai.repository.S3DocumentRepository;
+import iaf.ofek.gisma.ai.repository.UserS3DocumentRepository;
+import iaf.ofek.gisma.ai.service.storage.BlobStore;
+import iaf.ofek.gisma.ai.util.HashUtils;
 import jakarta.persistence.EntityNotFoundException;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
+/**
+ * Document metadata is written in short transactions: hashing and the blob upload happen before, embedding,
+ * chunk metadata updates and deletes of released contents after commit, through the {@link IngestionOutbox}.
+ */
 @Service
-@RequiredArgsConstructor
 @Log4j2
 public class DocumentService {
 
+    private static final Set<String> ALLOWED_TYPES = Set.of(
+            "application/pdf",
+            "text/plain",
+            "application/msword",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.oasis.opendocument.text"
+    );
+
     private final S3DocumentRepository s3DocumentRepository;
 
     private final ParentFolderFetcherService parentFolderFetcherService;
 
-    private final IngestionService ingestionService;
+    private final BlobStore blobStore;
 
-    private final S3Service s3Service;
+    private final S3ContentRepository s3ContentRepository;
 
-    @Transactional
-    public List<S3Document> createNewDocuments(List<CreateDocumentDTO> documents, String userId) {
-        return documents.stream()
-                .map(document -> {
-                    validateFile(document.getFile());
-
-                    try {
-                        return createNewDocument(document, userId);
-                    } catch (Exception e) {
-                        log.warn("Failed processing files: {}.", e.getMessage());
-                        throw new IllegalArgumentException("Failed processing files, try again...");
-                    }
-                })
-                .toList();
+    private final UserS3DocumentRepository userS3DocumentRepository;
+
+    private final IngestionOutbox ingestionOutbox;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public DocumentService(S3DocumentRepository s3DocumentRepository, ParentFolderFetcherService parentFolderFetcherService,
+                           BlobStore blobStore, S3ContentRepository s3ContentRepository,
+                           UserS3DocumentRepository userS3DocumentRepository, IngestionOutbox ingestionOutbox,
+                           PlatformTransactionManager transactionManager) {
+        this.s3DocumentRepository = s3DocumentRepository;
+        this.parentFolderFetcherService = parentFolderFetcherService;
+        this.blobStore = blobStore;
+        this.s3ContentRepository = s3ContentRepository;
+        this.userS3DocumentRepository = userS3DocumentRepository;
+        this.ingestionOutbox = ingestionOutbox;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public S3Document getDocument(UUID documentId) {
+        return s3DocumentRepository.findById(documentId)
+                .orElseThrow(() -> new EntityNotFoundException("Document with id: `%s` not found".formatted(documentId)));
+    }
+
+    /**
+     * All documents are written in one transaction, a failure rolls back the whole upload.
+     */
+    public List<S3Document> createNewDocuments(List<CreateDocumentDTO> documents, String userId, IngestionUpload upload) {
+        documents.forEach(document -> validateFile(document.getFile()));
+        List<StagedFile> staged = new ArrayList<>();
+
+        try {
+            documents.forEach(document -> staged.add(stage(document.getFile(),
+                    upload.file(document.getFile().getOriginalFilename()))));
+
+            List<S3Document> created = transactionTemplate.execute(status -> {
+                List<S3Document> saved = new ArrayList<>();
+                for (int i = 0; i < documents.size(); i++) {
+                    var parentFolder = parentFolderFetcherService.getParentFolder(documents.get(i).getParentFolderId());
+                    saved.add(createNewDocument(parentFolder, staged.get(i), userId));
+                }
+                return saved;
+            });
+
+            for (int i = 0; i < created.size(); i++) {
+                if (created.get(i).isDeduplicated()) {
+                    staged.get(i).progress().stage(IngestionStage.DONE);
+                }
+            }
+
+            return created;
+        } catch (Exception e) {
+            discard(staged);
+            staged.forEach(file -> file.progress().failed(e.getMessage()));
+            log.warn("Failed processing files: {}.", e.getMessage());
+            throw new IllegalArgumentException("Failed processing files, try again...");
+        }
     }
 
     @Transactional
     public void deleteDocuments(List<UUID> documentIds) {
         List<S3Document> documents = s3DocumentRepository.findAllById(documentIds);
         s3DocumentRepository.deleteAll(documents);
-        documents.forEach(documentEntity -> {
-            ingestionService.deleteDocument(documentEntity);
-            s3Service.deleteFile(documentEntity.getUrl());
-        });
+        s3DocumentRepository.flush();
+
+        Map<UUID, Long> releasedReferences = documents.stream()
+                .collect(Collectors.groupingBy(document -> document.getContent().getId(), Collectors.counting()));
+        releaseContents(releasedReferences);
     }
 
-    @Transactional
-    public S3Document editDocument(MultipartFile file, UUID documentId, String userId) {
+    public S3Document editDocument(MultipartFile file, UUID documentId, String userId, IngestionProgress progress) {
         validateFile(file);
+        StagedFile staged = stage(file, progress);
 
-        var documentEntity = s3DocumentRepository.findById(documentId)
-                .orElseThrow(() -> new EntityNotFoundException("Document with id: `%s` not found".formatted(documentId)));
-        s3Service.deleteFile(documentEntity.getUrl());
-        String url = s3Service.uploadFile(file);
-        documentEntity.setUrl(url);
-        documentEntity.setName(file.getOriginalFilename());
-        documentEntity.setContentType(file.getContentType());
-        ingestionService.deleteDocument(documentEntity);
-        ingestionService.ingestToVectorStore(file, documentEntity, userId);
+        try {
+            return transactionTemplate.execute(status -> {
+                var documentEntity = s3DocumentRepository.findById(documentId)
+                        .orElseThrow(() -> new EntityNotFoundException("Document with id: `%s` not found".formatted(documentId)));
+                S3Content previousContent = documentEntity.getContent();
+                documentEntity.setName(file.getOriginalFilename());
+                documentEntity.setContentType(file.getContentType());
+
+                if (staged.sha256().equals(previousContent.getSha256())) {
+                    documentEntity.setDeduplicated(true);
+                    dropUnusedUpload(staged);
+                    return s3DocumentRepository.save(documentEntity);
+                }
+
+                S3Document edited = attachContent(documentEntity, staged, userId);
+                releaseContents(Map.of(previousContent.getId(), 1L));
 
-        return s3DocumentRepository.save(documentEntity);
+                return edited;
+            });
+        } catch (RuntimeException e) {
+            discard(List.of(staged));
+            throw e;
+        }
     }
 
-    private S3Document createNewDocument(CreateDocumentDTO document, String userId) {
-        var file = document.getFile();
-        var parentFolder = parentFolderFetcherService.getParentFolder(document.getParentFolderId());
+    /**
+     * Single document in its own transaction, used by bulk imports where one bad file must not roll back the others.
+     */
+    public S3Document createNewDocument(MultipartFile file, S3Folder parentFolder, String userId, IngestionProgress progress) {
+        validateFile(file);
+        StagedFile staged = stage(file, progress);
+
+        try {
+            return transactionTemplate.execute(status -> createNewDocument(parentFolder, staged, userId));
+        } catch (RuntimeException e) {
+            discard(List.of(staged));
+            throw e;
+        }
+    }
+
+    /**
+     * Document of a file the client uploaded straight to storage, see {@link DirectUploadService}.
+     *
+     * @param url verified upload, null when the content was already stored and nothing was uploaded
+     */
+    public S3Document createUploadedDocument(String filename, String contentType, String sha256, String url,
+                                             UUID parentFolderId, String userId, IngestionProgress progress) {
+        validateContentType(contentType);
+        StagedFile staged = new StagedFile(filename, contentType, null, sha256, url, progress);
+
+        try {
+            return transactionTemplate.execute(status -> createNewDocument(
+                    parentFolderFetcherService.getParentFolder(parentFolderId), staged, userId));
+        } catch (RuntimeException e) {
+            discard(List.of(staged));
+            throw e;
+        }
+    }
+
+    private S3Document createNewDocument(S3Folder parentFolder, StagedFile staged, String userId) {
         S3Document s3Document = S3Document.builder()
-                .name(file.getOriginalFilename())
-                .contentType(file.getContentType())
+                .name(staged.filename())
+                .contentType(staged.contentType())
                 .parentFolder(parentFolder)
                 .build();
-        s3Document = s3DocumentRepository.save(s3Document);
-        ingestionService.ingestToVectorStore(file, s3Document, userId);
-        String url = s3Service.uploadFile(file);
+
+        return attachContent(s3Document, staged, userId);
+    }
+
+    /**
+     * Hashes the file and uploads it unless its content is already stored, outside of any transaction.
+     */
+    private StagedFile stage(MultipartFile file, IngestionProgress progress) {
+        String sha256 = sha256(file);
+        if (s3ContentRepository.existsBySha256(sha256)) {
+            return new StagedFile(file.getOriginalFilename(), file.getContentType(), file, sha256, null, progress);
+        }
+
+        String url = blobStore.put(file);
+        progress.stage(IngestionStage.UPLOADED);
+
+        return new StagedFile(file.getOriginalFilename(), file.getContentType(), file, sha256, url, progress);
+    }
+
+    /**
+     * Points the document at the stored content with the same hash, only the folder metadata of its chunks
+     * is widened. Unknown content is queued to be parsed and embedded once.
+     */
+    private S3Document attachContent(S3Document s3Document, StagedFile staged, String userId) {
+        var existingContent = s3ContentRepository.findBySha256(staged.sha256());
+
+        if (existingContent.isPresent()) {
+            S3Content content = existingContent.get();
+            content.setRefCount(content.getRefCount() + 1);
+            s3Document.setContent(content);
+            s3Document.setUrl(content.getUrl());
+            s3Document.setDeduplicated(true);
+            s3Document = s3DocumentRepository.save(s3Document);
+            ingestionOutbox.refreshFolderMetadata(content.getId());
+            dropUnusedUpload(staged);
+            log.info("File {} matches stored content {}, skipped ingestion.", staged.filename(), content.getId());
+            staged.progress().stage(IngestionStage.DEDUPLICATED);
+
+            return s3Document;
+        }
+
+        String url = stagedUrl(staged);
+        S3Content content = s3ContentRepository.save(S3Content.builder()
+                .sha256(staged.sha256())
+                .url(url)
+                .contentType(staged.contentType())
+                .refCount(1)
+                .build());
+        s3Document.setContent(content);
         s3Document.setUrl(url);
+        s3Document.setDeduplicated(false);
+        s3Document = s3DocumentRepository.save(s3Document);
+        ingestionOutbox.ingestContent(content.getId(), url, staged.filename(), userId, staged.progress());
 
         return s3Document;
     }
 
+    /**
+     * Url of the staged bytes. When the content known while staging was released in the meantime the file is uploaded
+     * now, a client that uploaded directly has to send it again.
+     */
+    private String stagedUrl(StagedFile staged) {
+        if (staged.url() != null) {
+            return staged.url();
+        }
+        if (staged.file() == null) {
+            throw new IllegalArgumentException("Stored content of %s was deleted, upload the file again".formatted(staged.filename()));
+        }
+
+        return blobStore.put(staged.file());
+    }
+
+    /**
+     * Drops references to shared contents, the chunks and S3 object of a content go with its last reference.
+     * Contents still referenced get their folder metadata narrowed to the remaining documents.
+     */
+    private void releaseContents(Map<UUID, Long> releasedReferences) {
+        releasedReferences.forEach((contentId, released) -> s3ContentRepository.findByIdForUpdate(contentId)
+                .ifPresent(content -> {
+                    content.setRefCount((int) Math.max(0, content.getRefCount() - released));
+                    if (content.getRefCount() > 0) {
+                        ingestionOutbox.refreshFolderMetadata(contentId);
+                        return;
+                    }
+
+                    s3ContentRepository.delete(content);
+                    ingestionOutbox.deleteContent(contentId, content.getUrl());
+                }));
+    }
 
-    private void validateFile(MultipartFile file) {
-        Set<String> allowedTypes = Set.of(
-                "application/pdf",
-                "text/plain",
-                "application/msword",
-                "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
-                "application/vnd.openxmlformats-officedocument.presentationml.presentation",
-                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
-                "application/vnd.oasis.opendocument.text"
-        );
+    /**
+     * An upload that lost the race to identical content uploaded concurrently, removed once the transaction commits.
+     */
+    private void dropUnusedUpload(StagedFile staged) {
+        if (staged.url() != null) {
+            ingestionOutbox.deleteContent(null, staged.url());
+        }
+    }
 
+    /**
+     * Removes uploads of a transaction that rolled back, whatever fails here is left for the orphan collector.
+     * Content addressed stores hand out the url of an existing blob for identical bytes, urls a committed
+     * content or private document points to stay.
+     */
+    private void discard(List<StagedFile> staged) {
+        List<String> urls = staged.stream()
+                .map(StagedFile::url)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (urls.isEmpty()) {
+            return;
+        }
+
+        Set<String> referenced = new HashSet<>(s3ContentRepository.findExistingUrls(urls));
+        referenced.addAll(userS3DocumentRepository.findExistingUrls(urls));
+        urls.stream()
+                .filter(url -> !referenced.contains(url))
+                .forEach(blobStore::delete);
+    }
+
+    private static String sha256(MultipartFile file) {
+        try (InputStream inputStream = file.getInputStream()) {
+            return HashUtils.sha256Hex(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed hashing file " + file.getOriginalFilename(), e);
+        }
+    }
+
+    static void validateFile(MultipartFile file) {
         if (file.isEmpty() || file.getContentType() == null) {
             throw new IllegalArgumentException("Uploaded file is empty");
         }
 
-        if (!allowedTypes.contains(file.getContentType())) {
+        validateContentType(file.getContentType());
+    }
+
+    static void validateContentType(String contentType) {
+        if (!ALLOWED_TYPES.contains(contentType)) {
             throw new IllegalArgumentException("Uploaded file contentType is not supported");
         }
-
     }
 
+    /**
+     * @param file null for files the client uploaded directly
+     * @param url  upload made while staging, null when the content was already stored
+     */
+    private record StagedFile(String filename, String contentType, MultipartFile file, String sha256, String url,
+                              IngestionProgress progress) {}
+
 }
@@ -1,11 +1,15 @@
 package iaf.ofek.gisma.ai.service.ingestion;
 
 import iaf.ofek.gisma.ai.dto.ingestion.CreateFolderDTO;
+import iaf.ofek.gisma.ai.dto.ingestion.MoveFolderDTO;
 import iaf.ofek.gisma.ai.entity.ingestion.S3Document;
 import iaf.ofek.gisma.ai.entity.ingestion.S3Folder;
+import iaf.ofek.gisma.ai.repository.DocumentVectorStoreRepository;
 import iaf.ofek.gisma.ai.repository.S3FolderRepository;
+import iaf.ofek.gisma.ai.service.vectorstore.CorpusVersion;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -13,6 +17,7 @@ import java.util.UUID;
 
 @Service
 @RequiredArgsConstructor
+@Log4j2
 public class FolderService {
 
     private final S3FolderRepository s3FolderRepository;
@@ -21,6 +26,10 @@ public class FolderService {
 
     private final ParentFolderFetcherService parentFolderFetcherService;
 
+    private final DocumentVectorStoreRepository documentVectorStoreRepository;
+
+    private final CorpusVersion corpusVersion;
+
     @Transactional
     public S3Folder createFolder(CreateFolderDTO createFolderDTO) {
         S3Folder parentFolder = parentFolderFetcherService.getParentFolder(createFolderDTO.getParentFolderId());
@@ -32,6 +41,45 @@ public class FolderService {
         return s3FolderRepository.save(newFolder);
     }
 
+    /**
+     * Child folder of the given parent with the given name, created when missing. Importing the same tree twice
+     * reuses its folders.
+     */
+    @Transactional
+    public S3Folder findOrCreateChildFolder(S3Folder parentFolder, String name) {
+        return s3FolderRepository.findFirstByParentFolderAndName(parentFolder, name)
+                .orElseGet(() -> s3FolderRepository.save(S3Folder.builder()
+                        .name(name)
+                        .parentFolder(parentFolder)
+                        .build()));
+    }
+
+    /**
+     * Moves a folder under a new parent, the folder metadata of the chunks in the moved subtree is rewritten in bulk.
+     */
+    @Transactional
+    public S3Folder moveFolder(MoveFolderDTO moveFolderDTO) {
+        S3Folder folder = s3FolderRepository.findById(moveFolderDTO.getFolderId())
+                .orElseThrow(() -> new IllegalArgumentException("Failed to find folder with id: " + moveFolderDTO.getFolderId()));
+        if (folder.getParentFolder() == null) {
+            throw new IllegalArgumentException("Root folder can't be moved");
+        }
+
+        S3Folder newParent = parentFolderFetcherService.getParentFolder(moveFolderDTO.getParentFolderId());
+        if (newParent.getId().equals(folder.getId())
+                || parentFolderFetcherService.getAncestry(newParent).contains(folder.getId())) {
+            throw new IllegalArgumentException("Folder can't be moved into itself or one of its subfolders");
+        }
+
+        folder.setParentFolder(newParent);
+        S3Folder moved = s3FolderRepository.saveAndFlush(folder);
+        int updatedChunks = documentVectorStoreRepository.refreshFolderMetadata(folder.getId());
+        corpusVersion.bump();
+        log.info("Moved folder {} under {}, updated {} chunks.", folder.getId(), newParent.getId(), updatedChunks);
+
+        return moved;
+    }
+
     @Transactional
     public void deleteFolders(List<UUID> ids) {
         for (UUID id : ids) {
@@ -0,0 +1,272 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.dto.ingestion.OutboxEvent;
+import iaf.ofek.gisma.ai.dto.ingestion.OutboxPayload;
+import iaf.ofek.gisma.ai.entity.ingestion.UserS3Document;
+import iaf.ofek.gisma.ai.enums.IngestionStage;
+import iaf.ofek.gisma.ai.enums.OutboxEventStatus;
+import iaf.ofek.gisma.ai.enums.OutboxEventType;
+import iaf.ofek.gisma.ai.repository.DocumentVectorStoreRepository;
+import iaf.ofek.gisma.ai.repository.IngestionOutboxRepository;
+import iaf.ofek.gisma.ai.repository.S3ContentRepository;
+import iaf.ofek.gisma.ai.repository.UserS3DocumentRepository;
+import iaf.ofek.gisma.ai.service.storage.BlobStore;
+import iaf.ofek.gisma.ai.service.vectorstore.CorpusVersion;
+import iaf.ofek.gisma.ai.util.LeasedQueueWorker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Side effects of document metadata changes (embedding, chunk metadata updates, chunk and blob deletes), written as
+ * {@code ingestion_outbox} rows in the same transaction as the metadata and executed afterward by a bounded pool,
+ * so upload transactions only hold their DB connection for the metadata writes.
+ * <p>
+ * Events are claimed with a lease and retried with exponential backoff until {@code max-attempts}, then kept as
+ * {@code DEAD} for inspection. Every handler is idempotent: ingestion replaces the chunks of the content,
+ * metadata refreshes recompute from the current rows and deletes skip what is already gone or reused.
+ */
+@Service
+@Log4j2
+public class IngestionOutbox implements DisposableBean {
+
+    private final IngestionOutboxRepository outboxRepository;
+
+    private final IngestionService ingestionService;
+
+    private final BlobStore blobStore;
+
+    private final S3ContentRepository s3ContentRepository;
+
+    private final UserS3DocumentRepository userS3DocumentRepository;
+
+    private final DocumentVectorStoreRepository documentVectorStoreRepository;
+
+    private final CorpusVersion corpusVersion;
+
+    private final IngestionProgressPublisher progressPublisher;
+
+    private final MeterRegistry meterRegistry;
+
+    private final int maxAttempts;
+
+    private final Duration retryBackoff;
+
+    private final Duration maxRetryBackoff;
+
+    private final LeasedQueueWorker<OutboxEvent> worker;
+
+    public IngestionOutbox(IngestionOutboxRepository outboxRepository, IngestionService ingestionService,
+                           BlobStore blobStore, S3ContentRepository s3ContentRepository,
+                           UserS3DocumentRepository userS3DocumentRepository,
+                           DocumentVectorStoreRepository documentVectorStoreRepository, CorpusVersion corpusVersion,
+                           IngestionProgressPublisher progressPublisher, MeterRegistry meterRegistry,
+                           @Value("${sa.ingestion.outbox.parallelism:4}") int parallelism,
+                           @Value("${sa.ingestion.outbox.lease:PT15M}") Duration lease,
+                           @Value("${sa.ingestion.outbox.max-attempts:8}") int maxAttempts,
+                           @Value("${sa.ingestion.outbox.retry-backoff:PT10S}") Duration retryBackoff,
+                           @Value("${sa.ingestion.outbox.max-retry-backoff:PT30M}") Duration maxRetryBackoff) {
+        this.outboxRepository = outboxRepository;
+        this.ingestionService = ingestionService;
+        this.blobStore = blobStore;
+        this.s3ContentRepository = s3ContentRepository;
+        this.userS3DocumentRepository = userS3DocumentRepository;
+        this.documentVectorStoreRepository = documentVectorStoreRepository;
+        this.corpusVersion = corpusVersion;
+        this.progressPublisher = progressPublisher;
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoff = retryBackoff;
+        this.maxRetryBackoff = maxRetryBackoff;
+
+        this.worker = new LeasedQueueWorker<>("ingestion-outbox", parallelism,
+                limit -> outboxRepository.claim(limit, lease), this::dispatch);
+
+        meterRegistry.gauge("ingestion.outbox.dead", outboxRepository, repository -> repository.countByStatus(OutboxEventStatus.DEAD));
+    }
+
+    /**
+     * Embeds the content, the folder metadata of its chunks is filled in afterward.
+     */
+    public void ingestContent(UUID contentId, String url, String filename, String userId, IngestionProgress progress) {
+        enqueue(OutboxEventType.INGEST_CONTENT, new OutboxPayload(contentId, url, userId, filename,
+                progress.getUploadId(), progress.getFilename(), null));
+        progress.stage(IngestionStage.QUEUED);
+    }
+
+    public void refreshFolderMetadata(UUID contentId) {
+        enqueue(OutboxEventType.REFRESH_FOLDER_METADATA, OutboxPayload.content(contentId));
+    }
+
+    /**
+     * Removes the chunks of a released content and its blob, a null content only drops a blob
+     * that was uploaded but never referenced.
+     */
+    public void deleteContent(UUID contentId, String url) {
+        enqueue(OutboxEventType.DELETE_CONTENT, new OutboxPayload(contentId, url, null, null, null, null, null));
+    }
+
+    /**
+     * Embeds a private document from its stored file into the user store.
+     */
+    public void ingestUserDocument(UUID documentId, String url) {
+        enqueue(OutboxEventType.INGEST_USER_DOCUMENT, OutboxPayload.userDocument(documentId, url));
+    }
+
+    /**
+     * Removes the chunks of a deleted private document and its blob unless another document still uses it.
+     */
+    public void deleteUserDocument(UUID documentId, String url) {
+        enqueue(OutboxEventType.DELETE_USER_DOCUMENT, OutboxPayload.userDocument(documentId, url));
+    }
+
+    /**
+     * Safety net for events whose wake up was missed (other instance, restart, expired lease, retry backoff).
+     */
+    @Scheduled(fixedDelayString = "${sa.ingestion.outbox.poll-interval:PT5S}")
+    public void poll() {
+        worker.poll();
+    }
+
+    @Override
+    public void destroy() {
+        worker.shutdown();
+    }
+
+    private void enqueue(OutboxEventType type, OutboxPayload payload) {
+        outboxRepository.enqueue(type, payload);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    worker.wakeUp();
+                }
+            });
+        } else {
+            worker.wakeUp();
+        }
+    }
+
+    private void dispatch(OutboxEvent event) {
+        try {
+            if (event.payload() == null) {
+                throw new IllegalStateException("Unreadable payload");
+            }
+
+            switch (event.type()) {
+                case INGEST_CONTENT -> ingest(event);
+                case REFRESH_FOLDER_METADATA -> refresh(event.payload().contentId());
+                case DELETE_CONTENT -> delete(event.payload());
+                case INGEST_USER_DOCUMENT -> ingestUserDocument(event.payload());
+                case DELETE_USER_DOCUMENT -> deleteUserDocument(event.payload());
+            }
+
+            outboxRepository.complete(event.id());
+            count(event, "success");
+        } catch (Exception e) {
+            String error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+
+            if (event.payload() == null || event.attempts() >= maxAttempts) {
+                log.error("Outbox event {} {} failed {} times, giving up: {}.", event.type(), event.id(), event.attempts(), error);
+                outboxRepository.markDead(event.id(), error);
+                progress(event).failed(error);
+                count(event, "dead");
+            } else {
+                Duration delay = LeasedQueueWorker.backoff(retryBackoff, maxRetryBackoff, event.attempts());
+                log.warn("Outbox event {} {} failed (attempt {}), retrying in {}: {}.", event.type(), event.id(), event.attempts(), delay, error);
+                outboxRepository.retryLater(event.id(), delay, error);
+                count(event, "retry");
+            }
+        }
+    }
+
+    private void ingest(OutboxEvent event) {
+        OutboxPayload payload = event.payload();
+        if (!s3ContentRepository.existsById(payload.contentId())) {
+            log.info("Content {} was released before it was ingested, skipped.", payload.contentId());
+            return;
+        }
+
+        IngestionProgress progress = progress(event);
+        ingestionService.ingestToVectorStore(() -> blobStore.open(payload.url()), payload.filename(),
+                payload.contentId(), payload.userId(), progress);
+
+        // a release that raced with the ingestion deleted the chunks before they were written
+        if (!s3ContentRepository.existsById(payload.contentId())) {
+            ingestionService.deleteContent(payload.contentId());
+            return;
+        }
+
+        refresh(payload.contentId());
+        progress.stage(IngestionStage.DONE);
+    }
+
+    private void refresh(UUID contentId) {
+        if (documentVectorStoreRepository.refreshContentFolderMetadata(List.of(contentId)) > 0) {
+            corpusVersion.bump();
+        }
+    }
+
+    private void delete(OutboxPayload payload) {
+        if (payload.contentId() != null) {
+            ingestionService.deleteContent(payload.contentId());
+        }
+
+        // content addressed stores hand out the same url for the same bytes
+        List<String> url = payload.url() == null ? List.of() : List.of(payload.url());
+        if (!url.isEmpty() && s3ContentRepository.findExistingUrls(url).isEmpty()
+                && userS3DocumentRepository.findExistingUrls(url).isEmpty()) {
+            blobStore.delete(payload.url());
+        }
+    }
+
+    private void ingestUserDocument(OutboxPayload payload) {
+        Optional<UserS3Document> document = userS3DocumentRepository.findById(payload.documentId());
+        if (document.isEmpty()) {
+            log.info("User document {} was deleted before it was ingested, skipped.", payload.documentId());
+            return;
+        }
+
+        ingestionService.ingestToUserVectorStore(() -> blobStore.open(payload.url()), document.get());
+
+        // a delete that raced with the ingestion removed the chunks before they were written
+        if (!userS3DocumentRepository.existsById(payload.documentId())) {
+            ingestionService.deleteUserDocument(payload.documentId());
+        }
+    }
+
+    private void deleteUserDocument(OutboxPayload payload) {
+        ingestionService.deleteUserDocument(payload.documentId());
+        delete(new OutboxPayload(null, payload.url(), null, null, null, null, null));
+    }
+
+    private IngestionProgress progress(OutboxEvent event) {
+        OutboxPayload payload = event.payload();
+        if (payload == null || payload.uploadId() == null || payload.userId() == null) {
+            return IngestionProgress.NONE;
+        }
+
+        return progressPublisher.startUpload(payload.userId(), payload.uploadId(), null).resume(payload.progressFilename());
+    }
+
+    private void count(OutboxEvent event, String outcome) {
+        Counter.builder("ingestion.outbox.dispatched")
+                .tag("type", event.type().name())
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+}
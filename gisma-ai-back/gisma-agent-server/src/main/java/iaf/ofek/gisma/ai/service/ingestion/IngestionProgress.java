@@ -0,0 +1,48 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.enums.IngestionStage;
+
+/**
+ * Progress of one file within an {@link IngestionUpload}, {@link #NONE} when nobody listens.
+ */
+public class IngestionProgress {
+
+    public static final IngestionProgress NONE = new IngestionProgress(null, null);
+
+    private final IngestionUpload upload;
+
+    private final String filename;
+
+    IngestionProgress(IngestionUpload upload, String filename) {
+        this.upload = upload;
+        this.filename = filename;
+    }
+
+    /**
+     * Upload the file belongs to, null for {@link #NONE}.
+     */
+    public String getUploadId() {
+        return upload == null ? null : upload.getUploadId();
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void stage(IngestionStage stage) {
+        progress(stage, 0, 0);
+    }
+
+    public void progress(IngestionStage stage, int completed, int total) {
+        if (upload != null) {
+            upload.publish(filename, stage, completed, total, null, false);
+        }
+    }
+
+    public void failed(String error) {
+        if (upload != null) {
+            upload.publish(filename, IngestionStage.FAILED, 0, 0, error, true);
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Publishes ingestion progress to the uploading user on {@code /user/queue/ingestion} through the STOMP broker.
+ * Clients pass their own {@code uploadId} to correlate the events with the request they sent.
+ */
+@Component
+@RequiredArgsConstructor
+public class IngestionProgressPublisher {
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    @Value("${sa.ingestion.progress.min-interval:PT0.5S}")
+    private Duration minInterval;
+
+    /**
+     * The id sent by the client, a generated one when it sent none.
+     */
+    public static String uploadId(String requested) {
+        return requested == null || requested.isBlank() ? UUID.randomUUID().toString() : requested;
+    }
+
+    /**
+     * @param filesTotal number of files in the upload, null when unknown up front
+     */
+    public IngestionUpload startUpload(String userId, String uploadId, Integer filesTotal) {
+        return new IngestionUpload(messagingTemplate, userId, uploadId, filesTotal, minInterval.toNanos());
+    }
+
+}
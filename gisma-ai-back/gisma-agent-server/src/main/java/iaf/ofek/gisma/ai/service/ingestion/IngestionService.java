@@ -1,23 +1,27 @@
 package iaf.ofek.gisma.ai.service.ingestion;
 
-import iaf.ofek.gisma.ai.entity.ingestion.S3Document;
+import iaf.ofek.gisma.ai.entity.ingestion.UserS3Document;
+import iaf.ofek.gisma.ai.enums.IngestionStage;
 import lombok.extern.log4j.Log4j2;
-import org.apache.tika.Tika;
 import org.apache.tika.exception.TikaException;
-import org.springframework.ai.document.Document;
-import org.springframework.ai.transformer.splitter.TextSplitter;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.annotation.Validated;
-import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Component
 @Log4j2
@@ -28,47 +32,133 @@ public class IngestionService {
     public static final String FILENAME = "filename";
     public static final String CONTENT_TYPE = "contentType";
     public static final String DOCUMENT_ID = "documentId";
+    public static final String CONTENT_ID = "contentId";
+    public static final String FOLDER_ID = "folderId";
+    public static final String FOLDER_IDS = "folderIds";
+    public static final String FOLDER_PATH = "folderPath";
 
-    private static final Tika tika = new Tika();
+    private final VectorStore documentVectorStore;
 
-    private static final TextSplitter textSplitter = new TokenTextSplitter();
+    private final VectorStore userDocumentVectorStore;
 
-    private final VectorStore documentVectorStore;
+    private final DocumentParser documentParser;
+
+    private final SectionChunker sectionChunker;
 
-    public IngestionService(@Qualifier("documentVectorStore") VectorStore documentVectorStore) {
+    @Value("${sa.ingestion.progress.embed-batch-size:128}")
+    private int embedBatchSize;
+
+    public IngestionService(@Qualifier("documentVectorStore") VectorStore documentVectorStore,
+                            @Qualifier("userDocumentVectorStore") VectorStore userDocumentVectorStore,
+                            DocumentParser documentParser, SectionChunker sectionChunker) {
         this.documentVectorStore = documentVectorStore;
+        this.userDocumentVectorStore = userDocumentVectorStore;
+        this.documentParser = documentParser;
+        this.sectionChunker = sectionChunker;
+    }
+
+    /**
+     * Global chunks belong to the shared content and are stored without folder metadata, the caller fills it in
+     * from the documents referencing the content once they are written, see
+     * {@link iaf.ofek.gisma.ai.repository.DocumentVectorStoreRepository#refreshContentFolderMetadata}.
+     *
+     * @return number of stored chunks
+     */
+    public int ingestToVectorStore(InputStreamSource source, String filename, UUID contentId, String userId,
+                                   IngestionProgress progress) {
+        ChunkWriter writer = new ChunkWriter(documentVectorStore, () -> deleteContent(contentId), embedBatchSize, progress);
+        ingest(source, filename, Map.of(
+                CONTENT_ID, contentId,
+                USER_ID, userId
+        ), Map.of(), writer, progress);
+
+        if (writer.getStored() > 0) {
+            progress.stage(IngestionStage.STORED);
+        }
+
+        return writer.getStored();
     }
 
-    public void ingestToVectorStore(MultipartFile file, S3Document s3Document, String userId) {
-        String filename = file.getOriginalFilename();
+    /**
+     * Private documents go to the user store, the {@code userId} metadata is mirrored into its indexed {@code user_id} column.
+     */
+    public void ingestToUserVectorStore(InputStreamSource source, UserS3Document userDocument) {
+        Map<String, Object> folderMetadata = userDocument.getParentFolder() == null
+                ? Map.of()
+                : Map.of(FOLDER_ID, userDocument.getParentFolder().getId().toString());
+        ChunkWriter writer = new ChunkWriter(userDocumentVectorStore, () -> deleteUserDocument(userDocument.getId()),
+                embedBatchSize, IngestionProgress.NONE);
+        ingest(source, userDocument.getName(), Map.of(
+                DOCUMENT_ID, userDocument.getId(),
+                USER_ID, userDocument.getUserId().toString()
+        ), folderMetadata, writer, IngestionProgress.NONE);
+    }
+
+    /**
+     * Streams the file through parser, chunker and {@code writer}: sections are chunked and embedded in parallel
+     * while later sections are still being extracted. A document Tika can't parse is left without new chunks, every
+     * other failure (reading the stream, busy parser pool, parse timeout, storing) is rethrown for the caller to retry.
+     */
+    private void ingest(InputStreamSource source, String filename, Map<String, Object> documentMetadata,
+                        Map<String, Object> folderMetadata, ChunkWriter writer, IngestionProgress progress) {
         if (filename == null) {
             throw new IllegalArgumentException("Failed processing file without filename");
         }
 
-        try (InputStream inputStream = file.getInputStream()) {
-            byte[] fileBytes = inputStream.readAllBytes();
-            String contentType = tika.detect(fileBytes);
-            String extractedText = tika.parseToString(new ByteArrayInputStream(fileBytes));
-
-            if (extractedText != null && !extractedText.trim().isEmpty()) {
-                Document document = new Document(extractedText, Map.of(
-                        DOCUMENT_ID, s3Document.getId(),
-                        USER_ID, userId,
-                        FILENAME, filename,
-                        CONTENT_TYPE, contentType
-                ));
-
-                    deleteDocument(s3Document); // remove old embeddings + file
-                List<Document> chunks = textSplitter.apply(List.of(document));
-                documentVectorStore.add(chunks);
+        List<CompletableFuture<Void>> sections = Collections.synchronizedList(new ArrayList<>());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try {
+            documentParser.parse(source, filename, contentType -> {
+                Map<String, Object> metadata = new HashMap<>(documentMetadata);
+                metadata.put(FILENAME, filename);
+                metadata.put(CONTENT_TYPE, contentType);
+                metadata.putAll(folderMetadata);
+
+                return section -> {
+                    if (failure.get() == null) {
+                        sections.add(sectionChunker.submit(section, metadata, writer::write)
+                                .whenComplete((ignored, e) -> {
+                                    if (e != null) {
+                                        failure.compareAndSet(null, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                                    }
+                                }));
+                    }
+                };
+            });
+            progress.stage(IngestionStage.PARSED);
+        } catch (TikaException e) {
+            log.warn("Failed to parse file {}, ingested without content: {}", filename, e.getMessage());
+            failure.compareAndSet(null, e);
+        } catch (IOException e) {
+            failure.compareAndSet(null, new UncheckedIOException("Failed reading " + filename, e));
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        try {
+            CompletableFuture.allOf(sections.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException ignored) {
+            // already recorded in failure
+        }
+
+        Throwable error = failure.get();
+        if (error != null) {
+            writer.discard();
+            if (!(error instanceof TikaException)) {
+                throw error instanceof RuntimeException runtimeException
+                        ? runtimeException
+                        : new IllegalStateException("Failed ingesting " + filename, error);
             }
-        } catch (IOException | TikaException e) {
-            log.warn("Failed to ingest file {}: {}", filename, e.getMessage());
         }
     }
 
-    public void deleteDocument(S3Document document) {
-        documentVectorStore.delete("%s == '%s'".formatted(DOCUMENT_ID, document.getId()));
+    public void deleteContent(UUID contentId) {
+        documentVectorStore.delete("%s == '%s'".formatted(CONTENT_ID, contentId));
+    }
+
+    public void deleteUserDocument(UUID documentId) {
+        userDocumentVectorStore.delete("%s == '%s'".formatted(DOCUMENT_ID, documentId));
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.dto.ingestion.IngestionProgressEvent;
+import iaf.ofek.gisma.ai.enums.IngestionStage;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress channel of one upload request. Intermediate events of all its files share one throttle,
+ * at most one per interval goes out, so a huge document or archive can't flood the single threaded
+ * outbound channel. Failures and the closing {@code COMPLETED} event are always sent.
+ */
+@Log4j2
+public class IngestionUpload {
+
+    static final String DESTINATION = "/queue/ingestion";
+
+    private final SimpMessagingTemplate messagingTemplate;
+
+    private final String userId;
+
+    @Getter
+    private final String uploadId;
+
+    private final Integer filesTotal;
+
+    private final long minIntervalNanos;
+
+    private final AtomicInteger filesDone = new AtomicInteger();
+
+    // the first event goes out right away
+    private final AtomicLong lastSentNanos = new AtomicLong(System.nanoTime() - Long.MAX_VALUE / 2);
+
+    IngestionUpload(SimpMessagingTemplate messagingTemplate, String userId, String uploadId, Integer filesTotal,
+                    long minIntervalNanos) {
+        this.messagingTemplate = messagingTemplate;
+        this.userId = userId;
+        this.uploadId = uploadId;
+        this.filesTotal = filesTotal;
+        this.minIntervalNanos = minIntervalNanos;
+    }
+
+    public IngestionProgress file(String filename) {
+        IngestionProgress progress = new IngestionProgress(this, filename);
+        progress.stage(IngestionStage.RECEIVED);
+
+        return progress;
+    }
+
+    /**
+     * Picks a file of the upload back up where the request left it, e.g. in the outbox dispatcher.
+     */
+    public IngestionProgress resume(String filename) {
+        return new IngestionProgress(this, filename);
+    }
+
+    /**
+     * Closes the upload, {@code error} is null when it succeeded.
+     */
+    public void complete(String error) {
+        publish(null, IngestionStage.COMPLETED, 0, 0, error, true);
+    }
+
+    void publish(String filename, IngestionStage stage, int completed, int total, String error, boolean force) {
+        if (stage == IngestionStage.DONE || stage == IngestionStage.FAILED) {
+            filesDone.incrementAndGet();
+        }
+        if (!force && !tryAcquire()) {
+            return;
+        }
+
+        try {
+            messagingTemplate.convertAndSendToUser(userId, DESTINATION, new IngestionProgressEvent(
+                    uploadId, filename, stage, completed, total, filesDone.get(), filesTotal, error));
+        } catch (Exception e) {
+            // progress is best effort, never fails the ingestion
+            log.debug("Dropped ingestion progress event of upload {}: {}.", uploadId, e.getMessage());
+        }
+    }
+
+    private boolean tryAcquire() {
+        long now = System.nanoTime();
+        long last = lastSentNanos.get();
+
+        return now - last >= minIntervalNanos && lastSentNanos.compareAndSet(last, now);
+    }
+
+}
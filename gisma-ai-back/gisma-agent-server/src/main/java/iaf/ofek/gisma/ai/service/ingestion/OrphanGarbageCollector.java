@@ -0,0 +1,217 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.dto.ingestion.OrphanGcReport;
+import iaf.ofek.gisma.ai.dto.storage.BlobInfo;
+import iaf.ofek.gisma.ai.repository.DocumentVectorStoreRepository;
+import iaf.ofek.gisma.ai.repository.S3ContentRepository;
+import iaf.ofek.gisma.ai.repository.UserS3DocumentRepository;
+import iaf.ofek.gisma.ai.service.storage.BlobStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static iaf.ofek.gisma.ai.constant.DBTableNames.DOCUMENT_VECTOR_STORE;
+import static iaf.ofek.gisma.ai.constant.DBTableNames.S3_CONTENTS;
+import static iaf.ofek.gisma.ai.constant.DBTableNames.USER_DOCUMENT_VECTOR_STORE;
+import static iaf.ofek.gisma.ai.constant.DBTableNames.USER_S3_DOCUMENTS;
+import static iaf.ofek.gisma.ai.service.ingestion.IngestionService.CONTENT_ID;
+import static iaf.ofek.gisma.ai.service.ingestion.IngestionService.DOCUMENT_ID;
+
+/**
+ * Reconciles the vector tables and the bucket with the document tables, which drift apart when an ingestion
+ * or an S3 delete fails half way.
+ * <ul>
+ *     <li>global chunks whose {@code contentId} has no content row and private chunks whose {@code documentId}
+ *     has no document row are deleted, a page of ids at a time</li>
+ *     <li>blobs no content / private document row points to are deleted page by page of the blob store listing;
+ *     objects younger than the grace period are skipped since uploads happen before the row commits</li>
+ * </ul>
+ * Counts are published as {@code orphan.gc.deleted} meters and through the {@code orphangc} actuator endpoint.
+ */
+@Service
+@Log4j2
+public class OrphanGarbageCollector {
+
+    private final DocumentVectorStoreRepository documentVectorStoreRepository;
+
+    private final S3ContentRepository s3ContentRepository;
+
+    private final UserS3DocumentRepository userS3DocumentRepository;
+
+    private final VectorStore documentVectorStore;
+
+    private final VectorStore userDocumentVectorStore;
+
+    private final BlobStore blobStore;
+
+    private final Counter contentsCounter;
+
+    private final Counter userDocumentsCounter;
+
+    private final Counter s3ObjectsCounter;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private final AtomicReference<OrphanGcReport> lastReport = new AtomicReference<>();
+
+    private final AtomicLong lastSuccessEpochSeconds = new AtomicLong();
+
+    @Value("${sa.orphan-gc.batch-size:100}")
+    private int batchSize;
+
+    @Value("${sa.orphan-gc.s3-min-age:PT1H}")
+    private Duration s3MinAge;
+
+    @Value("${sa.orphan-gc.dry-run:false}")
+    private boolean dryRun;
+
+    public OrphanGarbageCollector(DocumentVectorStoreRepository documentVectorStoreRepository,
+                                  S3ContentRepository s3ContentRepository,
+                                  UserS3DocumentRepository userS3DocumentRepository,
+                                  @Qualifier("documentVectorStore") VectorStore documentVectorStore,
+                                  @Qualifier("userDocumentVectorStore") VectorStore userDocumentVectorStore,
+                                  BlobStore blobStore, MeterRegistry meterRegistry) {
+        this.documentVectorStoreRepository = documentVectorStoreRepository;
+        this.s3ContentRepository = s3ContentRepository;
+        this.userS3DocumentRepository = userS3DocumentRepository;
+        this.documentVectorStore = documentVectorStore;
+        this.userDocumentVectorStore = userDocumentVectorStore;
+        this.blobStore = blobStore;
+        this.contentsCounter = deletedCounter(meterRegistry, "contents");
+        this.userDocumentsCounter = deletedCounter(meterRegistry, "user-documents");
+        this.s3ObjectsCounter = deletedCounter(meterRegistry, "s3-objects");
+        meterRegistry.gauge("orphan.gc.last.success", lastSuccessEpochSeconds);
+    }
+
+    @Scheduled(cron = "${sa.orphan-gc.cron:0 30 3 * * *}")
+    public void scheduledRun() {
+        run().ifPresentOrElse(
+                report -> log.info("Orphan collection finished: {}.", report),
+                () -> log.info("Orphan collection already running, skipping."));
+    }
+
+    /**
+     * @return the report of this run, empty when a run is already in progress
+     */
+    public Optional<OrphanGcReport> run() {
+        if (!running.compareAndSet(false, true)) {
+            return Optional.empty();
+        }
+
+        Instant startedAt = Instant.now();
+        long contents = 0, userDocuments = 0, s3Objects = 0;
+        String error = null;
+        try {
+            contents = collectChunks(DOCUMENT_VECTOR_STORE, CONTENT_ID, S3_CONTENTS, documentVectorStore, contentsCounter);
+            userDocuments = collectChunks(USER_DOCUMENT_VECTOR_STORE, DOCUMENT_ID, USER_S3_DOCUMENTS, userDocumentVectorStore, userDocumentsCounter);
+            s3Objects = collectS3Objects(startedAt.minus(s3MinAge));
+            lastSuccessEpochSeconds.set(Instant.now().getEpochSecond());
+        } catch (Exception e) {
+            log.error("Orphan collection failed: {}.", e.getMessage(), e);
+            error = e.getMessage();
+        } finally {
+            running.set(false);
+        }
+
+        OrphanGcReport report = new OrphanGcReport(startedAt, Instant.now(), dryRun, contents, userDocuments, s3Objects, error);
+        lastReport.set(report);
+
+        return Optional.of(report);
+    }
+
+    public Optional<OrphanGcReport> lastReport() {
+        return Optional.ofNullable(lastReport.get());
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return number of orphan owners (contents / documents) whose chunks were deleted
+     */
+    private long collectChunks(String vectorTable, String idKey, String ownerTable, VectorStore store, Counter counter) {
+        long collected = 0;
+        String after = "";
+        List<String> orphanIds;
+        do {
+            orphanIds = documentVectorStoreRepository.findOrphanIds(vectorTable, idKey, ownerTable, after, batchSize);
+            if (orphanIds.isEmpty()) {
+                break;
+            }
+
+            if (!dryRun) {
+                store.delete(new FilterExpressionBuilder().in(idKey, orphanIds.toArray()).build());
+                counter.increment(orphanIds.size());
+            }
+            collected += orphanIds.size();
+            after = orphanIds.get(orphanIds.size() - 1);
+        } while (orphanIds.size() == batchSize);
+
+        if (collected > 0) {
+            log.info("{} orphan {} values in {}{}.", collected, idKey, vectorTable, dryRun ? " (dry run)" : " deleted");
+        }
+
+        return collected;
+    }
+
+    /**
+     * @return number of deleted unreferenced blobs
+     */
+    private long collectS3Objects(Instant modifiedBefore) {
+        AtomicLong collected = new AtomicLong();
+
+        blobStore.list(page -> {
+            List<String> urls = page.stream()
+                    .filter(blob -> blob.lastModified() != null && blob.lastModified().isBefore(modifiedBefore))
+                    .map(BlobInfo::url)
+                    .toList();
+            if (urls.isEmpty()) {
+                return;
+            }
+
+            Set<String> referenced = new HashSet<>(s3ContentRepository.findExistingUrls(urls));
+            referenced.addAll(userS3DocumentRepository.findExistingUrls(urls));
+            List<String> orphanUrls = urls.stream()
+                    .filter(url -> !referenced.contains(url))
+                    .toList();
+
+            if (dryRun) {
+                collected.addAndGet(orphanUrls.size());
+                return;
+            }
+            int deleted = blobStore.deleteAll(orphanUrls);
+            s3ObjectsCounter.increment(deleted);
+            collected.addAndGet(deleted);
+        });
+
+        if (collected.get() > 0) {
+            log.info("{} orphan blobs{}.", collected.get(), dryRun ? " (dry run)" : " deleted");
+        }
+
+        return collected.get();
+    }
+
+    private static Counter deletedCounter(MeterRegistry meterRegistry, String target) {
+        return Counter.builder("orphan.gc.deleted")
+                .tag("target", target)
+                .register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,36 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.dto.ingestion.OrphanGcReport;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * {@code /actuator/orphangc}: last collector report on GET, runs the collector on POST.
+ */
+@Component
+@Endpoint(id = "orphangc")
+@RequiredArgsConstructor
+public class OrphanGarbageCollectorEndpoint {
+
+    private final OrphanGarbageCollector collector;
+
+    @ReadOperation
+    public Map<String, Object> report() {
+        return Map.of(
+                "running", collector.isRunning(),
+                "lastRun", collector.lastReport().map(Object.class::cast).orElse("never")
+        );
+    }
+
+    @WriteOperation
+    public OrphanGcReport run() {
+        return collector.run()
+                .orElseThrow(() -> new IllegalStateException("Orphan collection already running"));
+    }
+
+}
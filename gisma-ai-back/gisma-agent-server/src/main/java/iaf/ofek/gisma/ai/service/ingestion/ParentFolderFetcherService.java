@@ -6,6 +6,8 @@ import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.util.LinkedList;
+import java.util.List;
 import java.util.UUID;
 
 @Service
@@ -33,4 +35,16 @@ public class ParentFolderFetcherService {
         return rootFolder;
     }
 
+    /**
+     * Folder ids from the top level folder down to the given folder, the root folder is left out.
+     */
+    public List<UUID> getAncestry(S3Folder folder) {
+        LinkedList<UUID> ancestry = new LinkedList<>();
+        for (S3Folder current = folder; current != null && current.getParentFolder() != null; current = current.getParentFolder()) {
+            ancestry.addFirst(current.getId());
+        }
+
+        return ancestry;
+    }
+
 }
@@ -0,0 +1,69 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.dto.ingestion.DocumentSection;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Splits {@link DocumentSection}s into token bounded chunks and passes them on, sections of a document are
+ * processed concurrently while the parser is still producing the rest of it.
+ */
+@Component
+public class SectionChunker implements DisposableBean {
+
+    public static final String SECTION = "section";
+    public static final String PAGE = "page";
+
+    private static final TextSplitter textSplitter = new TokenTextSplitter();
+
+    private final ExecutorService executor;
+
+    public SectionChunker(@Value("${sa.ingestion.chunker.parallelism:0}") int parallelism) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "section-chunker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Chunks the section with {@code metadata} plus its heading and page, and hands the chunks to {@code sink}
+     * on the chunker thread.
+     */
+    public CompletableFuture<Void> submit(DocumentSection section, Map<String, Object> metadata, Consumer<List<Document>> sink) {
+        return CompletableFuture.runAsync(() -> sink.accept(chunk(section, metadata)), executor);
+    }
+
+    private List<Document> chunk(DocumentSection section, Map<String, Object> metadata) {
+        Map<String, Object> sectionMetadata = new HashMap<>(metadata);
+        if (section.heading() != null) {
+            sectionMetadata.put(SECTION, section.heading());
+        }
+        if (section.page() != null) {
+            sectionMetadata.put(PAGE, section.page());
+        }
+
+        return textSplitter.apply(List.of(new Document(section.text(), sectionMetadata)));
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,151 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.dto.ingestion.DocumentSection;
+import org.apache.tika.exception.WriteLimitReachedException;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Cuts the XHTML stream Tika produces into {@link DocumentSection}s while the document is parsed, only the
+ * current section is held in memory.
+ * A section ends at a page ({@code <div class="page">}) or heading once it has {@code minSectionChars},
+ * and at any block element once it has {@code maxSectionChars}.
+ */
+class SectionContentHandler extends DefaultHandler {
+
+    private static final Set<String> BLOCK_ELEMENTS = Set.of(
+            "p", "div", "li", "tr", "br", "table", "ul", "ol", "pre", "blockquote",
+            "h1", "h2", "h3", "h4", "h5", "h6");
+
+    private final Consumer<DocumentSection> sections;
+
+    private final int minSectionChars;
+
+    private final int maxSectionChars;
+
+    private final long maxTextLength;
+
+    private final StringBuilder text = new StringBuilder();
+
+    private final StringBuilder headingText = new StringBuilder();
+
+    private boolean inHeading;
+
+    private int headingStart;
+
+    private String currentHeading;
+
+    private String sectionHeading;
+
+    private int page;
+
+    private Integer sectionPage;
+
+    private long characters;
+
+    private int sectionCount;
+
+    SectionContentHandler(Consumer<DocumentSection> sections, int minSectionChars, int maxSectionChars, long maxTextLength) {
+        this.sections = sections;
+        this.minSectionChars = minSectionChars;
+        this.maxSectionChars = Math.max(minSectionChars, maxSectionChars);
+        this.maxTextLength = maxTextLength;
+    }
+
+    long getCharacters() {
+        return characters;
+    }
+
+    int getSectionCount() {
+        return sectionCount;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        if (isHeading(localName)) {
+            boundary();
+            inHeading = true;
+            headingStart = text.length();
+            headingText.setLength(0);
+        } else if ("div".equals(localName) && "page".equals(attributes.getValue("class"))) {
+            boundary();
+            page++;
+            if (text.isEmpty()) {
+                sectionPage = page;
+            }
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        if (isHeading(localName)) {
+            inHeading = false;
+            String heading = headingText.toString().strip();
+            if (!heading.isEmpty()) {
+                currentHeading = heading;
+                if (headingStart == 0) {
+                    sectionHeading = heading;
+                }
+            }
+        }
+
+        if (BLOCK_ELEMENTS.contains(localName)) {
+            text.append('\n');
+            if (text.length() >= maxSectionChars) {
+                flush();
+            }
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        int accepted = (int) Math.min(length, maxTextLength - characters);
+        text.append(ch, start, accepted);
+        if (inHeading) {
+            headingText.append(ch, start, accepted);
+        }
+        characters += accepted;
+
+        if (accepted < length) {
+            flush();
+            throw new WriteLimitReachedException((int) Math.min(maxTextLength, Integer.MAX_VALUE));
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        text.append(ch, start, length);
+    }
+
+    @Override
+    public void endDocument() {
+        flush();
+    }
+
+    private void boundary() {
+        if (text.length() >= minSectionChars) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        String sectionText = text.toString().strip();
+        if (!sectionText.isEmpty()) {
+            sections.accept(new DocumentSection(sectionHeading, sectionPage, sectionText));
+            sectionCount++;
+        }
+
+        text.setLength(0);
+        sectionHeading = currentHeading;
+        sectionPage = page == 0 ? null : page;
+    }
+
+    private static boolean isHeading(String localName) {
+        return localName.length() == 2 && localName.charAt(0) == 'h' && localName.charAt(1) >= '1' && localName.charAt(1) <= '6';
+    }
+
+}
@@ -0,0 +1,128 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.entity.ingestion.UserS3Document;
+import iaf.ofek.gisma.ai.entity.ingestion.UserS3Folder;
+import iaf.ofek.gisma.ai.repository.UserS3DocumentRepository;
+import iaf.ofek.gisma.ai.repository.UserS3FolderRepository;
+import iaf.ofek.gisma.ai.service.storage.BlobStore;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Private documents of a single user, searchable only by their owner. Like {@link DocumentService}, files are
+ * uploaded before the metadata transaction, embedding and deletes run after commit through the {@link IngestionOutbox}.
+ */
+@Service
+@Log4j2
+public class UserDocumentService {
+
+    private final UserS3DocumentRepository userS3DocumentRepository;
+
+    private final UserS3FolderRepository userS3FolderRepository;
+
+    private final BlobStore blobStore;
+
+    private final IngestionOutbox ingestionOutbox;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public UserDocumentService(UserS3DocumentRepository userS3DocumentRepository,
+                               UserS3FolderRepository userS3FolderRepository, BlobStore blobStore,
+                               IngestionOutbox ingestionOutbox, PlatformTransactionManager transactionManager) {
+        this.userS3DocumentRepository = userS3DocumentRepository;
+        this.userS3FolderRepository = userS3FolderRepository;
+        this.blobStore = blobStore;
+        this.ingestionOutbox = ingestionOutbox;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public List<UserS3Document> getTopLevelDocuments(UUID userId) {
+        return userS3DocumentRepository.findAllByUserIdAndParentFolderIsNull(userId);
+    }
+
+    public UserS3Document getDocument(UUID documentId, UUID userId) {
+        return userS3DocumentRepository.findByIdAndUserId(documentId, userId)
+                .orElseThrow(() -> new EntityNotFoundException("Document with id: `%s` not found".formatted(documentId)));
+    }
+
+    /**
+     * All documents are written in one transaction, a failure rolls back the whole upload.
+     */
+    public List<UserS3Document> createNewDocuments(List<MultipartFile> files, UUID parentFolderId, UUID userId) {
+        files.forEach(DocumentService::validateFile);
+        List<String> urls = new ArrayList<>();
+
+        try {
+            files.forEach(file -> urls.add(blobStore.put(file)));
+
+            return transactionTemplate.execute(status -> {
+                UserS3Folder parentFolder = parentFolderId == null
+                        ? null
+                        : userS3FolderRepository.findByIdAndUserId(parentFolderId, userId)
+                        .orElseThrow(() -> new EntityNotFoundException("folder with id: `%s` not found".formatted(parentFolderId)));
+
+                List<UserS3Document> created = new ArrayList<>();
+                for (int i = 0; i < files.size(); i++) {
+                    created.add(createNewDocument(files.get(i), urls.get(i), parentFolder, userId));
+                }
+                return created;
+            });
+        } catch (EntityNotFoundException e) {
+            discard(urls);
+            throw e;
+        } catch (Exception e) {
+            discard(urls);
+            log.warn("Failed processing files: {}.", e.getMessage());
+            throw new IllegalArgumentException("Failed processing files, try again...");
+        }
+    }
+
+    /**
+     * Chunks and blobs are removed once the delete commits, a blob another document still uses stays.
+     */
+    @Transactional
+    public void deleteDocuments(List<UUID> documentIds, UUID userId) {
+        List<UserS3Document> documents = userS3DocumentRepository.findAllByIdInAndUserId(documentIds, userId);
+        userS3DocumentRepository.deleteAll(documents);
+        documents.forEach(document -> ingestionOutbox.deleteUserDocument(document.getId(), document.getUrl()));
+    }
+
+    private UserS3Document createNewDocument(MultipartFile file, String url, UserS3Folder parentFolder, UUID userId) {
+        UserS3Document userDocument = userS3DocumentRepository.save(UserS3Document.builder()
+                .name(file.getOriginalFilename())
+                .contentType(file.getContentType())
+                .userId(userId)
+                .parentFolder(parentFolder)
+                .url(url)
+                .build());
+        ingestionOutbox.ingestUserDocument(userDocument.getId(), url);
+
+        return userDocument;
+    }
+
+    /**
+     * Uploads of a transaction that rolled back, dropped by the outbox unless a committed document uses the same blob.
+     * Whatever fails here is left for the orphan collector.
+     */
+    private void discard(List<String> urls) {
+        urls.stream()
+                .distinct()
+                .forEach(url -> {
+                    try {
+                        ingestionOutbox.deleteContent(null, url);
+                    } catch (RuntimeException e) {
+                        log.warn("Failed queueing the delete of {}, left for the orphan collector: {}.", url, e.getMessage());
+                    }
+                });
+    }
+
+}
@@ -0,0 +1,77 @@
+package iaf.ofek.gisma.ai.service.ingestion;
+
+import iaf.ofek.gisma.ai.dto.ingestion.CreateFolderDTO;
+import iaf.ofek.gisma.ai.entity.ingestion.UserS3Document;
+import iaf.ofek.gisma.ai.entity.ingestion.UserS3Folder;
+import iaf.ofek.gisma.ai.repository.UserS3FolderRepository;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Private folders of a single user. Folders without a parent are the user top level folders,
+ * every lookup is scoped by the owner id.
+ */
+@Service
+@RequiredArgsConstructor
+public class UserFolderService {
+
+    private final UserS3FolderRepository userS3FolderRepository;
+
+    private final UserDocumentService userDocumentService;
+
+    public List<UserS3Folder> getTopLevelFolders(UUID userId) {
+        return userS3FolderRepository.findAllByUserIdAndParentFolderIsNull(userId);
+    }
+
+    @Transactional
+    public UserS3Folder createFolder(CreateFolderDTO createFolderDTO, UUID userId) {
+        UserS3Folder parentFolder = createFolderDTO.getParentFolderId() == null
+                ? null
+                : getFolder(createFolderDTO.getParentFolderId(), userId);
+        UserS3Folder newFolder = UserS3Folder.builder()
+                .name(createFolderDTO.getName())
+                .userId(userId)
+                .parentFolder(parentFolder)
+                .build();
+
+        return userS3FolderRepository.save(newFolder);
+    }
+
+    @Transactional
+    public void deleteFolders(List<UUID> ids, UUID userId) {
+        for (UUID id : ids) {
+            UserS3Folder folder = getFolder(id, userId);
+
+            if (!folder.getChildrenDocuments().isEmpty()) {
+                List<UUID> docIds = folder.getChildrenDocuments()
+                        .stream()
+                        .map(UserS3Document::getId)
+                        .toList();
+
+                userDocumentService.deleteDocuments(docIds, userId);
+            }
+
+            if (!folder.getChildrenFolders().isEmpty()) {
+                List<UUID> childFolderIds = folder.getChildrenFolders()
+                        .stream()
+                        .map(UserS3Folder::getId)
+                        .toList();
+
+                deleteFolders(childFolderIds, userId);
+            }
+
+            userS3FolderRepository.delete(folder);
+        }
+    }
+
+    public UserS3Folder getFolder(UUID id, UUID userId) {
+        return userS3FolderRepository.findByIdAndUserId(id, userId)
+                .orElseThrow(() -> new EntityNotFoundException("folder with id: `%s` not found".formatted(id)));
+    }
+
+}
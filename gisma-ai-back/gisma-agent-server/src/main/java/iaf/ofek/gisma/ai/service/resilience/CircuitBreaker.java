@@ -0,0 +1,171 @@
+package iaf.ofek.gisma.ai.service.resilience;
+
+import iaf.ofek.gisma.ai.enums.CircuitState;
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Count based circuit breaker. Closed, it keeps the outcome of the last {@code windowSize} calls and opens once
+ * {@code minimumCalls} were recorded and at least {@code failureRateThreshold} percent of them failed. Open, calls
+ * are rejected until {@code openDuration} passed, then a single call goes through as a probe (half open): its success
+ * closes the breaker, its failure opens it for another {@code openDuration}. Everybody else keeps failing fast while
+ * the probe runs, so a recovering dependency sees one request instead of the whole backlog at once.
+ */
+@Log4j2
+public class CircuitBreaker {
+
+    private final String name;
+
+    private final int windowSize;
+
+    private final int minimumCalls;
+
+    private final double failureRateThreshold;
+
+    private final long openDurationNanos;
+
+    private final AtomicReference<Snapshot> state = new AtomicReference<>(new Snapshot(CircuitState.CLOSED, 0, 0));
+
+    // ring of the last outcomes, true = failure, guarded by this
+    private final boolean[] outcomes;
+
+    // guarded by this
+    private int recorded;
+
+    // guarded by this
+    private int next;
+
+    // guarded by this
+    private int failures;
+
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                          Duration openDuration) {
+        this.name = name;
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.min(Math.max(1, minimumCalls), this.windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationNanos = openDuration.toNanos();
+        this.outcomes = new boolean[this.windowSize];
+    }
+
+    /**
+     * Null when the call has to fail fast. The returned permit must be completed with exactly one of
+     * {@link #onSuccess}, {@link #onFailure} or {@link #onCancel}.
+     */
+    public Permit tryAcquire() {
+        while (true) {
+            Snapshot current = state.get();
+            switch (current.state()) {
+                case CLOSED:
+                    return new Permit(false, current.generation());
+                case HALF_OPEN:
+                    return null;
+                case OPEN:
+                    long now = System.nanoTime();
+                    if (now - current.since() < openDurationNanos) {
+                        return null;
+                    }
+                    if (state.compareAndSet(current, new Snapshot(CircuitState.HALF_OPEN, now, current.generation()))) {
+                        log.info("Circuit '{}' half open, probing", name);
+                        return new Permit(true, current.generation());
+                    }
+            }
+        }
+    }
+
+    public void onSuccess(Permit permit) {
+        if (permit.probe()) {
+            close();
+        } else {
+            record(permit, false);
+        }
+    }
+
+    public void onFailure(Permit permit) {
+        if (permit.probe()) {
+            state.set(new Snapshot(CircuitState.OPEN, System.nanoTime(), permit.generation()));
+            log.warn("Circuit '{}' probe failed, open for another {}", name, Duration.ofNanos(openDurationNanos));
+        } else {
+            record(permit, true);
+        }
+    }
+
+    /**
+     * The call ended without an outcome (cancelled, or rejected by the bulkhead). A cancelled probe lets the
+     * next caller probe right away.
+     */
+    public void onCancel(Permit permit) {
+        if (permit.probe()) {
+            state.set(new Snapshot(CircuitState.OPEN, System.nanoTime() - openDurationNanos, permit.generation()));
+        }
+    }
+
+    public CircuitState getState() {
+        return state.get().state();
+    }
+
+    /**
+     * Failure rate of the current window in percent, 0 until {@code minimumCalls} were recorded.
+     */
+    public synchronized double getFailureRate() {
+        return recorded < minimumCalls ? 0 : failures * 100.0 / recorded;
+    }
+
+    /**
+     * Time until an open breaker lets a probe through.
+     */
+    public Duration getRetryAfter() {
+        Snapshot current = state.get();
+        if (current.state() == CircuitState.CLOSED) {
+            return Duration.ZERO;
+        }
+        if (current.state() == CircuitState.HALF_OPEN) {
+            return Duration.ofNanos(openDurationNanos);
+        }
+
+        return Duration.ofNanos(Math.max(0, openDurationNanos - (System.nanoTime() - current.since())));
+    }
+
+    private synchronized void record(Permit permit, boolean failure) {
+        Snapshot current = state.get();
+        // outcomes of calls admitted before the breaker last opened no longer count
+        if (current.state() != CircuitState.CLOSED || current.generation() != permit.generation()) {
+            return;
+        }
+
+        if (recorded == windowSize) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % windowSize;
+
+        if (failure && recorded >= minimumCalls && failures * 100.0 / recorded >= failureRateThreshold) {
+            state.set(new Snapshot(CircuitState.OPEN, System.nanoTime(), current.generation()));
+            log.warn("Circuit '{}' opened, {} of the last {} calls failed", name, failures, recorded);
+        }
+    }
+
+    private synchronized void close() {
+        Arrays.fill(outcomes, false);
+        recorded = 0;
+        next = 0;
+        failures = 0;
+        state.set(new Snapshot(CircuitState.CLOSED, System.nanoTime(), state.get().generation() + 1));
+        log.info("Circuit '{}' closed", name);
+    }
+
+    public record Permit(boolean probe, long generation) {}
+
+    private record Snapshot(CircuitState state, long since, long generation) {}
+
+}
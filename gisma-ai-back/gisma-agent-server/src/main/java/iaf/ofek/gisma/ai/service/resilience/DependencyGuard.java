@@ -0,0 +1,178 @@
+package iaf.ofek.gisma.ai.service.resilience;
+
+import iaf.ofek.gisma.ai.exception.DependencyUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.retry.NonTransientAiException;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker and bulkhead of one remote dependency. A call is rejected with
+ * {@link DependencyUnavailableException} while the breaker is open, or when {@code maxConcurrent} calls are already
+ * running (blocking callers wait up to {@code maxWait} for a slot, streams don't wait). Calls slower than
+ * {@code slowCallThreshold}, and streams that go quiet for that long, count as failures, so a dependency that hangs
+ * opens the breaker like one that errors. Client errors ({@link NonTransientAiException}) are the caller's fault and
+ * count as successes.
+ * <p>
+ * Exported: {@code resilience.circuit.state} (0 closed, 1 half open, 2 open), {@code resilience.bulkhead.available}
+ * gauges and {@code resilience.rejected} (per reason), all tagged with the dependency name.
+ */
+public class DependencyGuard {
+
+    private static final String REASON_CIRCUIT_OPEN = "circuit_open";
+
+    private static final String REASON_BULKHEAD_FULL = "bulkhead_full";
+
+    private final String name;
+
+    private final CircuitBreaker breaker;
+
+    private final Semaphore bulkhead;
+
+    private final int maxConcurrent;
+
+    private final Duration maxWait;
+
+    private final Duration slowCallThreshold;
+
+    private final MeterRegistry meterRegistry;
+
+    public DependencyGuard(String name, CircuitBreaker breaker, int maxConcurrent, Duration maxWait,
+                           Duration slowCallThreshold, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.breaker = breaker;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.bulkhead = new Semaphore(this.maxConcurrent);
+        this.maxWait = maxWait;
+        this.slowCallThreshold = slowCallThreshold;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("resilience.circuit.state", breaker, b -> b.getState().ordinal())
+                .tag("name", name)
+                .register(meterRegistry);
+        Gauge.builder("resilience.bulkhead.available", bulkhead, Semaphore::availablePermits)
+                .tag("name", name)
+                .register(meterRegistry);
+    }
+
+    public <T> T call(Supplier<T> call) {
+        CircuitBreaker.Permit permit = acquirePermit();
+        acquireBulkhead(permit, maxWait);
+        try {
+            long start = System.nanoTime();
+            T result;
+            try {
+                result = call.get();
+            } catch (RuntimeException e) {
+                complete(permit, e);
+                throw e;
+            }
+
+            if (System.nanoTime() - start > slowCallThreshold.toNanos()) {
+                breaker.onFailure(permit);
+            } else {
+                breaker.onSuccess(permit);
+            }
+
+            return result;
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Like {@link #call(Supplier)}, but answers with {@code fallback} instead of failing fast.
+     * Failures of the dependency itself are still thrown.
+     */
+    public <T> T call(Supplier<T> call, Supplier<T> fallback) {
+        try {
+            return call(call);
+        } catch (DependencyUnavailableException e) {
+            return fallback.get();
+        }
+    }
+
+    /**
+     * Admitted on subscription, the bulkhead slot is held until the stream terminates or is cancelled.
+     */
+    public <T> Flux<T> stream(Supplier<Flux<T>> call) {
+        return Flux.defer(() -> {
+            CircuitBreaker.Permit permit = acquirePermit();
+            acquireBulkhead(permit, Duration.ZERO);
+
+            return Flux.defer(call)
+                    .timeout(slowCallThreshold)
+                    .doOnComplete(() -> breaker.onSuccess(permit))
+                    .doOnError(e -> complete(permit, e))
+                    .doOnCancel(() -> breaker.onCancel(permit))
+                    .doFinally(signal -> bulkhead.release());
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getAvailableConcurrency() {
+        return bulkhead.availablePermits();
+    }
+
+    private CircuitBreaker.Permit acquirePermit() {
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        if (permit == null) {
+            reject(REASON_CIRCUIT_OPEN);
+            throw new DependencyUnavailableException("%s is unavailable, try again shortly".formatted(name),
+                    breaker.getRetryAfter());
+        }
+
+        return permit;
+    }
+
+    private void acquireBulkhead(CircuitBreaker.Permit permit, Duration wait) {
+        boolean acquired;
+        try {
+            acquired = wait.isZero()
+                    ? bulkhead.tryAcquire()
+                    : bulkhead.tryAcquire(wait.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            breaker.onCancel(permit);
+            reject(REASON_BULKHEAD_FULL);
+            throw new DependencyUnavailableException("%s is busy, try again shortly".formatted(name), Duration.ofSeconds(1));
+        }
+    }
+
+    private void complete(CircuitBreaker.Permit permit, Throwable error) {
+        if (error instanceof NonTransientAiException) {
+            breaker.onSuccess(permit);
+        } else {
+            breaker.onFailure(permit);
+        }
+    }
+
+    private void reject(String reason) {
+        Counter.builder("resilience.rejected")
+                .tag("name", name)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+}
@@ -0,0 +1,72 @@
+package iaf.ofek.gisma.ai.service.resilience;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Guards of the remote dependencies of the agent. The breaker settings under {@code sa.resilience.*} are shared,
+ * concurrency and slow call threshold are set per dependency under {@code sa.resilience.<name>.*}.
+ */
+@Component
+public class DependencyGuards {
+
+    public static final String CHAT_MODEL = "chat-model";
+
+    public static final String EMBEDDING_MODEL = "embedding-model";
+
+    public static final String MCP_TOOLS = "mcp-tools";
+
+    private final Environment environment;
+
+    private final MeterRegistry meterRegistry;
+
+    private final DependencyGuard chatModel;
+
+    private final DependencyGuard embeddingModel;
+
+    private final DependencyGuard mcpTools;
+
+    public DependencyGuards(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+        this.chatModel = guard(CHAT_MODEL, 16, Duration.ofSeconds(60));
+        this.embeddingModel = guard(EMBEDDING_MODEL, 16, Duration.ofSeconds(30));
+        this.mcpTools = guard(MCP_TOOLS, 16, Duration.ofSeconds(20));
+    }
+
+    public DependencyGuard chatModel() {
+        return chatModel;
+    }
+
+    public DependencyGuard embeddingModel() {
+        return embeddingModel;
+    }
+
+    public DependencyGuard mcpTools() {
+        return mcpTools;
+    }
+
+    public List<DependencyGuard> all() {
+        return List.of(chatModel, embeddingModel, mcpTools);
+    }
+
+    private DependencyGuard guard(String name, int defaultMaxConcurrent, Duration defaultSlowCallThreshold) {
+        CircuitBreaker breaker = new CircuitBreaker(name,
+                environment.getProperty("sa.resilience.window-size", Integer.class, 20),
+                environment.getProperty("sa.resilience.minimum-calls", Integer.class, 10),
+                environment.getProperty("sa.resilience.failure-rate-threshold", Double.class, 50d),
+                environment.getProperty("sa.resilience.open-duration", Duration.class, Duration.ofSeconds(30)));
+
+        return new DependencyGuard(name, breaker,
+                environment.getProperty("sa.resilience." + name + ".max-concurrent", Integer.class, defaultMaxConcurrent),
+                environment.getProperty("sa.resilience.max-wait", Duration.class, Duration.ofSeconds(2)),
+                environment.getProperty("sa.resilience." + name + ".slow-call-threshold", Duration.class,
+                        defaultSlowCallThreshold),
+                meterRegistry);
+    }
+
+}
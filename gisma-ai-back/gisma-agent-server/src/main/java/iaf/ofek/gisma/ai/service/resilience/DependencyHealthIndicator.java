@@ -0,0 +1,44 @@
+package iaf.ofek.gisma.ai.service.resilience;
+
+import iaf.ofek.gisma.ai.enums.CircuitState;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * {@code dependencies} component of {@code /actuator/health}: breaker state and free bulkhead slots per dependency.
+ * An open or half open breaker reports {@code DEGRADED}, the server still answers (with fallbacks) so the status
+ * maps to 200, see {@code management.endpoint.health.status.*}.
+ */
+@Component("dependencies")
+@RequiredArgsConstructor
+public class DependencyHealthIndicator implements HealthIndicator {
+
+    public static final Status DEGRADED = new Status("DEGRADED");
+
+    private final DependencyGuards guards;
+
+    @Override
+    public Health health() {
+        Health.Builder builder = Health.up();
+        for (DependencyGuard guard : guards.all()) {
+            CircuitBreaker breaker = guard.getBreaker();
+            if (breaker.getState() != CircuitState.CLOSED) {
+                builder.status(DEGRADED);
+            }
+            builder.withDetail(guard.getName(), Map.of(
+                    "state", breaker.getState(),
+                    "failureRate", breaker.getFailureRate(),
+                    "retryAfter", breaker.getRetryAfter().toString(),
+                    "availableConcurrency", guard.getAvailableConcurrency(),
+                    "maxConcurrency", guard.getMaxConcurrent()));
+        }
+
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,38 @@
+package iaf.ofek.gisma.ai.service.resilience;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+/**
+ * Chat model behind the {@code chat-model} guard. Tool calls run inside the model call and are guarded separately.
+ */
+public class GuardedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+
+    private final DependencyGuard guard;
+
+    public GuardedChatModel(ChatModel delegate, DependencyGuard guard) {
+        this.delegate = delegate;
+        this.guard = guard;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return guard.call(() -> delegate.call(prompt));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return guard.stream(() -> delegate.stream(prompt));
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+}
@@ -0,0 +1,52 @@
+package iaf.ofek.gisma.ai.service.resilience;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.List;
+
+/**
+ * Embedding model behind the {@code embedding-model} guard, one guarded call per provider request: a batched
+ * {@link #embed(List, EmbeddingOptions, BatchingStrategy)} goes through the default implementation, which sends
+ * every sub-batch of the strategy through {@link #call}. Embedding a large document is many short calls, not one
+ * that trips the slow call threshold.
+ */
+public class GuardedEmbeddingModel implements EmbeddingModel, DisposableBean {
+
+    private final EmbeddingModel delegate;
+
+    private final DependencyGuard guard;
+
+    public GuardedEmbeddingModel(EmbeddingModel delegate, DependencyGuard guard) {
+        this.delegate = delegate;
+        this.guard = guard;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return guard.call(() -> delegate.call(request));
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return guard.call(() -> delegate.embed(document));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (delegate instanceof DisposableBean disposable) {
+            disposable.destroy();
+        }
+    }
+
+}
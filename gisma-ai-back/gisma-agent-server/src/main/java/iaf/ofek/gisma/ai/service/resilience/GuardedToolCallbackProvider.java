@@ -0,0 +1,74 @@
+package iaf.ofek.gisma.ai.service.resilience;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.ToolCallbackProvider;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+
+import java.util.Arrays;
+
+/**
+ * MCP tools behind the {@code mcp-tools} guard. Instead of failing the whole answer, a rejected tool listing
+ * leaves the model without tools and a rejected tool call returns an error the model can read, so the answer
+ * goes on with documentation and memory only.
+ */
+@Log4j2
+public class GuardedToolCallbackProvider implements ToolCallbackProvider {
+
+    private static final String UNAVAILABLE_RESULT =
+            "{\"error\":\"The tool is temporarily unavailable. Answer without live data and tell the user so.\"}";
+
+    private final ToolCallbackProvider delegate;
+
+    private final DependencyGuard guard;
+
+    public GuardedToolCallbackProvider(ToolCallbackProvider delegate, DependencyGuard guard) {
+        this.delegate = delegate;
+        this.guard = guard;
+    }
+
+    @Override
+    public ToolCallback[] getToolCallbacks() {
+        return guard.call(
+                () -> Arrays.stream(delegate.getToolCallbacks())
+                        .map(GuardedToolCallback::new)
+                        .toArray(ToolCallback[]::new),
+                () -> {
+                    log.warn("MCP tools unavailable, answering without tools");
+                    return new ToolCallback[0];
+                });
+    }
+
+    private class GuardedToolCallback implements ToolCallback {
+
+        private final ToolCallback delegate;
+
+        GuardedToolCallback(ToolCallback delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return delegate.getToolDefinition();
+        }
+
+        @Override
+        public ToolMetadata getToolMetadata() {
+            return delegate.getToolMetadata();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            return guard.call(() -> delegate.call(toolInput), () -> UNAVAILABLE_RESULT);
+        }
+
+        @Override
+        public String call(String toolInput, ToolContext toolContext) {
+            return guard.call(() -> delegate.call(toolInput, toolContext), () -> UNAVAILABLE_RESULT);
+        }
+
+    }
+
+}
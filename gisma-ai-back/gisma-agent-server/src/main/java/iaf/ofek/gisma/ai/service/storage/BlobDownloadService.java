@@ -0,0 +1,181 @@
+package iaf.ofek.gisma.ai.service.storage;
+
+import iaf.ofek.gisma.ai.dto.storage.BlobInfo;
+import jakarta.persistence.EntityNotFoundException;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.apache.catalina.Globals;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Serves stored files over HTTP without buffering them:
+ * <ul>
+ *     <li>the {@code ETag} comes from the store (S3 object ETag, SHA-256 of local files), a matching
+ *     {@code If-None-Match} is answered with 304 and no storage read</li>
+ *     <li>a single {@code Range} is answered with 206 and only those bytes are read from storage, {@code If-Range}
+ *     is honored, multiple ranges get the whole file</li>
+ *     <li>local files go out with Tomcat's sendfile when the connector supports it (the kernel copies them to the
+ *     socket), anything else is streamed from the store on the MVC async executor</li>
+ * </ul>
+ */
+@Service
+@RequiredArgsConstructor
+@Log4j2
+public class BlobDownloadService {
+
+    // below this copying is cheaper than setting up sendfile, same threshold as Tomcat's DefaultServlet
+    private static final long MIN_SENDFILE_SIZE = 48 * 1024;
+
+    private final BlobStore blobStore;
+
+    public ResponseEntity<StreamingResponseBody> download(String url, String filename, String contentType,
+                                                          HttpServletRequest request) {
+        BlobInfo blob = blobStore.stat(url)
+                .orElseThrow(() -> new EntityNotFoundException("Stored file of `%s` not found".formatted(filename)));
+        String etag = blob.etag() != null
+                ? blob.etag()
+                : "\"%x-%x\"".formatted(blob.size(), blob.lastModified().toEpochMilli());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(etag);
+        // private and always revalidated, access is checked on every request
+        headers.setCacheControl(CacheControl.noCache().cachePrivate());
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (blob.lastModified() != null) {
+            headers.setLastModified(blob.lastModified());
+        }
+
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .headers(headers)
+                    .build();
+        }
+
+        headers.setContentType(mediaType(contentType));
+        headers.setContentDisposition(ContentDisposition.inline()
+                .filename(filename, StandardCharsets.UTF_8)
+                .build());
+
+        long start = 0;
+        long length = blob.size();
+        HttpStatus status = HttpStatus.OK;
+        Optional<HttpRange> range;
+        try {
+            range = range(request, etag);
+            if (range.isPresent()) {
+                start = range.get().getRangeStart(blob.size());
+                // HttpRange only rejects malformed ranges, one starting past the end is ours to reject
+                if (start >= blob.size()) {
+                    throw new IllegalArgumentException("Range starts past the end of the file");
+                }
+                long end = range.get().getRangeEnd(blob.size());
+                length = end - start + 1;
+                status = HttpStatus.PARTIAL_CONTENT;
+                headers.set(HttpHeaders.CONTENT_RANGE, "bytes %d-%d/%d".formatted(start, end, blob.size()));
+            }
+        } catch (IllegalArgumentException e) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + blob.size());
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .headers(headers)
+                    .build();
+        }
+        headers.setContentLength(length);
+
+        if (length == 0) {
+            return ResponseEntity.status(status)
+                    .headers(headers)
+                    .build();
+        }
+
+        Optional<Path> file = blobStore.localFile(url);
+        if (file.isPresent() && length >= MIN_SENDFILE_SIZE
+                && Boolean.TRUE.equals(request.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR))) {
+            // Tomcat writes the file once the handler returns, the response has headers only
+            request.setAttribute(Globals.SENDFILE_FILENAME_ATTR, file.get().toString());
+            request.setAttribute(Globals.SENDFILE_FILE_START_ATTR, start);
+            request.setAttribute(Globals.SENDFILE_FILE_END_ATTR, start + length);
+
+            return ResponseEntity.status(status)
+                    .headers(headers)
+                    .build();
+        }
+
+        boolean partial = status == HttpStatus.PARTIAL_CONTENT;
+        long offset = start;
+        long count = length;
+        return ResponseEntity.status(status)
+                .headers(headers)
+                .body(outputStream -> {
+                    try (InputStream inputStream = partial
+                            ? blobStore.open(url, offset, count)
+                            : blobStore.open(url)) {
+                        inputStream.transferTo(outputStream);
+                    }
+                });
+    }
+
+    /**
+     * The single requested range, empty for none, several, or an {@code If-Range} that no longer matches.
+     *
+     * @throws IllegalArgumentException for a malformed or unsatisfiable range
+     */
+    private static Optional<HttpRange> range(HttpServletRequest request, String etag) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null) {
+            return Optional.empty();
+        }
+
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.trim().equals(etag)) {
+            return Optional.empty();
+        }
+
+        List<HttpRange> ranges = HttpRange.parseRanges(header);
+
+        return ranges.size() == 1 ? Optional.of(ranges.get(0)) : Optional.empty();
+    }
+
+    /**
+     * Weak comparison, as {@code If-None-Match} requires.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        String opaque = stripWeak(etag);
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .anyMatch(candidate -> candidate.equals("*") || stripWeak(candidate).equals(opaque));
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static MediaType mediaType(String contentType) {
+        try {
+            return contentType == null ? MediaType.APPLICATION_OCTET_STREAM : MediaType.parseMediaType(contentType);
+        } catch (IllegalArgumentException e) {
+            log.debug("Serving unparsable content type {} as octet stream.", contentType);
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package iaf.ofek.gisma.ai.service.storage;
+
+import iaf.ofek.gisma.ai.dto.storage.BlobInfo;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Storage of document bytes. Objects are addressed by the url {@link #put} returns, which is what document
+ * and content rows keep. Selected by {@code sa.blob-store.type}: {@code s3} (default) or {@code local}.
+ */
+public interface BlobStore {
+
+    /**
+     * @return url the stored file is referenced by
+     */
+    String put(MultipartFile file);
+
+    /**
+     * Caller closes the stream.
+     */
+    InputStream open(String url);
+
+    /**
+     * {@code length} bytes starting at {@code offset}, only those are read from storage. Caller closes the stream.
+     */
+    InputStream open(String url, long offset, long length);
+
+    /**
+     * @return empty when nothing is stored under the url
+     */
+    Optional<BlobInfo> stat(String url);
+
+    /**
+     * File on local disk backing the url, lets downloads hand it to the kernel (sendfile) instead of copying it.
+     */
+    default Optional<Path> localFile(String url) {
+        return Optional.empty();
+    }
+
+    /**
+     * Best effort, failures are logged and left for the orphan collector.
+     */
+    void delete(String url);
+
+    /**
+     * @return number of deleted objects
+     */
+    int deleteAll(List<String> urls);
+
+    /**
+     * Walks all stored objects a page at a time.
+     */
+    void list(Consumer<List<BlobInfo>> pageConsumer);
+
+}
@@ -0,0 +1,26 @@
+package iaf.ofek.gisma.ai.service.storage;
+
+import iaf.ofek.gisma.ai.dto.storage.PresignedUpload;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Blob store clients can upload to directly, without the bytes passing through the server.
+ * Uploads are bound to the SHA-256 the client announces, the store rejects bytes that don't match it.
+ */
+public interface DirectUploadStore {
+
+    /**
+     * @param sha256 lowercase hex SHA-256 of the file
+     */
+    PresignedUpload presignUpload(String key, String contentType, long size, String sha256, Duration ttl);
+
+    /**
+     * Url of the uploaded object, empty when nothing with that size and SHA-256 was uploaded under the key.
+     */
+    Optional<String> verifyUpload(String key, long size, String sha256);
+
+    void deleteUpload(String key);
+
+}
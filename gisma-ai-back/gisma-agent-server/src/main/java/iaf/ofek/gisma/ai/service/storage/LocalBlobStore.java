@@ -0,0 +1,226 @@
+package iaf.ofek.gisma.ai.service.storage;
+
+import iaf.ofek.gisma.ai.dto.storage.BlobInfo;
+import iaf.ofek.gisma.ai.util.HashUtils;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Blob store on a local (or mounted) directory, for single node deployments with fast local disks.
+ * Objects are content addressed: {@code <root>/ab/cd/<sha256>.<ext>}, so storing the same bytes twice keeps one file.
+ * Uploads are copied with {@link FileChannel#transferFrom} into {@code <root>/.tmp}, hashed on the way,
+ * forced to disk and renamed into place atomically, readers never see a partial file.
+ * Urls are {@code file:} URIs of the object paths.
+ */
+@Service
+@ConditionalOnProperty(name = "sa.blob-store.type", havingValue = "local")
+@Log4j2
+public class LocalBlobStore implements BlobStore {
+
+    private static final String TMP_DIR = ".tmp";
+
+    private static final long TRANSFER_CHUNK = 8L * 1024 * 1024;
+
+    private static final int LIST_PAGE_SIZE = 1000;
+
+    private final Path root;
+
+    private final Path tmpDir;
+
+    public LocalBlobStore(@Value("${sa.blob-store.local.root}") Path root) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.tmpDir = this.root.resolve(TMP_DIR);
+        Files.createDirectories(tmpDir);
+        log.info("Storing documents under {}.", this.root);
+    }
+
+    @Override
+    public String put(MultipartFile file) {
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("Uploaded file is empty");
+        }
+
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(tmpDir, "upload-", ".part");
+            MessageDigest digest = HashUtils.sha256();
+
+            try (ReadableByteChannel source = Channels.newChannel(new DigestInputStream(file.getInputStream(), digest));
+                 FileChannel target = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                long position = 0;
+                long transferred;
+                while ((transferred = target.transferFrom(source, position, TRANSFER_CHUNK)) > 0) {
+                    position += transferred;
+                }
+                target.force(true);
+            }
+
+            Path path = pathOf(HexFormat.of().formatHex(digest.digest()), FilenameUtils.getExtension(file.getOriginalFilename()));
+            Files.createDirectories(path.getParent());
+            // an existing file has the same bytes, replacing it is harmless
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            return path.toUri().toString();
+        } catch (IOException e) {
+            log.warn("Failed to store file {}: {}.", file.getOriginalFilename(), e.getMessage());
+            throw new UncheckedIOException("Failed to store file", e);
+        } finally {
+            deleteQuietly(tmp);
+        }
+    }
+
+    @Override
+    public InputStream open(String url) {
+        try {
+            return Channels.newInputStream(FileChannel.open(resolve(url), StandardOpenOption.READ));
+        } catch (IOException e) {
+            log.warn("Failed to read file {}: {}.", url, e.getMessage());
+            throw new UncheckedIOException("Failed to read file", e);
+        }
+    }
+
+    @Override
+    public InputStream open(String url, long offset, long length) {
+        try {
+            FileChannel channel = FileChannel.open(resolve(url), StandardOpenOption.READ);
+            channel.position(offset);
+
+            return new BoundedInputStream(Channels.newInputStream(channel), length);
+        } catch (IOException e) {
+            log.warn("Failed to read range of file {}: {}.", url, e.getMessage());
+            throw new UncheckedIOException("Failed to read file", e);
+        }
+    }
+
+    @Override
+    public Optional<BlobInfo> stat(String url) {
+        Path path = resolve(url);
+
+        return Files.isRegularFile(path) ? Optional.of(info(path)) : Optional.empty();
+    }
+
+    @Override
+    public Optional<Path> localFile(String url) {
+        return Optional.of(resolve(url));
+    }
+
+    @Override
+    public void delete(String url) {
+        try {
+            Files.deleteIfExists(resolve(url));
+        } catch (Exception e) {
+            // left for the orphan collector
+            log.warn("Failed to delete file {}: {}.", url, e.getMessage());
+        }
+    }
+
+    @Override
+    public int deleteAll(List<String> urls) {
+        int deleted = 0;
+        for (String url : urls) {
+            try {
+                if (Files.deleteIfExists(resolve(url))) {
+                    deleted++;
+                }
+            } catch (Exception e) {
+                log.warn("Failed to delete file {}: {}.", url, e.getMessage());
+            }
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public void list(Consumer<List<BlobInfo>> pageConsumer) {
+        List<BlobInfo> page = new ArrayList<>();
+
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(path -> !path.startsWith(tmpDir))
+                    .filter(Files::isRegularFile)
+                    .forEach(path -> {
+                        page.add(info(path));
+                        if (page.size() == LIST_PAGE_SIZE) {
+                            pageConsumer.accept(List.copyOf(page));
+                            page.clear();
+                        }
+                    });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed listing " + root, e);
+        }
+
+        if (!page.isEmpty()) {
+            pageConsumer.accept(page);
+        }
+    }
+
+    private Path pathOf(String sha256, String extension) {
+        String name = extension == null || extension.isBlank() ? sha256 : sha256 + "." + extension.toLowerCase(Locale.ROOT);
+
+        return root.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(name);
+    }
+
+    /**
+     * Path of a url handed out by this store, anything pointing outside the root is rejected.
+     */
+    private Path resolve(String url) {
+        Path path = Path.of(URI.create(url)).toAbsolutePath().normalize();
+        if (!path.startsWith(root) || path.startsWith(tmpDir)) {
+            throw new IllegalArgumentException("Not a stored file: " + url);
+        }
+
+        return path;
+    }
+
+    private static BlobInfo info(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            // files are named by their SHA-256
+            String etag = "\"%s\"".formatted(FilenameUtils.getBaseName(path.getFileName().toString()));
+
+            return new BlobInfo(path.toUri().toString(), attributes.lastModifiedTime().toInstant(), attributes.size(), etag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.debug("Failed deleting temp file {}: {}.", path, e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,289 @@
+package iaf.ofek.gisma.ai.service.storage;
+
+
+import iaf.ofek.gisma.ai.dto.storage.BlobInfo;
+import iaf.ofek.gisma.ai.dto.storage.PresignedUpload;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetUrlRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import org.apache.commons.io.FilenameUtils;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+@RequiredArgsConstructor
+@Service
+@ConditionalOnProperty(name = "sa.blob-store.type", havingValue = "s3", matchIfMissing = true)
+@Log4j2
+public class S3BlobStore implements BlobStore, DirectUploadStore {
+
+    private static final int MAX_KEYS_PER_DELETE = 1000;
+
+    private final S3Client s3Client;
+
+    private final S3Presigner s3Presigner;
+
+    @Value("${aws.s3.bucket-name}")
+    private String bucketName;
+
+    @Override
+    public String put(MultipartFile file) {
+        if (file == null || file.isEmpty()) {
+        throw new IllegalArgumentException("Uploaded file is empty");
+        }
+
+        try (InputStream inputStream = file.getInputStream()) {
+            String key = generateKey(file);
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .contentType(file.getContentType())
+                    .build();
+
+            s3Client.putObject(putObjectRequest, RequestBody.fromInputStream(inputStream, file.getSize()));
+
+            return getFileUrl(key);
+        } catch (IOException | S3Exception e) {
+            log.warn("Failed to upload file to S3: {}.", e.getMessage());
+            throw new RuntimeException("Failed to upload file to S3", e);
+        }
+    }
+
+    @Override
+    public InputStream open(String fileUrl) {
+        try {
+            GetObjectRequest request = GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(keyOf(fileUrl))
+                    .build();
+
+            return s3Client.getObject(request);
+        } catch (URISyntaxException | S3Exception e) {
+            log.warn("Failed to download file {} from S3: {}.", fileUrl, e.getMessage());
+            throw new RuntimeException("Failed to download file from S3", e);
+        }
+    }
+
+    @Override
+    public InputStream open(String fileUrl, long offset, long length) {
+        try {
+            GetObjectRequest request = GetObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(keyOf(fileUrl))
+                    .range("bytes=%d-%d".formatted(offset, offset + length - 1))
+                    .build();
+
+            return s3Client.getObject(request);
+        } catch (URISyntaxException | S3Exception e) {
+            log.warn("Failed to download range of file {} from S3: {}.", fileUrl, e.getMessage());
+            throw new RuntimeException("Failed to download file from S3", e);
+        }
+    }
+
+    @Override
+    public Optional<BlobInfo> stat(String fileUrl) {
+        try {
+            HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(keyOf(fileUrl))
+                    .build());
+
+            return Optional.of(new BlobInfo(fileUrl, head.lastModified(),
+                    head.contentLength() == null ? 0 : head.contentLength(), head.eTag()));
+        } catch (URISyntaxException e) {
+            return Optional.empty();
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return Optional.empty();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(String fileUrl) {
+        try {
+            String key = keyOf(fileUrl);
+            DeleteObjectRequest deleteObjectRequest = DeleteObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .build();
+            s3Client.deleteObject(deleteObjectRequest);
+        } catch (Exception e) {
+            // left for the orphan collector
+            log.warn("Failed to delete file {} from S3: {}.", fileUrl, e.getMessage());
+        }
+    }
+
+    /**
+     * Walks the bucket listing one page (up to 1000 objects) at a time.
+     */
+    @Override
+    public void list(Consumer<List<BlobInfo>> pageConsumer) {
+        ListObjectsV2Request request = ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .build();
+
+        s3Client.listObjectsV2Paginator(request)
+                .forEach(page -> pageConsumer.accept(page.contents()
+                        .stream()
+                        .map(object -> new BlobInfo(getFileUrl(object.key()), object.lastModified(),
+                                object.size() == null ? 0 : object.size(), object.eTag()))
+                        .toList()));
+    }
+
+    /**
+     * Deletes the objects in requests of up to 1000 keys.
+     */
+    @Override
+    public int deleteAll(List<String> fileUrls) {
+        List<String> keys = new ArrayList<>();
+        for (String fileUrl : fileUrls) {
+            try {
+                keys.add(keyOf(fileUrl));
+            } catch (URISyntaxException e) {
+                log.warn("Skipped deleting malformed url {}.", fileUrl);
+            }
+        }
+
+        int deleted = 0;
+        for (int from = 0; from < keys.size(); from += MAX_KEYS_PER_DELETE) {
+            deleted += deleteKeys(keys.subList(from, Math.min(from + MAX_KEYS_PER_DELETE, keys.size())));
+        }
+
+        return deleted;
+    }
+
+    /**
+     * The announced size and checksum are signed into the url, S3 rejects an upload whose bytes don't match them.
+     */
+    @Override
+    public PresignedUpload presignUpload(String key, String contentType, long size, String sha256, Duration ttl) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .contentLength(size)
+                .checksumSHA256(base64(sha256))
+                .build();
+        PresignedPutObjectRequest presigned = s3Presigner.presignPutObject(PutObjectPresignRequest.builder()
+                .signatureDuration(ttl)
+                .putObjectRequest(putObjectRequest)
+                .build());
+
+        Map<String, String> headers = new HashMap<>();
+        presigned.signedHeaders().forEach((name, values) -> {
+            // set by the client's http stack from the url / body
+            if (!"host".equalsIgnoreCase(name) && !"content-length".equalsIgnoreCase(name)) {
+                headers.put(name, String.join(",", values));
+            }
+        });
+
+        return new PresignedUpload(presigned.url().toString(), presigned.httpRequest().method().name(), headers,
+                presigned.expiration());
+    }
+
+    @Override
+    public Optional<String> verifyUpload(String key, long size, String sha256) {
+        try {
+            HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .checksumMode(ChecksumMode.ENABLED)
+                    .build());
+            if (head.contentLength() == null || head.contentLength() != size || !base64(sha256).equals(head.checksumSHA256())) {
+                log.warn("Upload {} doesn't match its announced size / checksum.", key);
+                return Optional.empty();
+            }
+
+            return Optional.of(getFileUrl(key));
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                return Optional.empty();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void deleteUpload(String key) {
+        delete(getFileUrl(key));
+    }
+
+    private int deleteKeys(List<String> keys) {
+        DeleteObjectsRequest request = DeleteObjectsRequest.builder()
+                .bucket(bucketName)
+                .delete(Delete.builder()
+                        .objects(keys.stream()
+                                .map(key -> ObjectIdentifier.builder().key(key).build())
+                                .toList())
+                        .quiet(true)
+                        .build())
+                .build();
+        DeleteObjectsResponse response = s3Client.deleteObjects(request);
+        response.errors().forEach(error ->
+                log.warn("Failed to delete key {} from S3: {}.", error.key(), error.message()));
+
+        return keys.size() - response.errors().size();
+    }
+
+    private String getFileUrl(String key) {
+        GetUrlRequest request = GetUrlRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build();
+        URL url = s3Client.utilities().getUrl(request);
+
+        return url.toString();
+    }
+
+    private static String base64(String sha256Hex) {
+        return Base64.getEncoder().encodeToString(HexFormat.of().parseHex(sha256Hex));
+    }
+
+    private static String keyOf(String fileUrl) throws URISyntaxException {
+        return new URI(fileUrl).getPath().substring(1);
+    }
+
+    private String generateKey(MultipartFile file) {
+        String originalName = file.getOriginalFilename();
+        String baseName = FilenameUtils.getBaseName(originalName);
+        String extension = FilenameUtils.getExtension(originalName);
+
+        return String.format("%s_%s.%s", baseName, Instant.now().toString(), extension);
+    }
+
+}
@@ -0,0 +1,87 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Serves repeated similarity searches from memory. The corpus version is part of the key,
+ * so bumping it makes every older entry unreachable and they age out of the cache.
+ * Writes through this store bump the {@link CorpusVersion} themselves, callers only bump it for changes made
+ * around the store (SQL metadata updates, the re-embedding cutover).
+ */
+public class CachingVectorStore implements VectorStore {
+
+    private final VectorStore delegate;
+
+    private final Cache<RetrievalKey, List<Document>> cache;
+
+    private final CorpusVersion corpusVersion;
+
+    public CachingVectorStore(VectorStore delegate, Cache<RetrievalKey, List<Document>> cache, CorpusVersion corpusVersion) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.corpusVersion = corpusVersion;
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        delegate.add(documents);
+        corpusVersion.bump();
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        delegate.delete(idList);
+        corpusVersion.bump();
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        delegate.delete(filterExpression);
+        corpusVersion.bump();
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        RetrievalKey key = new RetrievalKey(
+                sha256(request.getQuery()),
+                request.getTopK(),
+                request.getSimilarityThreshold(),
+                Objects.toString(request.getFilterExpression(), ""),
+                corpusVersion.current()
+        );
+
+        return cache.get(key, k -> List.copyOf(delegate.similaritySearch(request)));
+    }
+
+    @Override
+    public <T> Optional<T> getNativeClient() {
+        return delegate.getNativeClient();
+    }
+
+    /**
+     * The query text maps 1:1 to its embedding for a fixed model, hashing it avoids an embedding call per lookup.
+     */
+    private static String sha256(String query) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(query.strip().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public record RetrievalKey(String queryHash, int topK, double similarityThreshold, String filter, long corpusVersion) {}
+
+}
@@ -0,0 +1,78 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+import iaf.ofek.gisma.ai.repository.CorpusVersionRepository;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonically increasing version of the global document corpus.
+ * Every write to the document vector store must bump it, cached retrieval results of older versions are never served.
+ * <p>
+ * The version is shared through the {@code corpus_version_seq} sequence and only polled: bumps of other nodes apply
+ * here within {@code sa.vectorstore.cache.sync-interval}. A bump that can't reach the database still invalidates
+ * the local cache.
+ */
+@Component
+@Log4j2
+public class CorpusVersion {
+
+    private final CorpusVersionRepository corpusVersionRepository;
+
+    private final AtomicLong shared = new AtomicLong();
+
+    // bumps that failed to reach the database, both counters only grow so their sum never repeats
+    private final AtomicLong local = new AtomicLong();
+
+    public CorpusVersion(CorpusVersionRepository corpusVersionRepository) {
+        this.corpusVersionRepository = corpusVersionRepository;
+        sync();
+    }
+
+    public long current() {
+        return shared.get() + local.get();
+    }
+
+    /**
+     * Inside a transaction the bump is deferred to after commit, otherwise a search running
+     * before the commit could cache the old corpus under the new version.
+     */
+    public void bump() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            increment();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                increment();
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${sa.vectorstore.cache.sync-interval:PT5S}")
+    public void sync() {
+        try {
+            long version = corpusVersionRepository.current();
+            shared.accumulateAndGet(version, Math::max);
+        } catch (Exception e) {
+            log.warn("Failed syncing the corpus version: {}.", e.getMessage());
+        }
+    }
+
+    private void increment() {
+        try {
+            long version = corpusVersionRepository.next();
+            shared.accumulateAndGet(version, Math::max);
+        } catch (Exception e) {
+            log.warn("Failed bumping the shared corpus version, only this node drops its cache: {}.", e.getMessage());
+            local.incrementAndGet();
+        }
+    }
+
+}
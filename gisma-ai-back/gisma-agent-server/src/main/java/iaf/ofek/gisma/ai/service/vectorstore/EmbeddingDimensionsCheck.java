@@ -0,0 +1,77 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static iaf.ofek.gisma.ai.constant.DBTableNames.DOCUMENT_VECTOR_STORE;
+import static iaf.ofek.gisma.ai.constant.DBTableNames.USER_DOCUMENT_VECTOR_STORE;
+
+/**
+ * Fails startup when the embedding model, {@code sa.vectorstore.dimensions} and the vector columns disagree,
+ * instead of failing on the first insert or silently searching across incompatible vectors.
+ * Switching models is done with gisma-ai-db/migrations/004_embedding_dimensions.sql.
+ */
+@Component
+@Log4j2
+public class EmbeddingDimensionsCheck implements InitializingBean {
+
+    // atttypmod of a vector(n) column is n
+    private static final String COLUMN_DIMENSIONS_SQL = """
+            SELECT atttypmod FROM pg_attribute
+            WHERE attrelid = to_regclass(?) AND attname = 'embedding' AND NOT attisdropped
+            """;
+
+    private final EmbeddingModel embeddingModel;
+
+    private final SwitchableVectorStore documentStore;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String schema;
+
+    private final int dimensions;
+
+    public EmbeddingDimensionsCheck(EmbeddingModel embeddingModel,
+                                    @Qualifier("documentPgVectorStore") SwitchableVectorStore documentStore,
+                                    JdbcTemplate jdbcTemplate,
+                                    @Value("${spring.ai.vectorstore.pgvector.schema-name}") String schema,
+                                    @Value("${sa.vectorstore.dimensions:1536}") int dimensions) {
+        this.embeddingModel = embeddingModel;
+        this.documentStore = documentStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.schema = schema;
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        int modelDimensions = embeddingModel.dimensions();
+        if (modelDimensions != dimensions) {
+            throw new IllegalStateException("Embedding model produces %d dimensions but sa.vectorstore.dimensions is %d"
+                    .formatted(modelDimensions, dimensions));
+        }
+
+        // a completed re-embedding may have moved the document table to another model
+        checkColumn(DOCUMENT_VECTOR_STORE, documentStore.active().getDimensions());
+        checkColumn(USER_DOCUMENT_VECTOR_STORE, dimensions);
+
+        log.info("Embedding model {} with {} dimensions, document store with {} dimensions.",
+                embeddingModel.getClass().getSimpleName(), dimensions, documentStore.active().getDimensions());
+    }
+
+    private void checkColumn(String table, int expectedDimensions) {
+        List<Integer> columnDimensions = jdbcTemplate.queryForList(COLUMN_DIMENSIONS_SQL, Integer.class, schema + "." + table);
+        if (!columnDimensions.isEmpty() && columnDimensions.get(0) != expectedDimensions) {
+            throw new IllegalStateException("%s.embedding is vector(%d) but its embedding model produces %d dimensions, run migrations/004_embedding_dimensions.sql"
+                    .formatted(table, columnDimensions.get(0), expectedDimensions));
+        }
+    }
+
+}
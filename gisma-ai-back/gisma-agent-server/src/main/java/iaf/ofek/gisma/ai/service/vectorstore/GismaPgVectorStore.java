@@ -0,0 +1,184 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * pgvector store with a two-stage search: an ANN pass over the quantized companion column
+ * fetches {@code topK * oversample} candidates, which are then re-scored on the full precision vectors.
+ * Writes are delegated to {@link PgVectorStore}, companion and indexed metadata columns are filled by table triggers.
+ * Only cosine distance is supported.
+ */
+@Log4j2
+public class GismaPgVectorStore implements VectorStore {
+
+    private static final String DISTANCE = "distance";
+
+    private static final String EXACT_SEARCH_SQL = """
+            SELECT id, content, metadata, embedding <=> ? AS distance
+            FROM %s
+            WHERE embedding <=> ? < ? %s
+            ORDER BY distance
+            LIMIT ?
+            """;
+
+    private static final String TWO_STAGE_SEARCH_SQL = """
+            SELECT id, content, metadata, distance FROM (
+                SELECT id, content, metadata, embedding <=> ? AS distance
+                FROM (
+                    SELECT id, content, metadata, embedding
+                    FROM %s
+                    WHERE TRUE %s
+                    ORDER BY %s
+                    LIMIT ?
+                ) candidates
+            ) rescored
+            WHERE distance < ?
+            ORDER BY distance
+            LIMIT ?
+            """;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final PgVectorStore delegate;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final EmbeddingModel embeddingModel;
+
+    private final QueryEmbeddingCache queryEmbeddingCache;
+
+    @Getter
+    private final String tableName;
+
+    @Getter
+    private final QuantizationMode quantizationMode;
+
+    @Getter
+    private final int dimensions;
+
+    @Getter
+    private final int oversample;
+
+    private final MetadataFilterSql metadataFilterSql;
+
+    // qualified, the bare name resolves to the inherited VectorStore.Builder
+    @lombok.Builder
+    public GismaPgVectorStore(PgVectorStore delegate, JdbcTemplate jdbcTemplate, EmbeddingModel embeddingModel,
+                              QueryEmbeddingCache queryEmbeddingCache, String tableName, QuantizationMode quantizationMode,
+                              int dimensions, int oversample, List<IndexedMetadataColumn> indexedColumns) {
+        this.delegate = delegate;
+        this.jdbcTemplate = jdbcTemplate;
+        this.embeddingModel = embeddingModel;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.tableName = tableName;
+        this.quantizationMode = quantizationMode == null ? QuantizationMode.NONE : quantizationMode;
+        this.dimensions = dimensions;
+        this.oversample = Math.max(1, oversample);
+        this.metadataFilterSql = new MetadataFilterSql(indexedColumns == null ? List.of() : indexedColumns);
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        delegate.add(documents);
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        delegate.delete(idList);
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        delegate.delete(filterExpression);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] embedding = queryEmbeddingCache == null
+                ? embeddingModel.embed(request.getQuery())
+                : queryEmbeddingCache.embed(embeddingModel, request.getQuery());
+        PGvector queryEmbedding = new PGvector(embedding);
+
+        return search(queryEmbedding, request.getTopK(), request.getSimilarityThreshold(),
+                request.getFilterExpression(), quantizationMode);
+    }
+
+    public List<Document> search(PGvector queryEmbedding, int topK, double similarityThreshold,
+                                 Filter.Expression filterExpression, QuantizationMode mode) {
+        MetadataFilterSql.Predicates filter = metadataFilterSql.toSql(filterExpression);
+        double maxDistance = 1 - similarityThreshold;
+        List<Object> params = new ArrayList<>();
+
+        if (mode == QuantizationMode.NONE) {
+            params.add(queryEmbedding);
+            params.add(queryEmbedding);
+            params.add(maxDistance);
+            params.addAll(filter.params());
+            params.add(topK);
+
+            return jdbcTemplate.query(EXACT_SEARCH_SQL.formatted(tableName, filter.sql()), this::mapRow, params.toArray());
+        }
+
+        params.add(queryEmbedding);
+        params.addAll(filter.params());
+        params.add(queryEmbedding);
+        params.add(topK * oversample);
+        params.add(maxDistance);
+        params.add(topK);
+        String sql = TWO_STAGE_SEARCH_SQL.formatted(tableName, filter.sql(), mode.candidateOrderBy(dimensions));
+
+        return jdbcTemplate.query(sql, this::mapRow, params.toArray());
+    }
+
+    @Override
+    public <T> Optional<T> getNativeClient() {
+        return delegate.getNativeClient();
+    }
+
+    private Document mapRow(ResultSet rs, int rowNum) throws SQLException {
+        double distance = rs.getDouble(DISTANCE);
+        Map<String, Object> metadata = new HashMap<>(parseMetadata(rs.getString("metadata")));
+        metadata.put(DISTANCE, distance);
+
+        return Document.builder()
+                .id(rs.getString("id"))
+                .text(rs.getString("content"))
+                .metadata(metadata)
+                .score(1.0 - distance)
+                .build();
+    }
+
+    private Map<String, Object> parseMetadata(String json) {
+        if (json == null) {
+            return Map.of();
+        }
+
+        try {
+            return objectMapper.readValue(json, new TypeReference<>() {});
+        } catch (JsonProcessingException e) {
+            log.warn("Failed parsing vector store metadata: {}.", e.getMessage());
+            return Map.of();
+        }
+    }
+
+}
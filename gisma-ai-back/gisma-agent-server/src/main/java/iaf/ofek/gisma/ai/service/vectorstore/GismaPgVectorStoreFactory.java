@@ -0,0 +1,83 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static iaf.ofek.gisma.ai.constant.DBTableNames.USER_DOCUMENT_VECTOR_STORE;
+import static iaf.ofek.gisma.ai.service.ingestion.IngestionService.FOLDER_PATH;
+import static iaf.ofek.gisma.ai.service.ingestion.IngestionService.USER_ID;
+
+/**
+ * Builds the pgvector stores over the document tables, for the application beans and for re-embedding shadow tables.
+ */
+@Component
+public class GismaPgVectorStoreFactory {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final QueryEmbeddingCache queryEmbeddingCache;
+
+    @Value("${spring.ai.vectorstore.pgvector.schema-name}")
+    private String schema;
+
+    @Value("${sa.vectorstore.quantization.mode:NONE}")
+    private QuantizationMode quantization;
+
+    @Value("${sa.vectorstore.quantization.oversample:4}")
+    private int oversample;
+
+    public GismaPgVectorStoreFactory(JdbcTemplate jdbcTemplate, QueryEmbeddingCache queryEmbeddingCache) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+    }
+
+    /**
+     * Global document table layout: indexed folder columns, configured quantization.
+     */
+    public GismaPgVectorStore documentStore(String tableName, EmbeddingModel embeddingModel, int dimensions) {
+        return create(tableName, embeddingModel, dimensions, quantization, List.of(
+                new IndexedMetadataColumn(FOLDER_PATH, "folder_path", true)
+        ));
+    }
+
+    /**
+     * Always searched exactly: the user_id btree narrows the scan to a single user documents,
+     * so latency follows the user corpus size and not the total one.
+     */
+    public GismaPgVectorStore userDocumentStore(EmbeddingModel embeddingModel, int dimensions) {
+        return create(USER_DOCUMENT_VECTOR_STORE, embeddingModel, dimensions, QuantizationMode.NONE, List.of(
+                new IndexedMetadataColumn(USER_ID, "user_id", false)
+        ));
+    }
+
+    public String qualified(String tableName) {
+        return schema + "." + tableName;
+    }
+
+    private GismaPgVectorStore create(String tableName, EmbeddingModel embeddingModel, int dimensions,
+                                      QuantizationMode quantizationMode, List<IndexedMetadataColumn> indexedColumns) {
+        PgVectorStore pgVectorStore = PgVectorStore.builder(jdbcTemplate, embeddingModel)
+                .schemaName(schema)
+                .vectorTableName(tableName)
+                .dimensions(dimensions)
+                .build();
+
+        return GismaPgVectorStore.builder()
+                .delegate(pgVectorStore)
+                .jdbcTemplate(jdbcTemplate)
+                .embeddingModel(embeddingModel)
+                .queryEmbeddingCache(queryEmbeddingCache)
+                .tableName(qualified(tableName))
+                .quantizationMode(quantizationMode)
+                .dimensions(dimensions)
+                .oversample(oversample)
+                .indexedColumns(indexedColumns)
+                .build();
+    }
+
+}
@@ -0,0 +1,6 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+/**
+ * Metadata key mirrored by a table trigger into an indexed uuid (or uuid[] when {@code array}) column.
+ */
+public record IndexedMetadataColumn(String metadataKey, String column, boolean array) {}
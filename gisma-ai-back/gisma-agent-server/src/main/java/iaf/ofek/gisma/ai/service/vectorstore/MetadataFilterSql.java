@@ -0,0 +1,105 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.pgvector.PgVectorFilterExpressionConverter;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Translates a metadata filter into SQL predicates. Top level AND terms comparing an indexed metadata key
+ * (EQ / IN) become plain column predicates the planner can use indexes for, everything else is evaluated
+ * as a JSONPath over the metadata, exactly like {@code PgVectorStore} does.
+ */
+class MetadataFilterSql {
+
+    private final PgVectorFilterExpressionConverter filterExpressionConverter = new PgVectorFilterExpressionConverter();
+
+    private final Map<String, IndexedMetadataColumn> indexedColumns;
+
+    MetadataFilterSql(List<IndexedMetadataColumn> indexedColumns) {
+        this.indexedColumns = indexedColumns.stream()
+                .collect(Collectors.toMap(IndexedMetadataColumn::metadataKey, Function.identity()));
+    }
+
+    Predicates toSql(Filter.Expression filterExpression) {
+        if (filterExpression == null) {
+            return new Predicates("", List.of());
+        }
+
+        List<Filter.Expression> terms = new ArrayList<>();
+        flattenAnd(filterExpression, terms);
+
+        StringBuilder sql = new StringBuilder();
+        List<Object> params = new ArrayList<>();
+        Filter.Expression residual = null;
+
+        for (Filter.Expression term : terms) {
+            Optional<Predicates> pushedDown = pushDown(term);
+            if (pushedDown.isPresent()) {
+                sql.append(pushedDown.get().sql());
+                params.addAll(pushedDown.get().params());
+            } else {
+                residual = residual == null ? term : new Filter.Expression(Filter.ExpressionType.AND, residual, term);
+            }
+        }
+
+        if (residual != null) {
+            String jsonPath = filterExpressionConverter.convertExpression(residual);
+            if (!jsonPath.isBlank()) {
+                sql.append(" AND metadata::jsonb @@ '").append(jsonPath).append("'::jsonpath ");
+            }
+        }
+
+        return new Predicates(sql.toString(), params);
+    }
+
+    private Optional<Predicates> pushDown(Filter.Expression term) {
+        if ((term.type() != Filter.ExpressionType.EQ && term.type() != Filter.ExpressionType.IN)
+                || !(term.left() instanceof Filter.Key key)
+                || !(term.right() instanceof Filter.Value value)
+                || !indexedColumns.containsKey(key.key())) {
+            return Optional.empty();
+        }
+
+        List<?> values = value.value() instanceof List<?> list ? list : List.of(value.value());
+        Optional<String> uuidArray = toUuidArrayLiteral(values);
+        if (uuidArray.isEmpty()) {
+            return Optional.empty();
+        }
+
+        IndexedMetadataColumn column = indexedColumns.get(key.key());
+        String predicate = column.array()
+                ? " AND %s && CAST(? AS uuid[]) ".formatted(column.column())
+                : " AND %s = ANY(CAST(? AS uuid[])) ".formatted(column.column());
+
+        return Optional.of(new Predicates(predicate, List.of(uuidArray.get())));
+    }
+
+    private static Optional<String> toUuidArrayLiteral(List<?> values) {
+        try {
+            return Optional.of(values.stream()
+                    .map(v -> UUID.fromString(String.valueOf(v)).toString())
+                    .collect(Collectors.joining(",", "{", "}")));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static void flattenAnd(Filter.Operand operand, List<Filter.Expression> terms) {
+        if (operand instanceof Filter.Group group) {
+            flattenAnd(group.content(), terms);
+        } else if (operand instanceof Filter.Expression expression) {
+            if (expression.type() == Filter.ExpressionType.AND) {
+                flattenAnd(expression.left(), terms);
+                flattenAnd(expression.right(), terms);
+            } else {
+                terms.add(expression);
+            }
+        }
+    }
+
+    record Predicates(String sql, List<Object> params) {}
+
+}
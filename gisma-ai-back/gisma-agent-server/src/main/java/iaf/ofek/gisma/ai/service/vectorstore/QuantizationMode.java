@@ -0,0 +1,38 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+/**
+ * Compact representation used for the first (ANN) pass of a similarity search.
+ * Candidates are always re-scored against the full precision {@code embedding} column.
+ */
+public enum QuantizationMode {
+
+    /**
+     * Single pass over the full precision vectors, same as the plain {@code PgVectorStore}.
+     */
+    NONE {
+        @Override
+        public String candidateOrderBy(int dimensions) {
+            return "embedding <=> ?";
+        }
+    },
+
+    HALFVEC {
+        @Override
+        public String candidateOrderBy(int dimensions) {
+            return "embedding_half <=> CAST(? AS halfvec(%d))".formatted(dimensions);
+        }
+    },
+
+    BINARY {
+        @Override
+        public String candidateOrderBy(int dimensions) {
+            return "embedding_bit <~> binary_quantize(CAST(? AS vector))::bit(%d)".formatted(dimensions);
+        }
+    };
+
+    /**
+     * ORDER BY expression matching the HNSW index of the companion column, one query vector placeholder.
+     */
+    public abstract String candidateOrderBy(int dimensions);
+
+}
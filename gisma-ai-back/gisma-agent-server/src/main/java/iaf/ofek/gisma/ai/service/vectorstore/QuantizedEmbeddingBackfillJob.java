@@ -0,0 +1,105 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+import iaf.ofek.gisma.ai.dto.vectorstore.BackfillStatus;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static iaf.ofek.gisma.ai.constant.DBTableNames.DOCUMENT_VECTOR_STORE;
+import static iaf.ofek.gisma.ai.constant.DBTableNames.USER_DOCUMENT_VECTOR_STORE;
+
+/**
+ * Fills the quantized companion columns of rows written before the quantization trigger existed.
+ * Runs in small batches walking the primary key, so it never holds long row locks and each batch starts
+ * where the previous one stopped instead of rescanning the filled rows; safe to re-run.
+ */
+@Service
+@Log4j2
+public class QuantizedEmbeddingBackfillJob {
+
+    private static final UUID MIN_UUID = new UUID(0, 0);
+
+    /**
+     * Updates the rows of the next {@code batchSize} ids after the cursor, returns the last id of the page
+     * (null past the end of the table) and the number of updated rows.
+     */
+    private static final String BACKFILL_BATCH_SQL = """
+            WITH page AS (
+                SELECT id FROM %1$s
+                WHERE id > ?
+                ORDER BY id
+                LIMIT ?
+            ),
+            updated AS (
+                UPDATE %1$s
+                SET embedding_half = embedding::halfvec,
+                    embedding_bit = binary_quantize(embedding)
+                WHERE id IN (SELECT id FROM page)
+                  AND embedding IS NOT NULL AND (embedding_half IS NULL OR embedding_bit IS NULL)
+                RETURNING id
+            )
+            SELECT (SELECT id FROM page ORDER BY id DESC LIMIT 1) AS last_id,
+                   (SELECT count(*) FROM updated) AS updated
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String schema;
+
+    private final int batchSize;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private final AtomicLong processed = new AtomicLong();
+
+    public QuantizedEmbeddingBackfillJob(JdbcTemplate jdbcTemplate,
+                                         @Value("${spring.ai.vectorstore.pgvector.schema-name}") String schema,
+                                         @Value("${sa.vectorstore.quantization.backfill-batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.schema = schema;
+        this.batchSize = batchSize;
+    }
+
+    public boolean tryStart() {
+        return running.compareAndSet(false, true);
+    }
+
+    @Async
+    public void run() {
+        processed.set(0);
+        try {
+            for (String table : List.of(DOCUMENT_VECTOR_STORE, USER_DOCUMENT_VECTOR_STORE)) {
+                backfill(schema + "." + table);
+            }
+            log.info("Quantized embeddings backfill finished, {} rows updated.", processed.get());
+        } catch (Exception e) {
+            log.error("Quantized embeddings backfill failed after {} rows: {}.", processed.get(), e.getMessage(), e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public BackfillStatus status() {
+        return new BackfillStatus(running.get(), processed.get());
+    }
+
+    private void backfill(String table) {
+        String sql = BACKFILL_BATCH_SQL.formatted(table);
+        UUID lastId = MIN_UUID;
+        while (lastId != null) {
+            UUID after = lastId;
+            lastId = jdbcTemplate.queryForObject(sql, (rs, rowNum) -> {
+                processed.addAndGet(rs.getLong("updated"));
+                return rs.getObject("last_id", UUID.class);
+            }, after, batchSize);
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Embeddings of search queries by model and text. A query is embedded once while it's cached, concurrent searches
+ * for the same query (the global and user store of a federated search, repeated prompts of a batch) wait for
+ * the first one instead of embedding it again. Keyed by the model instance, so a model switch starts over.
+ */
+@Component
+public class QueryEmbeddingCache {
+
+    private final Cache<QueryKey, float[]> embeddings;
+
+    public QueryEmbeddingCache(MeterRegistry meterRegistry,
+                               @Value("${sa.rag.query-embedding-cache.max-size:10000}") long maxSize,
+                               @Value("${sa.rag.query-embedding-cache.ttl:PT10M}") Duration ttl) {
+        embeddings = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, embeddings, "query-embeddings");
+    }
+
+    public float[] embed(EmbeddingModel embeddingModel, String query) {
+        return embeddings.get(new QueryKey(embeddingModel, query), key -> embeddingModel.embed(query));
+    }
+
+    private record QueryKey(EmbeddingModel embeddingModel, String query) {}
+
+}
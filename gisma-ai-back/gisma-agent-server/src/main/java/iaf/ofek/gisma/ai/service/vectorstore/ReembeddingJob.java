@@ -0,0 +1,492 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+import com.pgvector.PGvector;
+import iaf.ofek.gisma.ai.dto.vectorstore.ReembeddingJobState;
+import iaf.ofek.gisma.ai.dto.vectorstore.ReembeddingRequest;
+import iaf.ofek.gisma.ai.enums.ReembeddingJobStatus;
+import iaf.ofek.gisma.ai.repository.ReembeddingJobRepository;
+import iaf.ofek.gisma.ai.service.embedding.EmbeddingModelFactory;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static iaf.ofek.gisma.ai.constant.DBTableNames.DOCUMENT_VECTOR_STORE;
+import static iaf.ofek.gisma.ai.constant.DBTableNames.DOCUMENT_VECTOR_STORE_RETIRED;
+import static iaf.ofek.gisma.ai.constant.DBTableNames.DOCUMENT_VECTOR_STORE_SHADOW;
+
+/**
+ * Re-embeds the global document table with another embedding model / dimension without a search outage.
+ * <ol>
+ *     <li>creates the shadow table and starts dual-writing new ingestions to it</li>
+ *     <li>streams the chunks with a server-side cursor in id order and writes rate-limited batches of new
+ *     embeddings to the shadow, each batch commits together with its checkpoint</li>
+ *     <li>catches up on chunks the shadow missed (failed dual-writes, writes of other nodes, time the job was down)</li>
+ *     <li>cuts over under a write lock on the source table: syncs metadata, drops deleted chunks, checks both tables
+ *     hold the same chunks and swaps them by rename. Chunks written since the last catch-up are embedded without
+ *     the lock and the cutover is retried, searches only wait for the rename</li>
+ * </ol>
+ * Only one node runs a job: the job row allows a single RUNNING job and the node running it holds a lease it
+ * renews every {@code sync-interval}. Every node polls the job row with the same interval: it dual-writes while
+ * a job is running, resumes it from its checkpoint once its lease ran out (its node died) and switches to the new
+ * model once it completed. Until a node switched, its searches and writes still use the old model: writes fail
+ * on the dimension and are retried by the outbox, a model of the same dimension should be switched with writes
+ * paused. The old table is kept as {@code document_vector_store_retired} until the next cutover.
+ */
+@Service
+@Log4j2
+public class ReembeddingJob {
+
+    private static final UUID MIN_UUID = new UUID(0, 0);
+
+    private static final int CUTOVER_ATTEMPTS = 5;
+
+    private static final String SHADOW_TABLE_SQL = """
+            CREATE TABLE %1$s (
+                id UUID PRIMARY KEY,
+                content TEXT,
+                metadata JSONB,
+                embedding vector(%2$d),
+                embedding_half halfvec(%2$d),
+                embedding_bit bit(%2$d),
+                folder_path UUID[]
+            )
+            """;
+
+    private static final String COPY_CURSOR_SQL = """
+            SELECT id, content FROM %s
+            WHERE id > ? AND content IS NOT NULL
+            ORDER BY id
+            """;
+
+    private static final String CATCH_UP_CURSOR_SQL = """
+            SELECT s.id, s.content FROM %1$s s
+            WHERE s.content IS NOT NULL
+              AND NOT EXISTS (SELECT 1 FROM %2$s t WHERE t.id = s.id)
+            ORDER BY s.id
+            """;
+
+    private static final String MISSING_COUNT_SQL = """
+            SELECT count(*) FROM %1$s s
+            WHERE s.content IS NOT NULL
+              AND NOT EXISTS (SELECT 1 FROM %2$s t WHERE t.id = s.id)
+            """;
+
+    // copies the current source row, a chunk deleted since it was read is not resurrected
+    private static final String SHADOW_INSERT_SQL = """
+            INSERT INTO %1$s (id, content, metadata, embedding)
+            SELECT id, content, metadata, ? FROM %2$s WHERE id = ?
+            ON CONFLICT (id) DO NOTHING
+            """;
+
+    private final ReembeddingJobRepository jobRepository;
+
+    private final SwitchableVectorStore documentStore;
+
+    private final GismaPgVectorStoreFactory storeFactory;
+
+    private final EmbeddingModelFactory embeddingModelFactory;
+
+    private final CorpusVersion corpusVersion;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate cursorTransaction;
+
+    private final TransactionTemplate batchTransaction;
+
+    private final TaskExecutor taskExecutor;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    // the completed job whose model the document store uses, null for the configured model
+    private volatile UUID activeJobId;
+
+    @Value("${spring.ai.vectorstore.pgvector.schema-name}")
+    private String schema;
+
+    @Value("${sa.vectorstore.reembedding.batch-size:64}")
+    private int batchSize;
+
+    @Value("${sa.vectorstore.reembedding.max-batches-per-second:2}")
+    private double maxBatchesPerSecond;
+
+    @Value("${sa.vectorstore.reembedding.lease:PT5M}")
+    private Duration lease;
+
+    public ReembeddingJob(ReembeddingJobRepository jobRepository,
+                          @Qualifier("documentPgVectorStore") SwitchableVectorStore documentStore,
+                          GismaPgVectorStoreFactory storeFactory, EmbeddingModelFactory embeddingModelFactory,
+                          CorpusVersion corpusVersion, JdbcTemplate jdbcTemplate,
+                          PlatformTransactionManager transactionManager,
+                          @Qualifier("applicationTaskExecutor") TaskExecutor taskExecutor) {
+        this.jobRepository = jobRepository;
+        this.documentStore = documentStore;
+        this.storeFactory = storeFactory;
+        this.embeddingModelFactory = embeddingModelFactory;
+        this.corpusVersion = corpusVersion;
+        this.jdbcTemplate = jdbcTemplate;
+        this.taskExecutor = taskExecutor;
+        this.cursorTransaction = new TransactionTemplate(transactionManager);
+        this.cursorTransaction.setReadOnly(true);
+        this.batchTransaction = new TransactionTemplate(transactionManager);
+        this.batchTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.activeJobId = jobRepository.findLatestByStatus(ReembeddingJobStatus.COMPLETED)
+                .map(ReembeddingJobState::id)
+                .orElse(null);
+    }
+
+    public ReembeddingJobState start(ReembeddingRequest request) {
+        String modelName = request.targetModel() != null ? request.targetModel() : embeddingModelFactory.getConfiguredModel();
+        EmbeddingModel targetModel = embeddingModelFactory.get(modelName);
+        int targetDimensions = request.targetDimensions() != null ? request.targetDimensions() : targetModel.dimensions();
+        if (targetModel.dimensions() != targetDimensions) {
+            throw new IllegalArgumentException("Model %s produces %d dimensions, not %d"
+                    .formatted(modelName, targetModel.dimensions(), targetDimensions));
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A re-embedding job is already running");
+        }
+
+        ReembeddingJobState job;
+        try {
+            // before touching the shadow table, it may belong to a job running on another node
+            job = jobRepository.create(modelName, targetDimensions, lease);
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+
+        try {
+            String shadow = storeFactory.qualified(DOCUMENT_VECTOR_STORE_SHADOW);
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + shadow);
+            jdbcTemplate.execute(SHADOW_TABLE_SQL.formatted(shadow, targetDimensions));
+            jdbcTemplate.execute(("CREATE TRIGGER trg_%1$s_quantize BEFORE INSERT OR UPDATE OF embedding ON %2$s "
+                    + "FOR EACH ROW EXECUTE FUNCTION %3$s.sync_quantized_embedding()").formatted(DOCUMENT_VECTOR_STORE_SHADOW, shadow, schema));
+            jdbcTemplate.execute(("CREATE TRIGGER trg_%1$s_folders BEFORE INSERT OR UPDATE OF metadata ON %2$s "
+                    + "FOR EACH ROW EXECUTE FUNCTION %3$s.sync_folder_columns()").formatted(DOCUMENT_VECTOR_STORE_SHADOW, shadow, schema));
+            jdbcTemplate.execute("CREATE INDEX idx_%s_folder_path ON %s USING gin (folder_path)".formatted(DOCUMENT_VECTOR_STORE_SHADOW, shadow));
+            jdbcTemplate.execute("CREATE INDEX idx_%s_content_id ON %s ((metadata->>'contentId'))".formatted(DOCUMENT_VECTOR_STORE_SHADOW, shadow));
+
+            launch(job);
+
+            return job;
+        } catch (RuntimeException e) {
+            jobRepository.updateStatus(job.id(), ReembeddingJobStatus.FAILED, e.getMessage());
+            running.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Continues the latest failed or interrupted job from its checkpoint.
+     */
+    public ReembeddingJobState resume() {
+        ReembeddingJobState job = jobRepository.findLatest()
+                .filter(j -> j.status() != ReembeddingJobStatus.COMPLETED)
+                .orElseThrow(() -> new IllegalStateException("No re-embedding job to resume"));
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A re-embedding job is already running");
+        }
+
+        try {
+            if (job.status() != ReembeddingJobStatus.RUNNING) {
+                jobRepository.updateStatus(job.id(), ReembeddingJobStatus.RUNNING, null);
+            }
+            if (!jobRepository.claim(job.id(), lease)) {
+                throw new IllegalStateException("The re-embedding job is running on another instance");
+            }
+            launch(job);
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+
+        return jobRepository.findById(job.id()).orElseThrow();
+    }
+
+    public Optional<ReembeddingJobState> status() {
+        return jobRepository.findLatest();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeAfterRestart() {
+        jobRepository.findLatest()
+                .filter(job -> job.status() == ReembeddingJobStatus.RUNNING)
+                .ifPresent(this::takeOver);
+    }
+
+    /**
+     * Renews the lease of the job running here and follows the jobs of other nodes: dual-writes while one is
+     * running, takes it over once its lease ran out and switches to its model once it completed.
+     */
+    @Scheduled(fixedDelayString = "${sa.vectorstore.reembedding.sync-interval:PT10S}")
+    public void sync() {
+        try {
+            Optional<ReembeddingJobState> runningJob = jobRepository.findLatest()
+                    .filter(job -> job.status() == ReembeddingJobStatus.RUNNING);
+            if (running.get()) {
+                runningJob.ifPresent(job -> jobRepository.renewLease(job.id(), lease));
+                return;
+            }
+
+            if (runningJob.isPresent()) {
+                ReembeddingJobState job = runningJob.get();
+                if (takeOver(job)) {
+                    return;
+                }
+                if (documentStore.shadow().isEmpty()) {
+                    log.info("Re-embedding job {} runs on another instance, dual-writing to its shadow.", job.id());
+                    documentStore.startDualWrite(storeFactory.documentStore(DOCUMENT_VECTOR_STORE_SHADOW,
+                            embeddingModelFactory.get(job.targetModel()), job.targetDimensions()));
+                }
+            } else if (documentStore.shadow().isPresent()) {
+                documentStore.stopDualWrite();
+            }
+
+            jobRepository.findLatestByStatus(ReembeddingJobStatus.COMPLETED)
+                    .filter(job -> !job.id().equals(activeJobId))
+                    .ifPresent(job -> {
+                        log.info("Re-embedding job {} completed on another instance, switching to {} ({} dimensions).",
+                                job.id(), job.targetModel(), job.targetDimensions());
+                        documentStore.switchTo(storeFactory.documentStore(DOCUMENT_VECTOR_STORE,
+                                embeddingModelFactory.get(job.targetModel()), job.targetDimensions()));
+                        activeJobId = job.id();
+                    });
+        } catch (Exception e) {
+            log.warn("Failed syncing the re-embedding job: {}.", e.getMessage());
+        }
+    }
+
+    /**
+     * Resumes a running job from its checkpoint when no node holds its lease any more.
+     */
+    private boolean takeOver(ReembeddingJobState job) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        if (!jobRepository.claim(job.id(), lease)) {
+            running.set(false);
+            return false;
+        }
+
+        log.info("Resuming re-embedding job {} from {}.", job.id(), job.lastId());
+        launch(job);
+
+        return true;
+    }
+
+    private void launch(ReembeddingJobState job) {
+        EmbeddingModel targetModel = embeddingModelFactory.get(job.targetModel());
+        GismaPgVectorStore shadowStore = storeFactory.documentStore(DOCUMENT_VECTOR_STORE_SHADOW, targetModel, job.targetDimensions());
+        documentStore.startDualWrite(shadowStore);
+        taskExecutor.execute(() -> run(job, targetModel));
+    }
+
+    private void run(ReembeddingJobState job, EmbeddingModel targetModel) {
+        String source = storeFactory.qualified(DOCUMENT_VECTOR_STORE);
+        String shadow = storeFactory.qualified(DOCUMENT_VECTOR_STORE_SHADOW);
+        try {
+            UUID lastId = job.lastId() != null ? job.lastId() : MIN_UUID;
+            stream(COPY_CURSOR_SQL.formatted(source), lastId, job, targetModel, true);
+            stream(CATCH_UP_CURSOR_SQL.formatted(source, shadow), null, job, targetModel, false);
+
+            jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_%s_half ON %s USING hnsw (embedding_half halfvec_cosine_ops)"
+                    .formatted(DOCUMENT_VECTOR_STORE_SHADOW, shadow));
+            jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_%s_bit ON %s USING hnsw (embedding_bit bit_hamming_ops)"
+                    .formatted(DOCUMENT_VECTOR_STORE_SHADOW, shadow));
+
+            cutover(job, targetModel, source, shadow);
+            log.info("Re-embedding job {} completed, document store now uses {} ({} dimensions).",
+                    job.id(), job.targetModel(), job.targetDimensions());
+        } catch (Exception e) {
+            log.error("Re-embedding job {} failed: {}.", job.id(), e.getMessage(), e);
+            documentStore.stopDualWrite();
+            jobRepository.updateStatus(job.id(), ReembeddingJobStatus.FAILED, e.getMessage());
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void stream(String cursorSql, UUID fromId, ReembeddingJobState job, EmbeddingModel targetModel, boolean checkpoint) {
+        String insertSql = SHADOW_INSERT_SQL.formatted(storeFactory.qualified(DOCUMENT_VECTOR_STORE_SHADOW),
+                storeFactory.qualified(DOCUMENT_VECTOR_STORE));
+        List<UUID> ids = new ArrayList<>(batchSize);
+        List<String> texts = new ArrayList<>(batchSize);
+        RateLimiter rateLimiter = new RateLimiter(maxBatchesPerSecond);
+
+        // the postgres driver only uses a server-side cursor inside a transaction with a fetch size
+        cursorTransaction.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(cursorSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(batchSize);
+            if (fromId != null) {
+                statement.setObject(1, fromId);
+            }
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            ids.add(rs.getObject("id", UUID.class));
+            texts.add(rs.getString("content"));
+            if (ids.size() == batchSize) {
+                writeBatch(insertSql, ids, texts, job, targetModel, checkpoint, rateLimiter);
+            }
+        }));
+
+        if (!ids.isEmpty()) {
+            writeBatch(insertSql, ids, texts, job, targetModel, checkpoint, rateLimiter);
+        }
+    }
+
+    private void writeBatch(String insertSql, List<UUID> ids, List<String> texts, ReembeddingJobState job,
+                            EmbeddingModel targetModel, boolean checkpoint, RateLimiter rateLimiter) {
+        rateLimiter.acquire();
+        List<Object[]> rows = embed(ids, texts, targetModel);
+        UUID lastId = ids.get(ids.size() - 1);
+
+        batchTransaction.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate(insertSql, rows);
+            jobRepository.updateProgress(job.id(), checkpoint ? lastId : null, rows.size());
+        });
+
+        ids.clear();
+        texts.clear();
+    }
+
+    /**
+     * Embeds what the shadow misses (the index builds may take long) without any lock, then tries the locked switch.
+     * Chunks written in between make it back off and catch up again, so the embedding model is never called while
+     * the source table or the store is locked.
+     */
+    private void cutover(ReembeddingJobState job, EmbeddingModel targetModel, String source, String shadow) {
+        GismaPgVectorStore newActive = storeFactory.documentStore(DOCUMENT_VECTOR_STORE, targetModel, job.targetDimensions());
+
+        for (int attempt = 1; ; attempt++) {
+            stream(CATCH_UP_CURSOR_SQL.formatted(source, shadow), null, job, targetModel, false);
+            if (trySwitch(job, newActive, source, shadow)) {
+                break;
+            }
+            if (attempt == CUTOVER_ATTEMPTS) {
+                throw new IllegalStateException("Chunks kept arriving during %d cutover attempts, cutover aborted"
+                        .formatted(attempt));
+            }
+            log.info("Re-embedding job {} found new chunks at cutover, catching up again.", job.id());
+        }
+        activeJobId = job.id();
+        corpusVersion.bump();
+    }
+
+    /**
+     * The source table is locked against writes of every node (searches go on) until the rename commits, so no
+     * chunk written after the check is lost. Returns false, with nothing changed, when the shadow misses chunks.
+     * A mismatch left after that aborts the cutover, the job fails and can be resumed.
+     */
+    private boolean trySwitch(ReembeddingJobState job, GismaPgVectorStore newActive, String source, String shadow) {
+        AtomicBoolean switched = new AtomicBoolean();
+
+        documentStore.cutover(() -> batchTransaction.executeWithoutResult(status -> {
+            jdbcTemplate.execute("LOCK TABLE %s IN SHARE ROW EXCLUSIVE MODE".formatted(source));
+            if (count(MISSING_COUNT_SQL.formatted(source, shadow)) > 0) {
+                status.setRollbackOnly();
+                return;
+            }
+            jdbcTemplate.update("UPDATE %1$s t SET metadata = s.metadata FROM %2$s s WHERE t.id = s.id AND t.metadata IS DISTINCT FROM s.metadata"
+                    .formatted(shadow, source));
+            jdbcTemplate.update("DELETE FROM %1$s t WHERE NOT EXISTS (SELECT 1 FROM %2$s s WHERE s.id = t.id)".formatted(shadow, source));
+
+            long sourceCount = count("SELECT count(*) FROM %s WHERE content IS NOT NULL".formatted(source));
+            long shadowCount = count("SELECT count(*) FROM " + shadow);
+            if (sourceCount != shadowCount) {
+                throw new IllegalStateException("Shadow table has %d chunks, source %d, cutover aborted"
+                        .formatted(shadowCount, sourceCount));
+            }
+
+            documentStore.switchOnCommit(newActive);
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + storeFactory.qualified(DOCUMENT_VECTOR_STORE_RETIRED));
+            rename(DOCUMENT_VECTOR_STORE, DOCUMENT_VECTOR_STORE_RETIRED);
+            rename(DOCUMENT_VECTOR_STORE_SHADOW, DOCUMENT_VECTOR_STORE);
+            jobRepository.updateStatus(job.id(), ReembeddingJobStatus.COMPLETED, null);
+            switched.set(true);
+        }));
+
+        return switched.get();
+    }
+
+    private List<Object[]> embed(List<UUID> ids, List<String> texts, EmbeddingModel targetModel) {
+        List<float[]> embeddings = targetModel.embed(texts);
+        List<Object[]> rows = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            rows.add(new Object[]{new PGvector(embeddings.get(i)), ids.get(i)});
+        }
+
+        return rows;
+    }
+
+    private long count(String sql) {
+        Long count = jdbcTemplate.queryForObject(sql, Long.class);
+
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Renames a document table together with its indexes and triggers, so the canonical names keep matching the DDL.
+     */
+    private void rename(String from, String to) {
+        jdbcTemplate.execute("ALTER TABLE %s RENAME TO %s".formatted(storeFactory.qualified(from), to));
+        for (String index : List.of("%s_pkey", "idx_%s_half", "idx_%s_bit", "idx_%s_folder_path",
+                "idx_%s_content_id")) {
+            jdbcTemplate.execute("ALTER INDEX IF EXISTS %s RENAME TO %s"
+                    .formatted(storeFactory.qualified(index.formatted(from)), index.formatted(to)));
+        }
+        for (String trigger : List.of("trg_%s_quantize", "trg_%s_folders")) {
+            jdbcTemplate.execute("ALTER TRIGGER %s ON %s RENAME TO %s"
+                    .formatted(trigger.formatted(from), storeFactory.qualified(to), trigger.formatted(to)));
+        }
+    }
+
+    /**
+     * Spaces batches evenly, embedding APIs rate limit per minute and the database should not see bursts either.
+     */
+    private static class RateLimiter {
+
+        private final long intervalNanos;
+
+        private long next = System.nanoTime();
+
+        RateLimiter(double permitsPerSecond) {
+            this.intervalNanos = permitsPerSecond > 0 ? (long) (1_000_000_000L / permitsPerSecond) : 0;
+        }
+
+        void acquire() {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Re-embedding interrupted", e);
+                }
+            }
+            next = Math.max(next, System.nanoTime()) + intervalNanos;
+        }
+
+    }
+
+}
@@ -0,0 +1,165 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * The document store the application talks to. During a re-embedding migration every write also goes
+ * to the shadow store, and {@link #cutover} swaps the shadow in. Writes and searches have separate locks: a cutover
+ * pauses the writes of this node for its whole database switch, searches only for the table rename and the swap.
+ */
+@Log4j2
+public class SwitchableVectorStore implements VectorStore {
+
+    // writes hold it shared, taken before searchLock
+    private final ReadWriteLock writeLock = new ReentrantReadWriteLock();
+
+    // searches hold it shared
+    private final ReadWriteLock searchLock = new ReentrantReadWriteLock();
+
+    private volatile GismaPgVectorStore active;
+
+    private volatile GismaPgVectorStore shadow;
+
+    public SwitchableVectorStore(GismaPgVectorStore active) {
+        this.active = active;
+    }
+
+    public GismaPgVectorStore active() {
+        return active;
+    }
+
+    public Optional<GismaPgVectorStore> shadow() {
+        return Optional.ofNullable(shadow);
+    }
+
+    public void startDualWrite(GismaPgVectorStore shadow) {
+        withLock(writeLock.writeLock(), () -> this.shadow = shadow);
+    }
+
+    public void stopDualWrite() {
+        withLock(writeLock.writeLock(), () -> this.shadow = null);
+    }
+
+    /**
+     * Runs the database switch with no write of this node in flight, so none of them waits on a table the switch
+     * locks. The switch runs in its own transaction and calls {@link #switchOnCommit} right before renaming the tables,
+     * searches go on until then.
+     */
+    public void cutover(Runnable databaseSwitch) {
+        withLock(writeLock.writeLock(), databaseSwitch);
+    }
+
+    /**
+     * Holds off searches until the surrounding transaction completes and switches to {@code newActive} if it committed,
+     * so no search runs the old model against the renamed tables. Only called from a {@link #cutover} switch.
+     */
+    public void switchOnCommit(GismaPgVectorStore newActive) {
+        searchLock.writeLock().lock();
+        try {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    try {
+                        if (status == STATUS_COMMITTED) {
+                            active = newActive;
+                            shadow = null;
+                        }
+                    } finally {
+                        searchLock.writeLock().unlock();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            searchLock.writeLock().unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the active store right away, for a cutover another node already committed.
+     */
+    public void switchTo(GismaPgVectorStore newActive) {
+        withLock(writeLock.writeLock(), () -> withLock(searchLock.writeLock(), () -> {
+            this.active = newActive;
+            this.shadow = null;
+        }));
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        withLock(writeLock.readLock(), () -> {
+            active.add(documents);
+            toShadow(store -> store.add(documents));
+        });
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        withLock(writeLock.readLock(), () -> {
+            active.delete(idList);
+            toShadow(store -> store.delete(idList));
+        });
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        withLock(writeLock.readLock(), () -> {
+            active.delete(filterExpression);
+            toShadow(store -> store.delete(filterExpression));
+        });
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        searchLock.readLock().lock();
+        try {
+            return active.similaritySearch(request);
+        } finally {
+            searchLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> Optional<T> getNativeClient() {
+        return active.getNativeClient();
+    }
+
+    /**
+     * A failed shadow write never fails the caller, the re-embedding job reconciles the shadow before cutover.
+     */
+    private void toShadow(Consumer<GismaPgVectorStore> write) {
+        GismaPgVectorStore target = shadow;
+        if (target == null) {
+            return;
+        }
+
+        try {
+            write.accept(target);
+        } catch (RuntimeException e) {
+            log.warn("Shadow vector store write failed, left to the re-embedding reconciliation: {}.", e.getMessage());
+        }
+    }
+
+    private static void withLock(Lock lock, Runnable action) {
+        lock.lock();
+        try {
+            action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
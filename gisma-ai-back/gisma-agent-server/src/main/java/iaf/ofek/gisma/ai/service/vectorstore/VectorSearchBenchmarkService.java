@@ -0,0 +1,123 @@
+package iaf.ofek.gisma.ai.service.vectorstore;
+
+import com.pgvector.PGvector;
+import iaf.ofek.gisma.ai.dto.vectorstore.VectorSearchBenchmarkRequest;
+import iaf.ofek.gisma.ai.dto.vectorstore.VectorSearchBenchmarkResult;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static iaf.ofek.gisma.ai.util.StatsUtils.percentile;
+
+/**
+ * Compares recall@K and latency of the quantized two-stage search against the full precision search
+ * the plain {@code PgVectorStore} runs. Stored embeddings are sampled as queries, so no embedding calls are made.
+ */
+@Service
+@Log4j2
+public class VectorSearchBenchmarkService {
+
+    private static final int DEFAULT_SAMPLE_SIZE = 100;
+
+    private static final int DEFAULT_TOP_K = 4;
+
+    private static final String SAMPLE_SQL = """
+            SELECT embedding::text FROM %s
+            WHERE embedding IS NOT NULL
+            ORDER BY random()
+            LIMIT ?
+            """;
+
+    private final SwitchableVectorStore documentStore;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public VectorSearchBenchmarkService(@Qualifier("documentPgVectorStore") SwitchableVectorStore documentStore,
+                                        JdbcTemplate jdbcTemplate,
+                                        PlatformTransactionManager transactionManager) {
+        this.documentStore = documentStore;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public VectorSearchBenchmarkResult run(VectorSearchBenchmarkRequest request) {
+        int sampleSize = request.sampleSize() != null ? request.sampleSize() : DEFAULT_SAMPLE_SIZE;
+        int topK = request.topK() != null ? request.topK() : DEFAULT_TOP_K;
+        QuantizationMode mode = request.mode() != null ? request.mode() : QuantizationMode.HALFVEC;
+        GismaPgVectorStore vectorStore = documentStore.active();
+
+        List<PGvector> queries = jdbcTemplate.query(SAMPLE_SQL.formatted(vectorStore.getTableName()),
+                (rs, rowNum) -> new PGvector(rs.getString(1)), sampleSize);
+
+        List<Double> baselineLatencies = new ArrayList<>();
+        List<Double> quantizedLatencies = new ArrayList<>();
+        double recallSum = 0;
+
+        for (PGvector query : queries) {
+            List<Document> exact = exactSearch(vectorStore, query, topK);
+            List<Document> baseline = timed(() -> vectorStore.search(query, topK, 0, null, QuantizationMode.NONE), baselineLatencies);
+            List<Document> quantized = timed(() -> vectorStore.search(query, topK, 0, null, mode), quantizedLatencies);
+            log.debug("Benchmark query: baseline {} docs, quantized {} docs.", baseline.size(), quantized.size());
+            recallSum += recall(exact, quantized);
+        }
+
+        int count = queries.size();
+
+        return new VectorSearchBenchmarkResult(
+                count,
+                topK,
+                vectorStore.getOversample(),
+                mode,
+                count == 0 ? 0 : recallSum / count,
+                percentile(baselineLatencies, 50),
+                percentile(baselineLatencies, 99),
+                percentile(quantizedLatencies, 50),
+                percentile(quantizedLatencies, 99)
+        );
+    }
+
+    /**
+     * Ground truth: sequential scan over the full precision vectors, whatever indexes exist.
+     */
+    private List<Document> exactSearch(GismaPgVectorStore vectorStore, PGvector query, int topK) {
+        return transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("SET LOCAL enable_indexscan = off");
+            return vectorStore.search(query, topK, 0, null, QuantizationMode.NONE);
+        });
+    }
+
+    private static List<Document> timed(Supplier<List<Document>> search, List<Double> latencies) {
+        long start = System.nanoTime();
+        List<Document> result = search.get();
+        latencies.add((System.nanoTime() - start) / 1_000_000.0);
+
+        return result;
+    }
+
+    private static double recall(List<Document> exact, List<Document> approximate) {
+        if (exact.isEmpty()) {
+            return 1;
+        }
+
+        Set<String> expectedIds = new HashSet<>(exact.stream().map(Document::getId).toList());
+        long hits = approximate.stream()
+                .map(Document::getId)
+                .filter(expectedIds::contains)
+                .count();
+
+        return (double) hits / expectedIds.size();
+    }
+
+}
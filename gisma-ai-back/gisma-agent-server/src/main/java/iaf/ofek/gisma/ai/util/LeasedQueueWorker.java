@@ -0,0 +1,135 @@
+package iaf.ofek.gisma.ai.util;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Runs the rows of a table backed queue on a bounded pool. Polling claims (with a lease) as many rows as there are
+ * free workers, and runs again whenever a worker frees up, so a backlog drains without waiting for the next
+ * scheduled poll. Only one poll runs at a time.
+ * <p>
+ * Retries, leases and outcomes are up to the owner: {@code claim} leases the rows and {@code handler} records what
+ * happened to them.
+ */
+@Log4j2
+public class LeasedQueueWorker<T> {
+
+    private final String name;
+
+    private final IntFunction<List<T>> claim;
+
+    private final Consumer<T> handler;
+
+    private final Semaphore slots;
+
+    private final ExecutorService workers;
+
+    private final ExecutorService poller;
+
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+    private final Set<T> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param name   prefix of the thread names, also used in logs
+     * @param claim  leases up to the given number of rows
+     */
+    public LeasedQueueWorker(String name, int parallelism, IntFunction<List<T>> claim, Consumer<T> handler) {
+        this.name = name;
+        this.claim = claim;
+        this.handler = handler;
+
+        int threads = Math.max(1, parallelism);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.slots = new Semaphore(threads);
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.poller = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void poll() {
+        if (!polling.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            int free;
+            while ((free = slots.availablePermits()) > 0) {
+                List<T> items = claim.apply(free);
+                if (items.isEmpty()) {
+                    return;
+                }
+
+                // only this poller takes permits, so these never block
+                items.forEach(item -> {
+                    slots.acquireUninterruptibly();
+                    running.add(item);
+                    workers.execute(() -> {
+                        try {
+                            handler.accept(item);
+                        } finally {
+                            running.remove(item);
+                            slots.release();
+                            wakeUp();
+                        }
+                    });
+                });
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed polling {}: {}.", name, e.getMessage());
+        } finally {
+            polling.set(false);
+        }
+    }
+
+    /**
+     * Polls on the poller thread, e.g. right after rows were added.
+     */
+    public void wakeUp() {
+        try {
+            poller.execute(this::poll);
+        } catch (RejectedExecutionException e) {
+            // shutting down, the rows stay for the next start
+        }
+    }
+
+    /**
+     * Interrupts the running handlers and returns the rows that were claimed but didn't finish, they keep their
+     * lease unless the owner puts them back.
+     */
+    public List<T> shutdown() {
+        poller.shutdownNow();
+        workers.shutdownNow();
+
+        return List.copyOf(running);
+    }
+
+    /**
+     * {@code retryBackoff} doubled for every attempt after the first, capped at {@code maxRetryBackoff}.
+     */
+    public static Duration backoff(Duration retryBackoff, Duration maxRetryBackoff, int attempts) {
+        Duration delay = retryBackoff.multipliedBy(1L << Math.min(Math.max(attempts - 1, 0), 20));
+
+        return delay.compareTo(maxRetryBackoff) > 0 ? maxRetryBackoff : delay;
+    }
+
+}
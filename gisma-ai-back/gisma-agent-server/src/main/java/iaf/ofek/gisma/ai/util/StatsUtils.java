@@ -0,0 +1,24 @@
+package iaf.ofek.gisma.ai.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class StatsUtils {
+
+    /**
+     * Nearest-rank percentile, 0 for no values.
+     */
+    public static double percentile(List<Double> values, int percentile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+
+        List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+}
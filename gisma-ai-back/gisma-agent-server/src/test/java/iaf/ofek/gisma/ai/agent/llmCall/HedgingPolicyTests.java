@@ -0,0 +1,88 @@
+package iaf.ofek.gisma.ai.agent.llmCall;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HedgingPolicyTests {
+
+    @Test
+    void usesTheInitialDelayUntilHalfTheWindowWasSeen() {
+        HedgingPolicy policy = policy(Duration.ofSeconds(3));
+        record(policy, 4, Duration.ofMillis(500), false);
+
+        policy.refresh();
+
+        assertThat(policy.hedgeDelay()).contains(Duration.ofSeconds(3));
+    }
+
+    @Test
+    void delayIsThePercentileOfTheWindow() {
+        HedgingPolicy policy = policy(Duration.ofSeconds(3));
+        for (int i = 1; i <= 10; i++) {
+            policy.recordFirstToken(Duration.ofSeconds(i).toNanos() / 10, false);
+        }
+
+        policy.refresh();
+
+        assertThat(policy.hedgeDelay()).contains(Duration.ofMillis(900));
+    }
+
+    @Test
+    void delayIsClamped() {
+        HedgingPolicy fast = policy(Duration.ofSeconds(3));
+        HedgingPolicy slow = policy(Duration.ofSeconds(3));
+        record(fast, 10, Duration.ofMillis(10), false);
+        record(slow, 10, Duration.ofMinutes(1), false);
+
+        fast.refresh();
+        slow.refresh();
+
+        assertThat(fast.hedgeDelay()).contains(Duration.ofMillis(100));
+        assertThat(slow.hedgeDelay()).contains(Duration.ofSeconds(10));
+        assertThat(policy(Duration.ofMinutes(1)).hedgeDelay()).contains(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void stopsHedgingOnceTheBudgetIsUsedUp() {
+        HedgingPolicy policy = policy(Duration.ofSeconds(3));
+        record(policy, 8, Duration.ofSeconds(1), false);
+        record(policy, 2, Duration.ofSeconds(1), true);
+
+        assertThat(policy.hedgeDelay()).isPresent();
+
+        record(policy, 1, Duration.ofSeconds(1), true);
+
+        assertThat(policy.hedgeDelay()).isEmpty();
+    }
+
+    @Test
+    void hedgesAgainOnceHedgedCallsLeftTheWindow() {
+        HedgingPolicy policy = policy(Duration.ofSeconds(3));
+        record(policy, 3, Duration.ofSeconds(1), true);
+
+        assertThat(policy.hedgeDelay()).isEmpty();
+
+        record(policy, 10, Duration.ofSeconds(1), false);
+
+        assertThat(policy.hedgeDelay()).isPresent();
+    }
+
+    /**
+     * p90 over a window of 10, clamped to [100ms, 10s], at most 20% of the calls hedge.
+     */
+    private static HedgingPolicy policy(Duration initialDelay) {
+        return new HedgingPolicy(new SimpleMeterRegistry(), 0.9, 10, initialDelay, Duration.ofMillis(100),
+                Duration.ofSeconds(10), 0.2);
+    }
+
+    private static void record(HedgingPolicy policy, int calls, Duration firstToken, boolean hedgeFired) {
+        for (int i = 0; i < calls; i++) {
+            policy.recordFirstToken(firstToken.toNanos(), hedgeFired);
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package iaf.ofek.gisma.ai.agent.retrieval;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveRetrievalPolicyTests {
+
+    @Test
+    void dropsChunksUnderTheSimilarityFloor() {
+        AdaptiveRetrievalPolicy policy = policy(1, 2500);
+
+        List<Document> selected = policy.select(List.of(
+                chunk("a", 0.9, "alpha beta gamma"),
+                chunk("b", 0.2, "delta epsilon zeta")
+        ));
+
+        assertThat(ids(selected)).containsExactly("a");
+    }
+
+    @Test
+    void cutsAtTheLargestScoreGap() {
+        AdaptiveRetrievalPolicy policy = policy(1, 2500);
+
+        List<Document> selected = policy.select(List.of(
+                chunk("c", 0.5, "eta theta iota"),
+                chunk("a", 0.9, "alpha beta gamma"),
+                chunk("d", 0.48, "kappa lambda mu"),
+                chunk("b", 0.88, "delta epsilon zeta")
+        ));
+
+        assertThat(ids(selected)).containsExactly("a", "b");
+    }
+
+    @Test
+    void elbowNeverCutsBelowMinChunks() {
+        AdaptiveRetrievalPolicy policy = policy(2, 2500);
+
+        List<Document> selected = policy.select(List.of(
+                chunk("a", 0.9, "alpha beta gamma"),
+                chunk("b", 0.5, "delta epsilon zeta"),
+                chunk("c", 0.3, "eta theta iota")
+        ));
+
+        assertThat(ids(selected)).containsExactly("a", "b");
+    }
+
+    @Test
+    void dropsNearDuplicates() {
+        AdaptiveRetrievalPolicy policy = policy(1, 2500);
+
+        List<Document> selected = policy.select(List.of(
+                chunk("a", 0.9, "alpha beta gamma delta"),
+                chunk("b", 0.89, "alpha beta gamma delta"),
+                chunk("c", 0.88, "epsilon zeta eta theta")
+        ));
+
+        assertThat(ids(selected)).containsExactly("a", "c");
+    }
+
+    @Test
+    void stopsAtTheContextTokenCap() {
+        AdaptiveRetrievalPolicy policy = policy(1, 8);
+
+        List<Document> selected = policy.select(List.of(
+                chunk("a", 0.9, "alpha beta gamma delta epsilon zeta"),
+                chunk("b", 0.89, "eta theta iota kappa lambda mu"),
+                chunk("c", 0.88, "nu xi omicron pi rho sigma")
+        ));
+
+        assertThat(ids(selected)).containsExactly("a");
+    }
+
+    @Test
+    void skipsAChunkThatDoesNotFitForAShorterOne() {
+        AdaptiveRetrievalPolicy policy = policy(1, 8);
+
+        List<Document> selected = policy.select(List.of(
+                chunk("a", 0.9, "alpha beta gamma delta epsilon zeta"),
+                chunk("b", 0.89, "eta theta iota kappa lambda mu"),
+                chunk("c", 0.88, "nu")
+        ));
+
+        assertThat(ids(selected)).containsExactly("a", "c");
+    }
+
+    @Test
+    void tokenCapWinsOverMinChunks() {
+        AdaptiveRetrievalPolicy policy = policy(2, 3);
+
+        List<Document> selected = policy.select(List.of(
+                chunk("a", 0.9, "alpha beta gamma delta epsilon zeta"),
+                chunk("b", 0.89, "eta theta iota kappa lambda mu"),
+                chunk("c", 0.88, "nu xi omicron pi rho sigma")
+        ));
+
+        assertThat(ids(selected)).isEmpty();
+    }
+
+    @Test
+    void selectsNothingWithoutCandidates() {
+        assertThat(policy(1, 2500).select(List.of())).isEmpty();
+    }
+
+    private static AdaptiveRetrievalPolicy policy(int minChunks, int maxContextTokens) {
+        return new AdaptiveRetrievalPolicy(new SimpleMeterRegistry(), 12, 0.3, minChunks, 6, 0.08, 0.7, 0.85,
+                maxContextTokens);
+    }
+
+    private static Document chunk(String id, double score, String text) {
+        return Document.builder()
+                .id(id)
+                .text(text)
+                .score(score)
+                .build();
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream()
+                .map(Document::getId)
+                .toList();
+    }
+
+}
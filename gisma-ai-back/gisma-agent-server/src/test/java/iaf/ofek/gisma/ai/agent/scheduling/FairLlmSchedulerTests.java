@@ -0,0 +1,102 @@
+package iaf.ofek.gisma.ai.agent.scheduling;
+
+import iaf.ofek.gisma.ai.enums.RequestChannel;
+import iaf.ofek.gisma.ai.exception.RateLimitExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FairLlmSchedulerTests {
+
+    private final List<String> started = new CopyOnWriteArrayList<>();
+
+    @Test
+    void runsRightAwayWhenASlotIsFree() {
+        FairLlmScheduler scheduler = scheduler(1, 10);
+
+        List<String> result = scheduler.schedule("a", RequestChannel.REST, () -> Flux.just("answer"))
+                .collectList()
+                .block();
+
+        assertThat(result).containsExactly("answer");
+    }
+
+    @Test
+    void singleCallOfAnotherUserIsNotQueuedBehindABacklog() {
+        FairLlmScheduler scheduler = scheduler(1, 10);
+        Sinks.Empty<Void> holder = occupy(scheduler);
+
+        submit(scheduler, "hog", RequestChannel.REST, "hog-1");
+        submit(scheduler, "hog", RequestChannel.REST, "hog-2");
+        submit(scheduler, "hog", RequestChannel.REST, "hog-3");
+        submit(scheduler, "other", RequestChannel.REST, "other");
+        holder.tryEmitEmpty();
+
+        assertThat(started).containsExactly("hog-1", "other", "hog-2", "hog-3");
+    }
+
+    @Test
+    void websocketCallsFinishAheadOfRestCallsQueuedWithThem() {
+        FairLlmScheduler scheduler = scheduler(1, 10);
+        Sinks.Empty<Void> holder = occupy(scheduler);
+
+        submit(scheduler, "a", RequestChannel.REST, "rest");
+        submit(scheduler, "b", RequestChannel.WEBSOCKET, "websocket");
+        holder.tryEmitEmpty();
+
+        assertThat(started).containsExactly("websocket", "rest");
+    }
+
+    @Test
+    void cancelledCallGivesUpItsPlace() {
+        FairLlmScheduler scheduler = scheduler(1, 10);
+        Sinks.Empty<Void> holder = occupy(scheduler);
+
+        submit(scheduler, "a", RequestChannel.REST, "a-1").dispose();
+        submit(scheduler, "b", RequestChannel.REST, "b-1");
+        holder.tryEmitEmpty();
+
+        assertThat(started).containsExactly("b-1");
+    }
+
+    @Test
+    void rejectsWhenTheQueueIsFull() {
+        FairLlmScheduler scheduler = scheduler(1, 1);
+        occupy(scheduler);
+        submit(scheduler, "a", RequestChannel.REST, "a-1");
+
+        assertThatThrownBy(() -> scheduler.schedule("b", RequestChannel.REST, Flux::empty).blockLast())
+                .isInstanceOf(RateLimitExceededException.class);
+    }
+
+    private FairLlmScheduler scheduler(int maxConcurrency, int maxQueued) {
+        return new FairLlmScheduler(new SimpleMeterRegistry(), maxConcurrency, maxQueued, Duration.ofSeconds(30), 4, 1);
+    }
+
+    /**
+     * Takes the only slot until the returned sink completes.
+     */
+    private Sinks.Empty<Void> occupy(FairLlmScheduler scheduler) {
+        Sinks.Empty<Void> holder = Sinks.empty();
+        scheduler.schedule("holder", RequestChannel.REST, () -> holder.asMono().flux()).subscribe();
+
+        return holder;
+    }
+
+    private Disposable submit(FairLlmScheduler scheduler, String userId, RequestChannel channel, String name) {
+        return scheduler.schedule(userId, channel, () -> {
+            started.add(name);
+            return Flux.<String>empty();
+        }).subscribe();
+    }
+
+}
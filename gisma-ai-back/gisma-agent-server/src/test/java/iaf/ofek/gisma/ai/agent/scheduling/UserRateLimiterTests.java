@@ -0,0 +1,68 @@
+package iaf.ofek.gisma.ai.agent.scheduling;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserRateLimiterTests {
+
+    @Test
+    void admitsABurstThenRejects() {
+        UserRateLimiter limiter = new UserRateLimiter(1, 3);
+
+        assertThat(limiter.tryAcquire("a")).isZero();
+        assertThat(limiter.tryAcquire("a")).isZero();
+        assertThat(limiter.tryAcquire("a")).isZero();
+        assertThat(limiter.tryAcquire("a")).isPositive();
+    }
+
+    @Test
+    void rejectionTellsWhenTheNextTokenIsDue() {
+        UserRateLimiter limiter = new UserRateLimiter(1, 2);
+        limiter.tryAcquire("a");
+        limiter.tryAcquire("a");
+
+        long waitNanos = limiter.tryAcquire("a");
+
+        assertThat(waitNanos).isBetween(TimeUnit.SECONDS.toNanos(59), TimeUnit.SECONDS.toNanos(60));
+    }
+
+    @Test
+    void rejectionDoesNotTakeAToken() {
+        UserRateLimiter limiter = new UserRateLimiter(1, 1);
+        limiter.tryAcquire("a");
+
+        long first = limiter.tryAcquire("a");
+        long second = limiter.tryAcquire("a");
+
+        assertThat(second).isPositive().isLessThanOrEqualTo(first);
+    }
+
+    @Test
+    void usersHaveTheirOwnBuckets() {
+        UserRateLimiter limiter = new UserRateLimiter(1, 1);
+
+        assertThat(limiter.tryAcquire("a")).isZero();
+        assertThat(limiter.tryAcquire("a")).isPositive();
+        assertThat(limiter.tryAcquire("b")).isZero();
+    }
+
+    @Test
+    void sweepDropsRefilledBucketsOnly() throws InterruptedException {
+        // one token per microsecond refills right away, one per minute doesn't
+        UserRateLimiter fast = new UserRateLimiter(60_000_000, 1);
+        UserRateLimiter slow = new UserRateLimiter(1, 1);
+        fast.tryAcquire("a");
+        slow.tryAcquire("a");
+        Thread.sleep(5);
+
+        fast.sweep();
+        slow.sweep();
+
+        assertThat(fast.size()).isZero();
+        assertThat(slow.size()).isEqualTo(1);
+    }
+
+}
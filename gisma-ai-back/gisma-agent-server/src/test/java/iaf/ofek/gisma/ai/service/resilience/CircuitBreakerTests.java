@@ -0,0 +1,133 @@
+package iaf.ofek.gisma.ai.service.resilience;
+
+import iaf.ofek.gisma.ai.enums.CircuitState;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTests {
+
+    @Test
+    void staysClosedUntilMinimumCallsWereRecorded() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 10, 4, 50, Duration.ofMinutes(1));
+
+        fail(breaker, 3);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.CLOSED);
+        assertThat(breaker.getFailureRate()).isZero();
+    }
+
+    @Test
+    void opensAtTheFailureRateThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 10, 4, 50, Duration.ofMinutes(1));
+
+        succeed(breaker, 2);
+        fail(breaker, 2);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.OPEN);
+        assertThat(breaker.tryAcquire()).isNull();
+        assertThat(breaker.getRetryAfter()).isPositive();
+    }
+
+    @Test
+    void onlyTheLastWindowCounts() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 4, 4, 75, Duration.ofMinutes(1));
+
+        fail(breaker, 2);
+        succeed(breaker, 4);
+        fail(breaker, 2);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.CLOSED);
+        assertThat(breaker.getFailureRate()).isEqualTo(50);
+    }
+
+    @Test
+    void letsASingleProbeThroughOnceOpenDurationPassed() {
+        CircuitBreaker breaker = open(Duration.ZERO);
+
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+
+        assertThat(probe).isNotNull();
+        assertThat(probe.probe()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitState.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isNull();
+    }
+
+    @Test
+    void successfulProbeCloses() {
+        CircuitBreaker breaker = open(Duration.ZERO);
+
+        breaker.onSuccess(breaker.tryAcquire());
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.CLOSED);
+        assertThat(breaker.getFailureRate()).isZero();
+    }
+
+    @Test
+    void failedProbeOpensAgain() {
+        CircuitBreaker breaker = open(Duration.ofMillis(200));
+        CircuitBreaker.Permit probe = awaitProbe(breaker);
+
+        breaker.onFailure(probe);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.OPEN);
+        assertThat(breaker.tryAcquire()).isNull();
+    }
+
+    @Test
+    void cancelledProbeLetsTheNextCallerProbe() {
+        CircuitBreaker breaker = open(Duration.ofMillis(50));
+
+        breaker.onCancel(awaitProbe(breaker));
+        CircuitBreaker.Permit next = breaker.tryAcquire();
+
+        assertThat(next).isNotNull();
+        assertThat(next.probe()).isTrue();
+    }
+
+    @Test
+    void ignoresOutcomesOfCallsAdmittedBeforeItOpened() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, 2, 100, Duration.ZERO);
+        CircuitBreaker.Permit stale = breaker.tryAcquire();
+        fail(breaker, 2);
+        breaker.onSuccess(breaker.tryAcquire());
+
+        breaker.onFailure(stale);
+        fail(breaker, 1);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitState.CLOSED);
+    }
+
+    private static CircuitBreaker open(Duration openDuration) {
+        CircuitBreaker breaker = new CircuitBreaker("test", 2, 2, 100, openDuration);
+        fail(breaker, 2);
+
+        return breaker;
+    }
+
+    private static CircuitBreaker.Permit awaitProbe(CircuitBreaker breaker) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        CircuitBreaker.Permit permit;
+        while ((permit = breaker.tryAcquire()) == null) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.onSpinWait();
+        }
+
+        return permit;
+    }
+
+    private static void fail(CircuitBreaker breaker, int calls) {
+        for (int i = 0; i < calls; i++) {
+            breaker.onFailure(breaker.tryAcquire());
+        }
+    }
+
+    private static void succeed(CircuitBreaker breaker, int calls) {
+        for (int i = 0; i < calls; i++) {
+            breaker.onSuccess(breaker.tryAcquire());
+        }
+    }
+
+}
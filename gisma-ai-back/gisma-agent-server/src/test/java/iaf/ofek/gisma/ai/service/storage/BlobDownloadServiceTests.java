@@ -0,0 +1,166 @@
+package iaf.ofek.gisma.ai.service.storage;
+
+import iaf.ofek.gisma.ai.dto.storage.BlobInfo;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BlobDownloadServiceTests {
+
+    private static final String URL = "s3://bucket/file";
+
+    private static final String ETAG = "\"abc\"";
+
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    private final BlobStore blobStore = mock(BlobStore.class);
+
+    private final BlobDownloadService service = new BlobDownloadService(blobStore);
+
+    BlobDownloadServiceTests() {
+        when(blobStore.stat(URL)).thenReturn(Optional.of(new BlobInfo(URL, Instant.EPOCH, CONTENT.length, ETAG)));
+        when(blobStore.open(URL)).thenAnswer(invocation -> new ByteArrayInputStream(CONTENT));
+        when(blobStore.open(anyString(), anyLong(), anyLong())).thenAnswer(invocation -> {
+            int offset = Math.toIntExact(invocation.<Long>getArgument(1));
+            int length = Math.toIntExact(invocation.<Long>getArgument(2));
+            return new ByteArrayInputStream(Arrays.copyOfRange(CONTENT, offset, offset + length));
+        });
+    }
+
+    @Test
+    void servesTheWholeFileWithoutARange() throws IOException {
+        ResponseEntity<StreamingResponseBody> response = service.download(URL, "file.txt", "text/plain", request());
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getETag()).isEqualTo(ETAG);
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(10);
+        assertThat(body(response)).isEqualTo("0123456789");
+    }
+
+    @Test
+    void matchingIfNoneMatchIsNotModifiedWithoutReadingStorage() {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\", W/" + ETAG);
+
+        ResponseEntity<StreamingResponseBody> response = service.download(URL, "file.txt", "text/plain", request);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(response.getBody()).isNull();
+        verify(blobStore, never()).open(URL);
+    }
+
+    @Test
+    void servesASingleRangeReadingOnlyItsBytes() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+
+        ResponseEntity<StreamingResponseBody> response = service.download(URL, "file.txt", "text/plain", request);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(4);
+        assertThat(body(response)).isEqualTo("2345");
+        verify(blobStore).open(URL, 2, 4);
+    }
+
+    @Test
+    void servesASuffixRange() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=-3");
+
+        ResponseEntity<StreamingResponseBody> response = service.download(URL, "file.txt", "text/plain", request);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 7-9/10");
+        assertThat(body(response)).isEqualTo("789");
+    }
+
+    @Test
+    void honorsAMatchingIfRange() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1");
+        request.addHeader(HttpHeaders.IF_RANGE, ETAG);
+
+        ResponseEntity<StreamingResponseBody> response = service.download(URL, "file.txt", "text/plain", request);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(body(response)).isEqualTo("01");
+    }
+
+    @Test
+    void servesTheWholeFileWhenIfRangeNoLongerMatches() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"stale\"");
+
+        ResponseEntity<StreamingResponseBody> response = service.download(URL, "file.txt", "text/plain", request);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().containsKey(HttpHeaders.CONTENT_RANGE)).isFalse();
+        assertThat(body(response)).isEqualTo("0123456789");
+    }
+
+    @Test
+    void servesTheWholeFileForSeveralRanges() throws IOException {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-1,4-5");
+
+        ResponseEntity<StreamingResponseBody> response = service.download(URL, "file.txt", "text/plain", request);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(body(response)).isEqualTo("0123456789");
+    }
+
+    @Test
+    void unsatisfiableRangeIsRejected() {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=20-30");
+
+        ResponseEntity<StreamingResponseBody> response = service.download(URL, "file.txt", "text/plain", request);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+        assertThat(response.getBody()).isNull();
+    }
+
+    @Test
+    void malformedRangeIsRejected() {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, "bytes=abc");
+
+        ResponseEntity<StreamingResponseBody> response = service.download(URL, "file.txt", "text/plain", request);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+    }
+
+    private static MockHttpServletRequest request() {
+        return new MockHttpServletRequest("GET", "/documents/1/content");
+    }
+
+    private static String body(ResponseEntity<StreamingResponseBody> response) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        response.getBody().writeTo(outputStream);
+
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+
+}
@@ -10,7 +10,10 @@ CREATE TABLE ${SA_DB_SCHEMA}.document_vector_store (
     id UUID PRIMARY KEY,
     content TEXT,
     metadata JSONB,
-    embedding vector(1536)
+    embedding vector(${SA_EMBEDDING_DIMENSIONS}),
+    embedding_half halfvec(${SA_EMBEDDING_DIMENSIONS}),
+    embedding_bit bit(${SA_EMBEDDING_DIMENSIONS}),
+    folder_path UUID[]
 );
 
 CREATE TABLE ${SA_DB_SCHEMA}.s3_folders (
@@ -20,16 +23,27 @@ CREATE TABLE ${SA_DB_SCHEMA}.s3_folders (
     CONSTRAINT fk_parent FOREIGN KEY (parent_id) REFERENCES ${SA_DB_SCHEMA}.s3_folders (id)
 );
 
+CREATE TABLE ${SA_DB_SCHEMA}.s3_contents (
+    id UUID PRIMARY KEY,
+    sha256 CHAR(64) UNIQUE,
+    url TEXT,
+    content_type VARCHAR(255),
+    ref_count INT NOT NULL DEFAULT 0
+);
+
 CREATE TABLE ${SA_DB_SCHEMA}.s3_documents (
     id UUID PRIMARY KEY,
     url TEXT,
     name VARCHAR(255),
     content_type VARCHAR(255),
     folder_id UUID,
-    CONSTRAINT fk_folder FOREIGN KEY (folder_id) REFERENCES ${SA_DB_SCHEMA}.s3_folders (id)
+    content_id UUID,
+    CONSTRAINT fk_folder FOREIGN KEY (folder_id) REFERENCES ${SA_DB_SCHEMA}.s3_folders (id),
+    CONSTRAINT fk_content FOREIGN KEY (content_id) REFERENCES ${SA_DB_SCHEMA}.s3_contents (id)
 );
 
 CREATE INDEX idx_s3_documents_folder_id ON ${SA_DB_SCHEMA}.s3_documents(folder_id);
+CREATE INDEX idx_s3_documents_content_id ON ${SA_DB_SCHEMA}.s3_documents(content_id);
 CREATE INDEX idx_s3_folders_parent_id ON ${SA_DB_SCHEMA}.s3_folders(parent_id);
 
 
@@ -37,10 +51,13 @@ CREATE INDEX idx_s3_folders_parent_id ON ${SA_DB_SCHEMA}.s3_folders(parent_id);
 
 CREATE TABLE ${SA_DB_SCHEMA}.user_document_vector_store
 (
-    id        UUID PRIMARY KEY,
-    content   TEXT,
-    metadata  JSONB,
-    embedding vector(1536)
+    id             UUID PRIMARY KEY,
+    content        TEXT,
+    metadata       JSONB,
+    embedding      vector(${SA_EMBEDDING_DIMENSIONS}),
+    embedding_half halfvec(${SA_EMBEDDING_DIMENSIONS}),
+    embedding_bit  bit(${SA_EMBEDDING_DIMENSIONS}),
+    user_id        UUID
 );
 
 CREATE TABLE ${SA_DB_SCHEMA}.users (
@@ -58,7 +75,9 @@ CREATE TABLE ${SA_DB_SCHEMA}.user_s3_folders (
     id UUID PRIMARY KEY,
     name VARCHAR(255),
     parent_id UUID,
-    CONSTRAINT fk_parent FOREIGN KEY (parent_id) REFERENCES ${SA_DB_SCHEMA}.user_s3_folders (id)
+    user_id UUID NOT NULL,
+    CONSTRAINT fk_parent FOREIGN KEY (parent_id) REFERENCES ${SA_DB_SCHEMA}.user_s3_folders (id),
+    CONSTRAINT fk_user FOREIGN KEY (user_id) REFERENCES ${SA_DB_SCHEMA}.users (id)
 );
 
 CREATE TABLE ${SA_DB_SCHEMA}.user_s3_documents (
@@ -67,12 +86,159 @@ CREATE TABLE ${SA_DB_SCHEMA}.user_s3_documents (
     name VARCHAR(255),
     content_type VARCHAR(255),
     folder_id UUID,
-    CONSTRAINT fk_folder FOREIGN KEY (folder_id) REFERENCES ${SA_DB_SCHEMA}.user_s3_folders (id)
+    user_id UUID NOT NULL,
+    CONSTRAINT fk_folder FOREIGN KEY (folder_id) REFERENCES ${SA_DB_SCHEMA}.user_s3_folders (id),
+    CONSTRAINT fk_user FOREIGN KEY (user_id) REFERENCES ${SA_DB_SCHEMA}.users (id)
 );
 
 CREATE INDEX idx_user_s3_documents_folder_id ON ${SA_DB_SCHEMA}.user_s3_documents(folder_id);
 CREATE INDEX idx_user_s3_folders_parent_id ON ${SA_DB_SCHEMA}.user_s3_folders(parent_id);
+CREATE INDEX idx_user_s3_documents_user_id ON ${SA_DB_SCHEMA}.user_s3_documents(user_id);
+CREATE INDEX idx_user_s3_folders_user_id ON ${SA_DB_SCHEMA}.user_s3_folders(user_id);
+
+
+
+/* Quantized embeddings (two-stage search) */
+
+CREATE OR REPLACE FUNCTION ${SA_DB_SCHEMA}.sync_quantized_embedding() RETURNS trigger AS $$
+BEGIN
+    NEW.embedding_half := NEW.embedding::halfvec;
+    NEW.embedding_bit := binary_quantize(NEW.embedding);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_document_vector_store_quantize
+    BEFORE INSERT OR UPDATE OF embedding ON ${SA_DB_SCHEMA}.document_vector_store
+    FOR EACH ROW EXECUTE FUNCTION ${SA_DB_SCHEMA}.sync_quantized_embedding();
+
+CREATE TRIGGER trg_user_document_vector_store_quantize
+    BEFORE INSERT OR UPDATE OF embedding ON ${SA_DB_SCHEMA}.user_document_vector_store
+    FOR EACH ROW EXECUTE FUNCTION ${SA_DB_SCHEMA}.sync_quantized_embedding();
+
+CREATE INDEX idx_document_vector_store_half ON ${SA_DB_SCHEMA}.document_vector_store USING hnsw (embedding_half halfvec_cosine_ops);
+CREATE INDEX idx_document_vector_store_bit ON ${SA_DB_SCHEMA}.document_vector_store USING hnsw (embedding_bit bit_hamming_ops);
+CREATE INDEX idx_user_document_vector_store_half ON ${SA_DB_SCHEMA}.user_document_vector_store USING hnsw (embedding_half halfvec_cosine_ops);
+CREATE INDEX idx_user_document_vector_store_bit ON ${SA_DB_SCHEMA}.user_document_vector_store USING hnsw (embedding_bit bit_hamming_ops);
+
+
+
+
+/* Folder scoped retrieval */
+
+CREATE OR REPLACE FUNCTION ${SA_DB_SCHEMA}.sync_folder_columns() RETURNS trigger AS $$
+BEGIN
+    NEW.folder_path := ARRAY(SELECT jsonb_array_elements_text(COALESCE(NEW.metadata->'folderPath', '[]'::jsonb))::uuid);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_document_vector_store_folders
+    BEFORE INSERT OR UPDATE OF metadata ON ${SA_DB_SCHEMA}.document_vector_store
+    FOR EACH ROW EXECUTE FUNCTION ${SA_DB_SCHEMA}.sync_folder_columns();
+
+CREATE INDEX idx_document_vector_store_folder_path ON ${SA_DB_SCHEMA}.document_vector_store USING gin (folder_path);
+
+
+/* Per user retrieval */
+
+CREATE OR REPLACE FUNCTION ${SA_DB_SCHEMA}.sync_user_id() RETURNS trigger AS $$
+BEGIN
+    NEW.user_id := (NEW.metadata->>'userId')::uuid;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_user_document_vector_store_user_id
+    BEFORE INSERT OR UPDATE OF metadata ON ${SA_DB_SCHEMA}.user_document_vector_store
+    FOR EACH ROW EXECUTE FUNCTION ${SA_DB_SCHEMA}.sync_user_id();
+
+CREATE INDEX idx_user_document_vector_store_user_id ON ${SA_DB_SCHEMA}.user_document_vector_store(user_id);
+
+
+/* Orphan collector anti-joins */
+
+CREATE INDEX idx_document_vector_store_content_id ON ${SA_DB_SCHEMA}.document_vector_store ((metadata->>'contentId'));
+CREATE INDEX idx_user_document_vector_store_document_id ON ${SA_DB_SCHEMA}.user_document_vector_store ((metadata->>'documentId'));
+CREATE INDEX idx_s3_contents_url ON ${SA_DB_SCHEMA}.s3_contents(url);
+CREATE INDEX idx_user_s3_documents_url ON ${SA_DB_SCHEMA}.user_s3_documents(url);
+
+
+/* Corpus version (retrieval cache invalidation) */
+
+CREATE SEQUENCE ${SA_DB_SCHEMA}.corpus_version_seq;
+
+
+/* Re-embedding jobs */
+
+CREATE TABLE ${SA_DB_SCHEMA}.reembedding_jobs (
+    id UUID PRIMARY KEY,
+    target_model VARCHAR(50) NOT NULL,
+    target_dimensions INT NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    last_id UUID,
+    processed_rows BIGINT NOT NULL DEFAULT 0,
+    error TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT now(),
+    updated_at TIMESTAMP NOT NULL DEFAULT now(),
+    lease_until TIMESTAMP
+);
+
+CREATE UNIQUE INDEX idx_reembedding_jobs_single_running ON ${SA_DB_SCHEMA}.reembedding_jobs(status) WHERE status = 'RUNNING';
+
+
+/* Ingestion outbox */
+
+CREATE TABLE ${SA_DB_SCHEMA}.ingestion_outbox (
+    id UUID PRIMARY KEY,
+    event_type VARCHAR(50) NOT NULL,
+    payload JSONB NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    available_at TIMESTAMP NOT NULL DEFAULT now(),
+    last_error TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX idx_ingestion_outbox_pending ON ${SA_DB_SCHEMA}.ingestion_outbox(available_at) WHERE status = 'PENDING';
+
+
+/* Prompt jobs */
+
+CREATE TABLE ${SA_DB_SCHEMA}.prompt_jobs (
+    id UUID PRIMARY KEY,
+    user_id UUID NOT NULL,
+    prompt JSONB NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    available_at TIMESTAMP NOT NULL DEFAULT now(),
+    response TEXT,
+    error TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT now(),
+    completed_at TIMESTAMP,
+    expires_at TIMESTAMP,
+    CONSTRAINT fk_prompt_jobs_user FOREIGN KEY (user_id) REFERENCES ${SA_DB_SCHEMA}.users (id) ON DELETE CASCADE
+);
+
+CREATE INDEX idx_prompt_jobs_queued ON ${SA_DB_SCHEMA}.prompt_jobs(available_at) WHERE status IN ('PENDING', 'RUNNING');
+CREATE INDEX idx_prompt_jobs_expires_at ON ${SA_DB_SCHEMA}.prompt_jobs(expires_at) WHERE expires_at IS NOT NULL;
+
+
+/* User lookups (login by email or username) */
+
+CREATE INDEX idx_users_email ON ${SA_DB_SCHEMA}.users(email);
+CREATE INDEX idx_users_username ON ${SA_DB_SCHEMA}.users(username);
+
+
+/* Revoked tokens */
+
+CREATE TABLE ${SA_DB_SCHEMA}.revoked_tokens (
+    digest CHAR(64) PRIMARY KEY,
+    expires_at TIMESTAMP NOT NULL,
+    revoked_at TIMESTAMP NOT NULL DEFAULT now()
+);
 
+CREATE INDEX idx_revoked_tokens_revoked_at ON ${SA_DB_SCHEMA}.revoked_tokens(revoked_at);
 
 
 /* Chat Memory */
@@ -0,0 +1,43 @@
+/*
+ * Adds quantized companion columns for the two-stage search (sa.vectorstore.quantization.mode).
+ * Requires pgvector >= 0.7.0 (halfvec, binary_quantize).
+ *
+ * New rows are filled by the trigger. Existing rows are filled by the backfill job:
+ *   POST /ingestion/vector-store/quantization/backfill
+ * Keep sa.vectorstore.quantization.mode=NONE until the backfill finished, rows without
+ * companion values are invisible to the ANN pass.
+ *
+ * The ANN pass reads topK * oversample candidates, hnsw.ef_search must be at least that:
+ *   ALTER DATABASE <db> SET hnsw.ef_search = 100;
+ */
+
+ALTER TABLE ${SA_DB_SCHEMA}.document_vector_store
+    ADD COLUMN IF NOT EXISTS embedding_half halfvec(1536),
+    ADD COLUMN IF NOT EXISTS embedding_bit bit(1536);
+
+ALTER TABLE ${SA_DB_SCHEMA}.user_document_vector_store
+    ADD COLUMN IF NOT EXISTS embedding_half halfvec(1536),
+    ADD COLUMN IF NOT EXISTS embedding_bit bit(1536);
+
+CREATE OR REPLACE FUNCTION ${SA_DB_SCHEMA}.sync_quantized_embedding() RETURNS trigger AS $$
+BEGIN
+    NEW.embedding_half := NEW.embedding::halfvec(1536);
+    NEW.embedding_bit := binary_quantize(NEW.embedding)::bit(1536);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_document_vector_store_quantize ON ${SA_DB_SCHEMA}.document_vector_store;
+CREATE TRIGGER trg_document_vector_store_quantize
+    BEFORE INSERT OR UPDATE OF embedding ON ${SA_DB_SCHEMA}.document_vector_store
+    FOR EACH ROW EXECUTE FUNCTION ${SA_DB_SCHEMA}.sync_quantized_embedding();
+
+DROP TRIGGER IF EXISTS trg_user_document_vector_store_quantize ON ${SA_DB_SCHEMA}.user_document_vector_store;
+CREATE TRIGGER trg_user_document_vector_store_quantize
+    BEFORE INSERT OR UPDATE OF embedding ON ${SA_DB_SCHEMA}.user_document_vector_store
+    FOR EACH ROW EXECUTE FUNCTION ${SA_DB_SCHEMA}.sync_quantized_embedding();
+
+CREATE INDEX IF NOT EXISTS idx_document_vector_store_half ON ${SA_DB_SCHEMA}.document_vector_store USING hnsw (embedding_half halfvec_cosine_ops);
+CREATE INDEX IF NOT EXISTS idx_document_vector_store_bit ON ${SA_DB_SCHEMA}.document_vector_store USING hnsw (embedding_bit bit_hamming_ops);
+CREATE INDEX IF NOT EXISTS idx_user_document_vector_store_half ON ${SA_DB_SCHEMA}.user_document_vector_store USING hnsw (embedding_half halfvec_cosine_ops);
+CREATE INDEX IF NOT EXISTS idx_user_document_vector_store_bit ON ${SA_DB_SCHEMA}.user_document_vector_store USING hnsw (embedding_bit bit_hamming_ops);
@@ -0,0 +1,43 @@
+/*
+ * Adds the indexed folder columns used to scope retrieval to folders (UserPrompt.folderIds).
+ * Both columns are derived from the chunk metadata by the trigger, the metadata of existing
+ * chunks is backfilled from the s3_folders tree below.
+ *
+ * folderPath holds the folder ids from the top level folder down to the document folder,
+ * the root folder is left out.
+ */
+
+ALTER TABLE ${SA_DB_SCHEMA}.document_vector_store
+    ADD COLUMN IF NOT EXISTS folder_path UUID[],
+    ADD COLUMN IF NOT EXISTS top_folder_id UUID;
+
+CREATE OR REPLACE FUNCTION ${SA_DB_SCHEMA}.sync_folder_columns() RETURNS trigger AS $$
+BEGIN
+    NEW.top_folder_id := (NEW.metadata->>'topFolderId')::uuid;
+    NEW.folder_path := ARRAY(SELECT jsonb_array_elements_text(COALESCE(NEW.metadata->'folderPath', '[]'::jsonb))::uuid);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_document_vector_store_folders ON ${SA_DB_SCHEMA}.document_vector_store;
+CREATE TRIGGER trg_document_vector_store_folders
+    BEFORE INSERT OR UPDATE OF metadata ON ${SA_DB_SCHEMA}.document_vector_store
+    FOR EACH ROW EXECUTE FUNCTION ${SA_DB_SCHEMA}.sync_folder_columns();
+
+WITH RECURSIVE folder_paths(id, path) AS (
+    SELECT id, ARRAY[]::uuid[] FROM ${SA_DB_SCHEMA}.s3_folders WHERE parent_id IS NULL
+    UNION ALL
+    SELECT f.id, p.path || f.id
+    FROM ${SA_DB_SCHEMA}.s3_folders f
+    JOIN folder_paths p ON f.parent_id = p.id
+)
+UPDATE ${SA_DB_SCHEMA}.document_vector_store v
+SET metadata = v.metadata
+    || jsonb_build_object('folderId', d.folder_id, 'folderPath', to_jsonb(fp.path))
+    || CASE WHEN cardinality(fp.path) > 0 THEN jsonb_build_object('topFolderId', fp.path[1]) ELSE '{}'::jsonb END
+FROM ${SA_DB_SCHEMA}.s3_documents d
+JOIN folder_paths fp ON fp.id = d.folder_id
+WHERE d.id = (v.metadata->>'documentId')::uuid;
+
+CREATE INDEX IF NOT EXISTS idx_document_vector_store_folder_path ON ${SA_DB_SCHEMA}.document_vector_store USING gin (folder_path);
+CREATE INDEX IF NOT EXISTS idx_document_vector_store_top_folder_id ON ${SA_DB_SCHEMA}.document_vector_store(top_folder_id);
@@ -0,0 +1,36 @@
+/*
+ * Private per user documents: owner columns on the user folder / document tables and an indexed
+ * user_id column on user_document_vector_store, filled from the chunk metadata by the trigger.
+ *
+ * The user store is always searched exactly (no ANN pass), the user_id index limits the scan
+ * to the rows of one user.
+ */
+
+ALTER TABLE ${SA_DB_SCHEMA}.user_s3_folders
+    ADD COLUMN IF NOT EXISTS user_id UUID REFERENCES ${SA_DB_SCHEMA}.users (id);
+
+ALTER TABLE ${SA_DB_SCHEMA}.user_s3_documents
+    ADD COLUMN IF NOT EXISTS user_id UUID REFERENCES ${SA_DB_SCHEMA}.users (id);
+
+ALTER TABLE ${SA_DB_SCHEMA}.user_document_vector_store
+    ADD COLUMN IF NOT EXISTS user_id UUID;
+
+CREATE OR REPLACE FUNCTION ${SA_DB_SCHEMA}.sync_user_id() RETURNS trigger AS $$
+BEGIN
+    NEW.user_id := (NEW.metadata->>'userId')::uuid;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_user_document_vector_store_user_id ON ${SA_DB_SCHEMA}.user_document_vector_store;
+CREATE TRIGGER trg_user_document_vector_store_user_id
+    BEFORE INSERT OR UPDATE OF metadata ON ${SA_DB_SCHEMA}.user_document_vector_store
+    FOR EACH ROW EXECUTE FUNCTION ${SA_DB_SCHEMA}.sync_user_id();
+
+UPDATE ${SA_DB_SCHEMA}.user_document_vector_store
+SET user_id = (metadata->>'userId')::uuid
+WHERE user_id IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_user_s3_documents_user_id ON ${SA_DB_SCHEMA}.user_s3_documents(user_id);
+CREATE INDEX IF NOT EXISTS idx_user_s3_folders_user_id ON ${SA_DB_SCHEMA}.user_s3_folders(user_id);
+CREATE INDEX IF NOT EXISTS idx_user_document_vector_store_user_id ON ${SA_DB_SCHEMA}.user_document_vector_store(user_id);
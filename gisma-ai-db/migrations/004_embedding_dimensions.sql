@@ -0,0 +1,60 @@
+/*
+ * Switches the vector tables to another embedding dimension (${SA_EMBEDDING_DIMENSIONS}),
+ * e.g. 384 for the local transformers model or 1536 for text-embedding-3-small.
+ *
+ * Vectors of different models are not comparable, the embedding columns are recreated empty.
+ * Set spring.ai.model.embedding and sa.vectorstore.dimensions to match before restarting,
+ * startup fails while they disagree with the columns. Chunks are kept without embeddings
+ * and are invisible to search until their documents are uploaded again.
+ * To switch models without an outage use the re-embedding job instead (migrations/005).
+ */
+
+DROP INDEX IF EXISTS ${SA_DB_SCHEMA}.idx_document_vector_store_half;
+DROP INDEX IF EXISTS ${SA_DB_SCHEMA}.idx_document_vector_store_bit;
+DROP INDEX IF EXISTS ${SA_DB_SCHEMA}.idx_user_document_vector_store_half;
+DROP INDEX IF EXISTS ${SA_DB_SCHEMA}.idx_user_document_vector_store_bit;
+
+-- no fixed dimension, works for any column size
+CREATE OR REPLACE FUNCTION ${SA_DB_SCHEMA}.sync_quantized_embedding() RETURNS trigger AS $$
+BEGIN
+    NEW.embedding_half := NEW.embedding::halfvec;
+    NEW.embedding_bit := binary_quantize(NEW.embedding);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+ALTER TABLE ${SA_DB_SCHEMA}.document_vector_store
+    DROP COLUMN embedding,
+    DROP COLUMN embedding_half,
+    DROP COLUMN embedding_bit;
+
+ALTER TABLE ${SA_DB_SCHEMA}.document_vector_store
+    ADD COLUMN embedding vector(${SA_EMBEDDING_DIMENSIONS}),
+    ADD COLUMN embedding_half halfvec(${SA_EMBEDDING_DIMENSIONS}),
+    ADD COLUMN embedding_bit bit(${SA_EMBEDDING_DIMENSIONS});
+
+ALTER TABLE ${SA_DB_SCHEMA}.user_document_vector_store
+    DROP COLUMN embedding,
+    DROP COLUMN embedding_half,
+    DROP COLUMN embedding_bit;
+
+ALTER TABLE ${SA_DB_SCHEMA}.user_document_vector_store
+    ADD COLUMN embedding vector(${SA_EMBEDDING_DIMENSIONS}),
+    ADD COLUMN embedding_half halfvec(${SA_EMBEDDING_DIMENSIONS}),
+    ADD COLUMN embedding_bit bit(${SA_EMBEDDING_DIMENSIONS});
+
+-- dropping the column dropped the "UPDATE OF embedding" triggers too
+DROP TRIGGER IF EXISTS trg_document_vector_store_quantize ON ${SA_DB_SCHEMA}.document_vector_store;
+CREATE TRIGGER trg_document_vector_store_quantize
+    BEFORE INSERT OR UPDATE OF embedding ON ${SA_DB_SCHEMA}.document_vector_store
+    FOR EACH ROW EXECUTE FUNCTION ${SA_DB_SCHEMA}.sync_quantized_embedding();
+
+DROP TRIGGER IF EXISTS trg_user_document_vector_store_quantize ON ${SA_DB_SCHEMA}.user_document_vector_store;
+CREATE TRIGGER trg_user_document_vector_store_quantize
+    BEFORE INSERT OR UPDATE OF embedding ON ${SA_DB_SCHEMA}.user_document_vector_store
+    FOR EACH ROW EXECUTE FUNCTION ${SA_DB_SCHEMA}.sync_quantized_embedding();
+
+CREATE INDEX idx_document_vector_store_half ON ${SA_DB_SCHEMA}.document_vector_store USING hnsw (embedding_half halfvec_cosine_ops);
+CREATE INDEX idx_document_vector_store_bit ON ${SA_DB_SCHEMA}.document_vector_store USING hnsw (embedding_bit bit_hamming_ops);
+CREATE INDEX idx_user_document_vector_store_half ON ${SA_DB_SCHEMA}.user_document_vector_store USING hnsw (embedding_half halfvec_cosine_ops);
+CREATE INDEX idx_user_document_vector_store_bit ON ${SA_DB_SCHEMA}.user_document_vector_store USING hnsw (embedding_bit bit_hamming_ops);
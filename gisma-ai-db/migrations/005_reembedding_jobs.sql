@@ -0,0 +1,20 @@
+/*
+ * State and checkpoints of the background re-embedding job:
+ *   POST /ingestion/vector-store/reembedding  {"targetModel": "transformers"}
+ *
+ * The job creates document_vector_store_shadow itself and, at cutover, renames the current table
+ * to document_vector_store_retired (kept until the next cutover, drop it once the new model is verified).
+ * Requires migrations 001 and 002, the shadow table reuses their trigger functions.
+ */
+
+CREATE TABLE IF NOT EXISTS ${SA_DB_SCHEMA}.reembedding_jobs (
+    id UUID PRIMARY KEY,
+    target_model VARCHAR(50) NOT NULL,
+    target_dimensions INT NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    last_id UUID,
+    processed_rows BIGINT NOT NULL DEFAULT 0,
+    error TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT now(),
+    updated_at TIMESTAMP NOT NULL DEFAULT now()
+);
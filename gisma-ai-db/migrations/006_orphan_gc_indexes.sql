@@ -0,0 +1,20 @@
+/*
+ * Indexes for the scheduled orphan collector (OrphanGarbageCollector):
+ * chunk documentIds are anti-joined against the document tables, S3 listing pages are looked up by url.
+ *
+ * CONCURRENTLY cannot run inside a transaction, run this file statement by statement.
+ * A re-embedding job started before this migration builds its shadow table without the documentId index,
+ * re-run the first statement after its cutover.
+ */
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_document_vector_store_document_id
+    ON ${SA_DB_SCHEMA}.document_vector_store ((metadata->>'documentId'));
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_user_document_vector_store_document_id
+    ON ${SA_DB_SCHEMA}.user_document_vector_store ((metadata->>'documentId'));
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_s3_documents_url
+    ON ${SA_DB_SCHEMA}.s3_documents(url);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_user_s3_documents_url
+    ON ${SA_DB_SCHEMA}.user_s3_documents(url);
@@ -0,0 +1,42 @@
+/*
+ * Content-hash deduplication of global documents: documents with the same SHA-256 share one s3_contents row,
+ * one S3 object and one set of chunks. Global chunks are keyed by contentId instead of documentId and carry
+ * the folders of every document sharing the content (folderIds / folderPath).
+ *
+ * Existing documents get a content row each with the document id as content id and no hash (they are never
+ * matched, only new uploads are hashed). Requires migrations 002 and 006.
+ */
+
+CREATE TABLE IF NOT EXISTS ${SA_DB_SCHEMA}.s3_contents (
+    id UUID PRIMARY KEY,
+    sha256 CHAR(64) UNIQUE,
+    url TEXT,
+    content_type VARCHAR(255),
+    ref_count INT NOT NULL DEFAULT 0
+);
+
+ALTER TABLE ${SA_DB_SCHEMA}.s3_documents
+    ADD COLUMN IF NOT EXISTS content_id UUID REFERENCES ${SA_DB_SCHEMA}.s3_contents (id);
+
+INSERT INTO ${SA_DB_SCHEMA}.s3_contents (id, sha256, url, content_type, ref_count)
+SELECT id, NULL, url, content_type, 1
+FROM ${SA_DB_SCHEMA}.s3_documents
+WHERE content_id IS NULL
+ON CONFLICT (id) DO NOTHING;
+
+UPDATE ${SA_DB_SCHEMA}.s3_documents SET content_id = id WHERE content_id IS NULL;
+
+CREATE INDEX IF NOT EXISTS idx_s3_documents_content_id ON ${SA_DB_SCHEMA}.s3_documents(content_id);
+
+UPDATE ${SA_DB_SCHEMA}.document_vector_store
+SET metadata = (metadata - 'folderId')
+    || jsonb_build_object('contentId', metadata->>'documentId')
+    || CASE WHEN metadata ? 'folderId' THEN jsonb_build_object('folderIds', jsonb_build_array(metadata->'folderId')) ELSE '{}'::jsonb END
+WHERE metadata ? 'documentId' AND NOT metadata ? 'contentId';
+
+DROP INDEX IF EXISTS ${SA_DB_SCHEMA}.idx_document_vector_store_document_id;
+CREATE INDEX IF NOT EXISTS idx_document_vector_store_content_id
+    ON ${SA_DB_SCHEMA}.document_vector_store ((metadata->>'contentId'));
+
+DROP INDEX IF EXISTS ${SA_DB_SCHEMA}.idx_s3_documents_url;
+CREATE INDEX IF NOT EXISTS idx_s3_contents_url ON ${SA_DB_SCHEMA}.s3_contents(url);
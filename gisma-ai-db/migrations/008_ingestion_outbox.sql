@@ -0,0 +1,20 @@
+/*
+ * Side effects of document uploads, edits and deletes (embedding, chunk folder metadata, chunk and S3 deletes)
+ * are written here in the metadata transaction and executed afterward by the outbox dispatcher.
+ * Rows are deleted once handled, DEAD rows ran out of attempts and are kept for inspection:
+ *   SELECT event_type, payload, attempts, last_error FROM ingestion_outbox WHERE status = 'DEAD';
+ * Reset attempts and status to PENDING to retry them.
+ */
+
+CREATE TABLE IF NOT EXISTS ${SA_DB_SCHEMA}.ingestion_outbox (
+    id UUID PRIMARY KEY,
+    event_type VARCHAR(50) NOT NULL,
+    payload JSONB NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    available_at TIMESTAMP NOT NULL DEFAULT now(),
+    last_error TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS idx_ingestion_outbox_pending ON ${SA_DB_SCHEMA}.ingestion_outbox(available_at) WHERE status = 'PENDING';
@@ -0,0 +1,12 @@
+/*
+ * JWTs revoked before they expire (logout), by SHA-256 hex of the token. Every node keeps the rows in memory
+ * and pulls new ones by revoked_at, rows are deleted once the token has expired anyway.
+ */
+
+CREATE TABLE IF NOT EXISTS ${SA_DB_SCHEMA}.revoked_tokens (
+    digest CHAR(64) PRIMARY KEY,
+    expires_at TIMESTAMP NOT NULL,
+    revoked_at TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS idx_revoked_tokens_revoked_at ON ${SA_DB_SCHEMA}.revoked_tokens(revoked_at);
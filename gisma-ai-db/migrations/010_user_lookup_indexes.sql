@@ -0,0 +1,7 @@
+/*
+ * Login and OAuth sign-in look users up by email or username (WHERE email = ? OR username = ?),
+ * planned as a BitmapOr of these two indexes instead of a sequential scan of users.
+ */
+
+CREATE INDEX IF NOT EXISTS idx_users_email ON ${SA_DB_SCHEMA}.users(email);
+CREATE INDEX IF NOT EXISTS idx_users_username ON ${SA_DB_SCHEMA}.users(username);
@@ -0,0 +1,23 @@
+/*
+ * Prompts submitted through POST /prompt/jobs. Workers claim PENDING rows (and RUNNING rows whose lease in
+ * available_at ran out, their node died) and store the outcome as DONE / FAILED with an expires_at, expired
+ * rows are purged. Jobs still waiting after a restart are picked up from here.
+ */
+
+CREATE TABLE IF NOT EXISTS ${SA_DB_SCHEMA}.prompt_jobs (
+    id UUID PRIMARY KEY,
+    user_id UUID NOT NULL,
+    prompt JSONB NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    available_at TIMESTAMP NOT NULL DEFAULT now(),
+    response TEXT,
+    error TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT now(),
+    completed_at TIMESTAMP,
+    expires_at TIMESTAMP,
+    CONSTRAINT fk_prompt_jobs_user FOREIGN KEY (user_id) REFERENCES ${SA_DB_SCHEMA}.users (id) ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS idx_prompt_jobs_queued ON ${SA_DB_SCHEMA}.prompt_jobs(available_at) WHERE status IN ('PENDING', 'RUNNING');
+CREATE INDEX IF NOT EXISTS idx_prompt_jobs_expires_at ON ${SA_DB_SCHEMA}.prompt_jobs(expires_at) WHERE expires_at IS NOT NULL;
@@ -0,0 +1,6 @@
+/*
+ * Version of the global document corpus, part of the retrieval cache key. Every node bumps it after writing
+ * to document_vector_store and polls it, so a write on one node drops the cached results of all of them.
+ */
+
+CREATE SEQUENCE IF NOT EXISTS ${SA_DB_SCHEMA}.corpus_version_seq;
@@ -0,0 +1,8 @@
+/*
+ * One re-embedding job runs at a time across all nodes: at most one RUNNING row, and the node running it holds
+ * a lease it renews while it works. A node that finds the lease expired on startup resumes the job.
+ */
+
+ALTER TABLE ${SA_DB_SCHEMA}.reembedding_jobs ADD COLUMN IF NOT EXISTS lease_until TIMESTAMP;
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_reembedding_jobs_single_running ON ${SA_DB_SCHEMA}.reembedding_jobs(status) WHERE status = 'RUNNING';
@@ -0,0 +1,20 @@
+/*
+ * Drops the top_folder_id column, its index and the topFolderId chunk metadata. Folder scoping filters on
+ * folder_path only: chunks of shared content carry the union of their folder paths, so the top level folder
+ * is not single valued and was never queried.
+ */
+
+CREATE OR REPLACE FUNCTION ${SA_DB_SCHEMA}.sync_folder_columns() RETURNS trigger AS $$
+BEGIN
+    NEW.folder_path := ARRAY(SELECT jsonb_array_elements_text(COALESCE(NEW.metadata->'folderPath', '[]'::jsonb))::uuid);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP INDEX IF EXISTS ${SA_DB_SCHEMA}.idx_document_vector_store_top_folder_id;
+
+ALTER TABLE ${SA_DB_SCHEMA}.document_vector_store DROP COLUMN IF EXISTS top_folder_id;
+
+UPDATE ${SA_DB_SCHEMA}.document_vector_store
+SET metadata = metadata - 'topFolderId'
+WHERE metadata ? 'topFolderId';